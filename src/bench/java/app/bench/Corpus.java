@@ -0,0 +1,140 @@
+package app.bench;
+
+import app.CompilerDriver;
+import app.ast.Program;
+import app.frontend.AstBuilder;
+import app.sem.ErrorReporter;
+import app.sem.SourceMap;
+import app.sem.TypeChecker;
+import app.tools.ProgramGenerator;
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark inputs, selected by name:
+ * <ul>
+ * <li>{@code examples} - every module in {@code examples/} (or {@code -Dob0.examples=DIR}) that
+ * compiles without errors;</li>
+ * <li>{@code lines-N} - a generated program of about N lines, with N/200 top-level routines;</li>
+ * <li>{@code procs-N} - a generated program with routines nested N levels deep;</li>
+ * <li>{@code nested-N} - statements nested N levels deep;</li>
+ * <li>{@code wide-N} - assignments whose right-hand side has N operands.</li>
+ * </ul>
+ */
+final class Corpus {
+
+    record Source(String name, String text) {
+    }
+
+    private Corpus() {
+    }
+
+    static List<Source> load(String input) {
+        if (input.equals("examples")) {
+            return examples(Path.of(System.getProperty("ob0.examples", "examples")));
+        }
+        int dash = input.lastIndexOf('-');
+        int n = Integer.parseInt(input.substring(dash + 1));
+        String text = switch (input.substring(0, dash)) {
+            case "lines" ->
+                lines(n);
+            case "procs" ->
+                procs(n);
+            case "nested" ->
+                nested(n);
+            case "wide" ->
+                wide(n);
+            default ->
+                throw new IllegalArgumentException("unknown input " + input);
+        };
+        return List.of(new Source(input + ".ob0", text));
+    }
+
+    private static List<Source> examples(Path dir) {
+        List<Source> out = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : files.filter(f -> f.toString().endsWith(".ob0")).sorted().toList()) {
+                Source s = new Source(f.getFileName().toString(), Files.readString(f));
+                if (compiles(s)) {
+                    out.add(s);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (out.isEmpty()) {
+            throw new IllegalStateException("no compilable examples in " + dir.toAbsolutePath());
+        }
+        return out;
+    }
+
+    private static boolean compiles(Source s) {
+        try {
+            SourceMap smap = new SourceMap(s.name());
+            Program ast = new AstBuilder(smap).build(CompilerDriver.parse(CharStreams.fromString(s.text())));
+            ErrorReporter er = new ErrorReporter();
+            new TypeChecker(er, smap).check(ast);
+            return !er.hasErrors();
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /** Random program from {@link ProgramGenerator}; it emits about two lines per statement. */
+    private static String lines(int n) {
+        ProgramGenerator.Config d = ProgramGenerator.Config.defaults();
+        return ProgramGenerator.generate(new ProgramGenerator.Config(n, n / 2, d.exprDepth(), Math.max(1, n / 200),
+                d.nesting(), d.arrayDims(), d.identifiers(), d.blockDepth()));
+    }
+
+    /** Random program whose routines are nested {@code depth} levels deep. */
+    private static String procs(int depth) {
+        ProgramGenerator.Config d = ProgramGenerator.Config.defaults();
+        return ProgramGenerator.generate(new ProgramGenerator.Config(depth, 50 * depth, d.exprDepth(), 4, depth,
+                d.arrayDims(), d.identifiers(), d.blockDepth()));
+    }
+
+    private static String nested(int depth) {
+        StringBuilder sb = new StringBuilder("module nested;\nvar i, s: integer;\nbegin\n  s := 0; i := 0;\n");
+        for (int d = 0; d < depth; d++) {
+            sb.append("  ".repeat(d + 1));
+            sb.append(d % 2 == 0 ? "if s >= " + d + " then\n" : "while i < " + d + " do\n");
+        }
+        sb.append("  ".repeat(depth + 1)).append("s := s + 1; i := i + 1\n");
+        for (int d = depth - 1; d >= 0; d--) {
+            sb.append("  ".repeat(d + 1)).append(d == 0 ? "end;\n" : "end\n");
+        }
+        sb.append("  writeln(s)\nend nested.\n");
+        return sb.toString();
+    }
+
+    private static String wide(int operands) {
+        String[] ops = {" + ", " - ", " * ", " + "};
+        StringBuilder sb = new StringBuilder("module wide;\nvar a, b, c, s: integer;\nbegin\n  a := 1; b := 2; c := 3; s := 0;\n");
+        for (int stmt = 0; stmt < 16; stmt++) {
+            sb.append("  s := s");
+            for (int k = 1; k < operands; k++) {
+                sb.append(ops[(k + stmt) % ops.length]).append(switch (k % 4) {
+                    case 0 ->
+                        "a";
+                    case 1 ->
+                        "(b - " + k + ")";
+                    case 2 ->
+                        "c";
+                    default ->
+                        Integer.toString(k);
+                });
+            }
+            sb.append(";\n");
+        }
+        sb.append("  writeln(s)\nend wide.\n");
+        return sb.toString();
+    }
+}
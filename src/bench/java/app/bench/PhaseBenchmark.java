@@ -0,0 +1,194 @@
+package app.bench;
+
+import app.CompilerDriver;
+import app.ast.Program;
+import app.backend.CCodegen;
+import app.frontend.AstBuilder;
+import app.frontend.AstParser;
+import app.parser.Oberon0Lexer;
+import app.parser.Oberon0Parser;
+import app.sem.ErrorReporter;
+import app.sem.SourceMap;
+import app.sem.TypeChecker;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compile time of each phase in isolation, plus the whole pipeline up to C text. Every phase
+ * starts from the output of the previous one, prepared once in {@link #setup()}.
+ *
+ * <pre>
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar -rf json -rff target/jmh-result.json [-p input=lines-100000]
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss512m", "-Xmx4g"})
+public class PhaseBenchmark {
+
+    @Param({"examples", "lines-10000", "lines-100000", "lines-1000000", "procs-16", "nested-256", "wide-4096"})
+    public String input;
+
+    private static final class Prepared {
+
+        final String name;
+        final String text;
+        final List<Token> tokens;
+        final Oberon0Parser.ModuleContext tree;
+        final SourceMap smap;
+        final Program ast;
+
+        Prepared(Corpus.Source s) {
+            name = s.name();
+            text = s.text();
+            CommonTokenStream ts = new CommonTokenStream(new Oberon0Lexer(CharStreams.fromString(text, name)));
+            ts.fill();
+            tokens = ts.getTokens();
+            tree = CompilerDriver.parse(CharStreams.fromString(text, name));
+            smap = new SourceMap(name);
+            ast = new AstBuilder(smap).build(tree);
+        }
+    }
+
+    private List<Prepared> inputs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        inputs = new ArrayList<>();
+        for (Corpus.Source s : Corpus.load(input)) {
+            inputs.add(new Prepared(s));
+        }
+    }
+
+    @Benchmark
+    public void lex(Blackhole bh) {
+        for (Prepared p : inputs) {
+            CommonTokenStream ts = CompilerDriver.lex(CharStreams.fromString(p.text, p.name));
+            ts.fill();
+            bh.consume(ts.size());
+        }
+    }
+
+    /** The generated ANTLR lexer, selected by --antlr-lexer. */
+    @Benchmark
+    public void lexAntlr(Blackhole bh) {
+        for (Prepared p : inputs) {
+            CommonTokenStream ts = CompilerDriver.lex(CharStreams.fromString(p.text, p.name), true);
+            ts.fill();
+            bh.consume(ts.size());
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        for (Prepared p : inputs) {
+            bh.consume(CompilerDriver.parse(new CommonTokenStream(new ListTokenSource(p.tokens))));
+        }
+    }
+
+    /** Full LL prediction from the start, the parser's setup before the SLL stage; the baseline for {@link #parse}. */
+    @Benchmark
+    public void parseLL(Blackhole bh) {
+        for (Prepared p : inputs) {
+            Oberon0Parser parser = new Oberon0Parser(new CommonTokenStream(new ListTokenSource(p.tokens)));
+            parser.removeErrorListeners();
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            bh.consume(parser.module());
+        }
+    }
+
+    /** Parse with an empty prediction cache, as in a fresh compiler process. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void parseCold(Blackhole bh) {
+        for (Prepared p : inputs) {
+            new Oberon0Parser(new CommonTokenStream(new ListTokenSource(List.of()))).getInterpreter().clearDFA();
+            bh.consume(CompilerDriver.parse(new CommonTokenStream(new ListTokenSource(p.tokens))));
+        }
+    }
+
+    @Benchmark
+    public void buildAst(Blackhole bh) {
+        for (Prepared p : inputs) {
+            bh.consume(new AstBuilder(new SourceMap(p.name)).build(p.tree));
+        }
+    }
+
+    /** Text to AST with the recursive-descent parser, no parse tree in between. */
+    @Benchmark
+    public void parseAst(Blackhole bh) {
+        for (Prepared p : inputs) {
+            bh.consume(AstParser.parse(CompilerDriver.tokenSource(CharStreams.fromString(p.text, p.name), false),
+                    new SourceMap(p.name)));
+        }
+    }
+
+    /** The same with ANTLR: token stream, parse tree, then {@link AstBuilder}. */
+    @Benchmark
+    public void parseAstAntlr(Blackhole bh) {
+        for (Prepared p : inputs) {
+            bh.consume(new AstBuilder(new SourceMap(p.name)).build(CompilerDriver.parse(CharStreams.fromString(p.text, p.name))));
+        }
+    }
+
+    @Benchmark
+    public void typeCheck(Blackhole bh) {
+        for (Prepared p : inputs) {
+            ErrorReporter er = new ErrorReporter();
+            new TypeChecker(er, p.smap).check(p.ast);
+            bh.consume(er.hasErrors());
+        }
+    }
+
+    @Benchmark
+    public void optimize(Blackhole bh) {
+        for (Prepared p : inputs) {
+            bh.consume(CompilerDriver.optimize(p.ast, 2, new ErrorReporter(), p.smap));
+        }
+    }
+
+    @Benchmark
+    public void generateC(Blackhole bh) {
+        for (Prepared p : inputs) {
+            bh.consume(new CCodegen().generate(p.ast));
+        }
+    }
+
+    /** C generation streamed in chunks to a sink that discards them, as when piping to the C compiler. */
+    @Benchmark
+    public void generateCStream() throws IOException {
+        for (Prepared p : inputs) {
+            new CCodegen().generate(p.ast, Writer.nullWriter());
+        }
+    }
+
+    /** Source text to C text, as the driver does it at the default -O2. */
+    @Benchmark
+    public void endToEnd(Blackhole bh) {
+        for (Prepared p : inputs) {
+            SourceMap smap = new SourceMap(p.name);
+            Program ast = AstParser.parse(CompilerDriver.tokenSource(CharStreams.fromString(p.text, p.name), false), smap);
+            ErrorReporter er = new ErrorReporter();
+            new TypeChecker(er, smap).check(ast);
+            ast = CompilerDriver.optimize(ast, 2, er, smap);
+            bh.consume(new CCodegen().generate(ast));
+        }
+    }
+}
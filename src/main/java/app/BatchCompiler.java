@@ -0,0 +1,286 @@
+package app;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+import app.ast.Program;
+import app.backend.CCodegen;
+
+/**
+ * Compiles many independent modules (lex/parse, AST, type check, optimization at the
+ * {@code -O} level, C generation) on a work-stealing pool. Diagnostics are buffered per file and printed in input order, so the
+ * output does not depend on scheduling.
+ *
+ * Inputs may be .ob0 files, directories (searched recursively), glob patterns or
+ * {@code @list} files with one path per line.
+ */
+public final class BatchCompiler {
+
+    public static final String USAGE = "Usage: --batch <file|dir|glob|@list>... [--jobs N] [-O0..-O3] [--out-dir DIR] [--warm-up]";
+
+    private record Result(String file, int exitCode, int lines, String output) {
+    }
+
+    /** A source file and the input root it was found under (null when named directly). */
+    private record Source(String file, String root) {
+    }
+
+    private final Path cwd;
+    private final PrintStream out;
+    private final PrintStream err;
+    /** Inputs that are not .ob0 files; each counts as a failed file. */
+    private int rejected;
+
+    public BatchCompiler(Path cwd, PrintStream out, PrintStream err) {
+        this.cwd = cwd;
+        this.out = out;
+        this.err = err;
+    }
+
+    public int run(String[] args) throws IOException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        Path outDir = null;
+        boolean warmUp = false;
+        int opt = 2;
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--jobs" -> {
+                    if (i + 1 < args.length) {
+                        jobs = Math.max(1, Integer.parseInt(args[++i]));
+                    }
+                }
+                case "--out-dir" -> {
+                    if (i + 1 < args.length) {
+                        outDir = cwd.resolve(args[++i]);
+                    }
+                }
+                case "--warm-up" ->
+                    warmUp = true;
+                case "-O0", "-O1", "-O2", "-O3" ->
+                    opt = args[i].charAt(2) - '0';
+                default ->
+                    inputs.add(args[i]);
+            }
+        }
+
+        rejected = 0;
+        List<Source> sources = expand(inputs);
+        if (sources.isEmpty() && rejected > 0) {
+            return CompilerDriver.EXIT_USAGE;
+        }
+        if (sources.isEmpty()) {
+            err.println("No .ob0 sources found");
+            err.println(USAGE);
+            return CompilerDriver.EXIT_USAGE;
+        }
+        Map<String, Path> outputs = new LinkedHashMap<>();
+        Map<Path, String> writers = new HashMap<>();
+        for (Source src : sources) {
+            Path c = outputPath(src);
+            String other = writers.putIfAbsent(c, src.file());
+            if (outDir != null && other != null) {
+                err.println(src.file() + ": error: output " + outDir.resolve(c) + " is also written for " + other);
+                return CompilerDriver.EXIT_USAGE;
+            }
+            outputs.put(src.file(), c);
+        }
+
+        if (warmUp) {
+            // before the clock starts: the point is that every file parses at steady-state speed
+            ParserCache.warmUp();
+        }
+        final Path target = outDir;
+        final int level = opt;
+        long t0 = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        List<Result> results = new ArrayList<>(outputs.size());
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(outputs.size());
+            for (Map.Entry<String, Path> f : outputs.entrySet()) {
+                Path cFile = target == null ? null : target.resolve(f.getValue());
+                tasks.add(pool.submit(() -> compileOne(f.getKey(), cFile, level)));
+            }
+            for (ForkJoinTask<Result> t : tasks) {
+                results.add(t.join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        double secs = (System.nanoTime() - t0) / 1e9;
+
+        int rc = rejected > 0 ? CompilerDriver.EXIT_USAGE : 0;
+        int failed = rejected;
+        long lines = 0;
+        for (Result r : results) {
+            if (!r.output().isEmpty()) {
+                (r.exitCode() == 0 ? out : err).print(r.output());
+            }
+            if (r.exitCode() != 0) {
+                failed++;
+                rc = Math.max(rc, r.exitCode());
+            }
+            lines += r.lines();
+        }
+        out.printf(Locale.ROOT, "Batch: %d files (%d failed), %d lines in %.3f s on %d threads: %.1f files/s, %.0f lines/s%n",
+                results.size() + rejected, failed, lines, secs, jobs, results.size() / secs, lines / secs);
+        return rc;
+    }
+
+    private Result compileOne(String file, Path cFile, int opt) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        PrintStream log = new PrintStream(buf, true, StandardCharsets.UTF_8);
+        int rc;
+        int lines = 0;
+        try {
+            String src = Files.readString(cwd.resolve(file));
+            lines = countLines(src);
+            rc = compileSource(file, src, cFile, opt, log);
+        } catch (IOException ex) {
+            log.println(file + ": error: cannot read source: " + ex.getMessage());
+            rc = CompilerDriver.EXIT_USAGE;
+        } catch (RuntimeException ex) {
+            log.println(file + ": internal error: " + ex);
+            rc = CompilerDriver.EXIT_USAGE;
+        }
+        return new Result(file, rc, lines, buf.toString(StandardCharsets.UTF_8));
+    }
+
+    private int compileSource(String file, String src, Path cFile, int opt, PrintStream log) throws IOException {
+        Program ast;
+        try {
+            CompilerDriver.Parsed parsed = CompilerDriver.parseModule(CharStreams.fromString(src, file), file,
+                    false, false, new PhaseStats());
+            ast = CompilerDriver.check(parsed, opt, new PhaseStats());
+        } catch (CompilerDriver.Rejected ex) {
+            if (ex.errors() != null) {
+                ex.errors().all().forEach(log::println);
+            } else {
+                log.println(file + ": " + ex.getMessage());
+            }
+            return ex.exitCode();
+        }
+
+        if (cFile == null) {
+            new CCodegen().generate(ast, Writer.nullWriter());
+            return 0;
+        }
+        Files.createDirectories(cFile.getParent());
+        try (Writer w = Files.newBufferedWriter(cFile)) {
+            new CCodegen().generate(ast, w);
+        }
+        return 0;
+    }
+
+    /**
+     * The C file for {@code src}, relative to the output directory. A relative path inside the
+     * working directory is kept; otherwise the path below the input root is used, under the
+     * root's own name, and a file named directly keeps only its name.
+     */
+    private static Path outputPath(Source src) {
+        Path p = Path.of(src.file()).normalize();
+        if (p.isAbsolute() || p.startsWith("..")) {
+            if (src.root() == null) {
+                p = p.getFileName();
+            } else {
+                Path root = Path.of(src.root()).normalize();
+                Path rel = root.relativize(p);
+                Path name = root.getFileName();
+                p = name == null || name.toString().equals("..") ? rel : name.resolve(rel);
+            }
+        }
+        String s = p.toString();
+        return Path.of(s.substring(0, s.length() - ".ob0".length()) + ".c");
+    }
+
+    private static int countLines(String src) {
+        int n = 0;
+        for (int i = 0; i < src.length(); i++) {
+            if (src.charAt(i) == '\n') {
+                n++;
+            }
+        }
+        return (src.isEmpty() || src.charAt(src.length() - 1) == '\n') ? n : n + 1;
+    }
+
+    private List<Source> expand(List<String> inputs) throws IOException {
+        // LinkedHashMap: keep input order, drop duplicates (the first root found wins)
+        Map<String, Source> files = new LinkedHashMap<>();
+        for (String in : inputs) {
+            if (in.startsWith("@")) {
+                for (String line : Files.readAllLines(cwd.resolve(in.substring(1)))) {
+                    line = line.strip();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        named(line, files);
+                    }
+                }
+            } else if (in.contains("*") || in.contains("?") || in.contains("[") || in.contains("{")) {
+                glob(in, files);
+            } else if (Files.isDirectory(cwd.resolve(in))) {
+                for (String f : walk(in, p -> true)) {
+                    files.putIfAbsent(f, new Source(f, in));
+                }
+            } else {
+                named(in, files);
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    /** A file named directly or in a list; anything but a .ob0 file is refused like the CLI does. */
+    private void named(String file, Map<String, Source> files) {
+        if (!CompilerDriver.isSource(file)) {
+            err.println(file + ": error: expected a .ob0 source file");
+            rejected++;
+            return;
+        }
+        files.putIfAbsent(file, new Source(file, null));
+    }
+
+    private void glob(String pattern, Map<String, Source> files) throws IOException {
+        // search from the longest wildcard-free directory prefix
+        String normalized = pattern.replace('\\', '/');
+        int firstWild = indexOfWildcard(normalized);
+        int slash = normalized.lastIndexOf('/', firstWild);
+        String root = slash < 0 ? "." : slash == 0 ? "/" : normalized.substring(0, slash);
+        PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + normalized);
+        for (String f : walk(root, p -> m.matches(p) || m.matches(Path.of(".").relativize(p)))) {
+            files.putIfAbsent(f, new Source(f, root));
+        }
+    }
+
+    private static int indexOfWildcard(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[{".indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private List<String> walk(String dir, java.util.function.Predicate<Path> accept) throws IOException {
+        Path base = cwd.resolve(dir);
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        try (Stream<Path> s = Files.walk(base)) {
+            return s.filter(Files::isRegularFile)
+                    .filter(p -> CompilerDriver.isSource(p.getFileName().toString()))
+                    .map(p -> Path.of(dir).resolve(base.relativize(p)).normalize())
+                    .filter(accept)
+                    .map(Path::toString)
+                    .sorted()
+                    .toList();
+        }
+    }
+}
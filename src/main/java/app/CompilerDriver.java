@@ -0,0 +1,741 @@
+package app;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import app.parser.Oberon0Lexer;
+import app.parser.Oberon0Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import app.frontend.AstBuilder;
+import app.frontend.AstPrinter;
+import app.frontend.AstAsciiPrinter;
+import app.frontend.AstParser;
+import app.frontend.FastLexer;
+import app.frontend.MappedCharStream;
+
+import app.ast.Program;
+
+import app.backend.CCodegen;
+import app.backend.ExecutableCache;
+import app.backend.Tee;
+import app.backend.jvm.JvmCodegen;
+import app.backend.jvm.JvmRunner;
+import app.interp.Interpreter;
+import app.opt.ConstantFolder;
+import app.opt.DeadCodeEliminator;
+import app.opt.Inliner;
+import app.opt.LoopOptimizer;
+import app.runtime.Console;
+import app.runtime.RuntimeFault;
+import app.vm.Chunk;
+import app.vm.Lowering;
+import app.vm.Vm;
+
+import app.sem.SourceMap;
+import app.sem.ErrorReporter;
+import app.sem.TypeChecker;
+
+/**
+ * One compilation of one .ob0 file: lex/parse, AST, semantic checks, C generation,
+ * C compilation and (optionally) running the program.
+ *
+ * The driver never calls System.exit and never touches System.out/err directly, so the
+ * same pipeline can be used from the command line and from the compile server.
+ */
+public final class CompilerDriver {
+
+    public static final int EXIT_USAGE = 1;
+    public static final int EXIT_SYNTAX = 2;
+    public static final int EXIT_AST = 3;
+    public static final int EXIT_SEMANTIC = 4;
+    public static final int EXIT_CC = 5;
+    public static final int EXIT_RUNTIME = 6;
+
+    public static final String USAGE = "Usage: mvn -q exec:java \"-Dexec.args=examples/hello.ob0 [--print-ast] [--print-ast-tree] [--frontend-only] [--emit-c out.c] [--no-run] [--interpret] [--vm] [--jvm] [-O0|-O1|-O2|-O3 (default -O2)] [--march-native] [--no-cache] [--cc-stdin] [--bounds-check] [--stats] [--stats-json=FILE] [--antlr-lexer] [--antlr-parser]\"";
+
+    /** Runs the built executable; the default inherits the caller's stdio. */
+    public interface Launcher {
+        int launch(Path exe, PhaseStats stats) throws Exception;
+    }
+
+    public static final Launcher INHERIT_IO = (exe, stats) -> {
+        ProcessBuilder runPb = new ProcessBuilder(exe.toString()).inheritIO();
+        Process prog = runPb.start();
+        return stats.watch("run", prog).waitFor();
+    };
+
+    private final Path cwd;
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Launcher launcher;
+
+    public CompilerDriver(Path cwd, InputStream in, PrintStream out, PrintStream err, Launcher launcher) {
+        this.cwd = cwd;
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        this.launcher = launcher;
+    }
+
+    public int run(String[] args) throws Exception {
+        boolean printStats = false;
+        String statsJson = null;
+        for (String a : args) {
+            if (a.equals("--stats")) {
+                printStats = true;
+            } else if (a.startsWith("--stats-json=")) {
+                statsJson = a.substring("--stats-json=".length());
+            }
+        }
+        PhaseStats stats = new PhaseStats();
+        int rc = EXIT_USAGE;
+        try {
+            rc = compile(args, stats);
+            return rc;
+        } finally {
+            stats.end();
+            if (printStats) {
+                out.flush();
+                stats.print(err);
+            }
+            if (statsJson != null) {
+                Files.writeString(resolve(statsJson), stats.toJson(args.length > 0 ? args[0] : "", rc));
+            }
+        }
+    }
+
+    private int compile(String[] args, PhaseStats stats) throws Exception {
+        if (args.length == 0) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        String file = args[0];
+        if (!isSource(file)) {
+            err.println("Error: expected a .ob0 source file, got: " + file);
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        stats.phase("read");
+        CharStream input = MappedCharStream.open(resolve(file));
+        stats.end();
+
+        boolean printAst = false;
+        boolean frontendOnly = false;
+        boolean emitC = false;
+        boolean run = true;
+        String outC = null;
+        boolean printAstTree = false;
+        boolean interpret = false;
+        boolean vm = false;
+        boolean vmDump = false;
+        boolean jvm = false;
+        // -O2 unless told otherwise; -O0 gives the unoptimized C and gcc's default, as before -O existed
+        int opt = 2;
+        boolean marchNative = false;
+        boolean useCache = true;
+        boolean ccStdin = false;
+        boolean boundsCheck = false;
+        boolean antlrLexer = false;
+        boolean antlrParser = false;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--print-ast" ->
+                    printAst = true;
+                case "--print-ast-tree" ->
+                    printAstTree = true;
+                case "--frontend-only" ->
+                    frontendOnly = true;
+                case "--emit-c" -> {
+                    if (i + 1 < args.length) {
+                        emitC = true;
+                        outC = args[++i];
+                    }
+                }
+                case "--no-run" ->
+                    run = false;
+                case "--interpret" ->
+                    interpret = true;
+                case "--vm" ->
+                    vm = true;
+                case "--vm-dump" -> {
+                    vm = true;
+                    vmDump = true;
+                }
+                case "--jvm" ->
+                    jvm = true;
+                case "-O0", "-O1", "-O2", "-O3" ->
+                    opt = args[i].charAt(2) - '0';
+                case "--march-native" ->
+                    marchNative = true;
+                case "--no-cache" ->
+                    useCache = false;
+                case "--cc-stdin" ->
+                    ccStdin = true;
+                case "--bounds-check" ->
+                    boundsCheck = true;
+                case "--antlr-lexer" ->
+                    antlrLexer = true;
+                case "--antlr-parser" ->
+                    antlrParser = true;
+                default -> {
+                    /* ignore unknown flags */ }
+            }
+        }
+
+        Parsed parsed;
+        try {
+            parsed = parseModule(input, file, antlrLexer, antlrParser, stats);
+        } catch (Rejected ex) {
+            return report(ex);
+        }
+        Program ast = parsed.ast();
+        SourceMap smap = parsed.smap();
+
+        stats.end();
+        out.println("Parse OK");
+
+        if (printAstTree) {
+            out.println(new AstAsciiPrinter().print(ast));
+            return 0;
+        }
+
+        if (printAst) {
+            out.println(new AstPrinter().print(ast));
+            return 0;
+        }
+
+        try {
+            // --frontend-only shows the checked tree as written
+            ast = check(parsed, frontendOnly ? 0 : opt, stats);
+        } catch (Rejected ex) {
+            return report(ex);
+        }
+
+        if (frontendOnly) {
+            out.println(new AstPrinter().print(ast));
+            return 0;
+        }
+
+        if (interpret) {
+            stats.phase("run");
+            return run ? interpret(ast) : 0;
+        }
+
+        if (vm) {
+            stats.phase("codegen");
+            Chunk chunk = new Lowering().lower(ast);
+            stats.end();
+            if (vmDump) {
+                out.print(chunk.disassemble());
+            }
+            stats.phase("run");
+            return run ? execute(chunk) : 0;
+        }
+
+        if (jvm) {
+            stats.phase("codegen");
+            byte[] classBytes = new JvmCodegen().generate(ast);
+            stats.phase("run");
+            return run ? execute(classBytes) : 0;
+        }
+
+        if (emitC && outC == null) {
+            outC = file.substring(0, file.length() - ".ob0".length()) + ".c";
+        }
+        CCodegen codegen = boundsCheck ? new CCodegen(smap) : new CCodegen();
+        if (emitC && !run) {
+            stats.phase("codegen");
+            try (Writer w = Files.newBufferedWriter(resolve(outC))) {
+                generateC(codegen, ast, w);
+            }
+            stats.end();
+            out.println("C code generated -> " + outC);
+            return 0;
+        }
+
+        String cc = System.getenv().getOrDefault("CC", "gcc");
+        List<String> flags = new ArrayList<>();
+        flags.add("-std=c11");
+        flags.add("-O" + opt);
+        if (marchNative) {
+            flags.add("-march=native");
+        }
+        ExecutableCache cache = useCache ? ExecutableCache.open() : null;
+        if (ccStdin) {
+            return compileThroughPipe(codegen, ast, emitC ? outC : null, cc, flags, cache, run, stats);
+        }
+
+        Path tmpDir = Files.createTempDirectory("ob0_run_");
+        boolean keepTmp = false;
+        try {
+            // one pass feeds the --emit-c file, the cache key and the file the C compiler reads
+            Path cFile = tmpDir.resolve(ast.name() + ".c");
+            ExecutableCache.Key digest = cache != null ? cache.newKey(cc, flags) : null;
+            stats.phase("codegen");
+            try (Writer emitted = emitC ? Files.newBufferedWriter(resolve(outC)) : Writer.nullWriter();
+                    Writer source = Files.newBufferedWriter(cFile)) {
+                List<Appendable> sinks = new ArrayList<>(List.of(emitted, source));
+                if (digest != null) {
+                    sinks.add(digest);
+                }
+                generateC(codegen, ast, new Tee(sinks));
+            }
+            stats.end();
+            if (emitC) {
+                out.println("C code generated -> " + outC);
+            }
+
+            String key = digest != null ? digest.finish() : null;
+            Path cached = cache != null ? cache.lookup(key) : null;
+            if (cached != null) {
+                return run ? launch(cached, stats) : built(cached);
+            }
+
+            boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
+            Path exePath = tmpDir.resolve(isWindows ? ast.name() + ".exe" : ast.name());
+
+            List<String> cmd = new ArrayList<>();
+            cmd.add(cc);
+            cmd.addAll(flags);
+            cmd.add(cFile.toString());
+            cmd.add("-o");
+            cmd.add(exePath.toString());
+            cmd.add("-lm");
+
+            Process compile = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            PhaseStats.Watch ccWatch = stats.watch("cc", compile);
+            compile.getInputStream().transferTo(err);
+            int ccExit = ccWatch.waitFor();
+            if (ccExit != 0) {
+                err.println("C compilation failed (exit " + ccExit + ")");
+                err.println("Temp kept at: " + tmpDir);
+                keepTmp = true;
+                return EXIT_CC;
+            }
+
+            if (cache != null) {
+                try {
+                    exePath = cache.store(key, exePath);
+                } catch (IOException ex) {
+                    // an unwritable cache only costs the next run a recompilation
+                }
+            }
+            return run ? launch(exePath, stats) : built(exePath);
+        } finally {
+            if (!keepTmp) {
+                deleteTree(tmpDir);
+            }
+        }
+    }
+
+    /**
+     * {@code --cc-stdin}: the C code goes to {@code cc -x c -} through its standard input while
+     * it is being generated, so the C compiler works alongside code generation and no C file
+     * or temp directory is created. The executable is built in the cache directory, without a
+     * cache in a tmpfs-backed scratch directory. With a cache the C compiler is started before
+     * the key is known; on a hit it is killed before it sees the end of its input.
+     */
+    private int compileThroughPipe(CCodegen codegen, Program ast, String outC, String cc, List<String> flags, ExecutableCache cache,
+            boolean run, PhaseStats stats) throws Exception {
+        boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
+        Path exePath = cache != null ? cache.newBuild()
+                : Files.createTempFile(scratchDir(), "ob0_" + ast.name() + "_", isWindows ? ".exe" : "");
+        boolean keepExe = false;
+        List<String> cmd = new ArrayList<>();
+        cmd.add(cc);
+        cmd.addAll(flags);
+        // -pipe: no assembler temp file either, which a killed compiler would leave behind
+        cmd.addAll(List.of("-pipe", "-x", "c", "-", "-o", exePath.toString(), "-lm"));
+        Process compile = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        try {
+            PhaseStats.Watch ccWatch = stats.watch("cc", compile);
+            // collected concurrently (a C compiler blocked on a full output pipe stops reading its
+            // input) and printed once it has finished, or dropped if it is stopped after a cache hit
+            ByteArrayOutputStream ccOutput = new ByteArrayOutputStream();
+            Thread diagnostics = new Thread(() -> {
+                try {
+                    compile.getInputStream().transferTo(ccOutput);
+                } catch (IOException ex) {
+                    // stopped
+                }
+            }, "cc-output");
+            diagnostics.setDaemon(true);
+            diagnostics.start();
+
+            ExecutableCache.Key digest = cache != null ? cache.newKey(cc, flags) : null;
+            Writer toCc = new OutputStreamWriter(compile.getOutputStream(), StandardCharsets.UTF_8);
+            stats.phase("codegen");
+            try (Writer emitted = outC != null ? Files.newBufferedWriter(resolve(outC)) : Writer.nullWriter()) {
+                List<Appendable> sinks = new ArrayList<>(List.of(emitted, toCc));
+                if (digest != null) {
+                    sinks.add(digest);
+                }
+                generateC(codegen, ast, new Tee(sinks));
+            } catch (IOException ex) {
+                if (compile.isAlive()) {
+                    throw ex;
+                }
+                // the C compiler quit early (bad command line, missing compiler); report its exit below
+            }
+            stats.end();
+            if (outC != null) {
+                out.println("C code generated -> " + outC);
+            }
+
+            String key = digest != null ? digest.finish() : null;
+            Path cached = cache != null ? cache.lookup(key) : null;
+            if (cached != null) {
+                // stopped before its input is closed: end of input would let it compile and link
+                stop(compile);
+                return run ? launch(cached, stats) : built(cached);
+            }
+
+            try {
+                toCc.close();
+            } catch (IOException ex) {
+                // same as above: the exit status tells what went wrong
+            }
+            int ccExit = ccWatch.waitFor();
+            diagnostics.join();
+            ccOutput.writeTo(err);
+            if (ccExit != 0) {
+                err.println("C compilation failed (exit " + ccExit + ")");
+                err.println("Use --emit-c to keep the C code");
+                return EXIT_CC;
+            }
+
+            keepExe = !run;
+            if (cache != null) {
+                try {
+                    exePath = cache.store(key, exePath);
+                    keepExe = true;
+                } catch (IOException ex) {
+                    // an unwritable cache only costs the next run a recompilation
+                }
+            }
+            return run ? launch(exePath, stats) : built(exePath);
+        } finally {
+            stop(compile);
+            if (!keepExe) {
+                Files.deleteIfExists(exePath);
+            }
+        }
+    }
+
+    private void generateC(CCodegen codegen, Program ast, Appendable sink) throws IOException {
+        codegen.generate(ast, sink);
+        if (codegen.checksBounds()) {
+            out.println("Bounds checks: " + codegen.checksKept() + " inserted, "
+                    + codegen.checksEliminated() + " eliminated by range analysis");
+        }
+    }
+
+    /**
+     * Stops a C compiler that is still running. Only the programs it started are killed: the
+     * driver itself then fails and removes its temp files, which it could not do if killed.
+     */
+    private static void stop(Process cc) throws InterruptedException {
+        // repeated: a driver stopped right after it started may not have started its children yet
+        for (int i = 0; i < 100 && cc.isAlive(); i++) {
+            cc.descendants().forEach(ProcessHandle::destroyForcibly);
+            cc.waitFor(50, TimeUnit.MILLISECONDS);
+        }
+        cc.destroyForcibly();
+    }
+
+    /** {@code $XDG_RUNTIME_DIR} (a per-user tmpfs on most Linux systems), else the temp directory. */
+    private static Path scratchDir() {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && Files.isDirectory(Path.of(runtime)) && Files.isWritable(Path.of(runtime))) {
+            return Path.of(runtime);
+        }
+        return Path.of(System.getProperty("java.io.tmpdir"));
+    }
+
+    /** A module that parsed: its tree and the source positions of its nodes. */
+    public record Parsed(Program ast, SourceMap smap) {
+    }
+
+    /** A phase rejected the module; the exit code says which one. */
+    public static final class Rejected extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int exitCode;
+        private final transient ErrorReporter errors;
+
+        Rejected(int exitCode, String message) {
+            super(message);
+            this.exitCode = exitCode;
+            this.errors = null;
+        }
+
+        Rejected(ErrorReporter errors) {
+            super("semantic errors");
+            this.exitCode = EXIT_SEMANTIC;
+            this.errors = errors;
+        }
+
+        public int exitCode() {
+            return exitCode;
+        }
+
+        /** The semantic errors, or null for a syntax or AST error (then the message says it). */
+        public ErrorReporter errors() {
+            return errors;
+        }
+    }
+
+    /** True for a name the compiler accepts as a source file. */
+    public static boolean isSource(String file) {
+        return file.toLowerCase().endsWith(".ob0");
+    }
+
+    /**
+     * Lex/parse and AST construction, the front half of every compilation. {@code antlrLexer}
+     * and {@code antlrParser} select the generated lexer and parser instead of the hand-written
+     * ones; a module the fast parser rejects is parsed again with ANTLR for the diagnostics.
+     */
+    public static Parsed parseModule(CharStream input, String file, boolean antlrLexer, boolean antlrParser,
+            PhaseStats stats) throws Rejected {
+        SourceMap smap = new SourceMap(file);
+        if (!antlrParser) {
+            stats.phase("parse");
+            Program ast = AstParser.parse(tokenSource(input, antlrLexer), smap);
+            if (ast != null) {
+                stats.end();
+                return new Parsed(ast, smap);
+            }
+            // not a well-formed module: parse it again with ANTLR for the diagnostics
+            input.seek(0);
+            smap = new SourceMap(file);
+        }
+
+        Oberon0Parser.ModuleContext root;
+        try {
+            stats.phase("lex");
+            CommonTokenStream tokens = lex(input, antlrLexer);
+            try {
+                tokens.fill();
+            } catch (ParseCancellationException lexError) {
+                // a syntax error in front of it must be reported first: lex again on demand
+                input.seek(0);
+                tokens = lex(input, antlrLexer);
+            }
+            stats.phase("parse");
+            root = parse(tokens);
+        } catch (ParseCancellationException ex) {
+            stats.end();
+            throw new Rejected(EXIT_SYNTAX, ex.getMessage());
+        }
+
+        stats.phase("ast");
+        try {
+            Program ast = new AstBuilder(smap).build(root);
+            stats.end();
+            return new Parsed(ast, smap);
+        } catch (IllegalStateException ex) {
+            stats.end();
+            throw new Rejected(EXIT_AST, ex.getMessage());
+        }
+    }
+
+    /** Semantic checks, then the AST passes of optimization level {@code opt}. */
+    public static Program check(Parsed parsed, int opt, PhaseStats stats) throws Rejected {
+        stats.phase("typecheck");
+        ErrorReporter er = new ErrorReporter();
+        new TypeChecker(er, parsed.smap()).check(parsed.ast());
+        stats.end();
+        if (er.hasErrors()) {
+            throw new Rejected(er);
+        }
+
+        stats.phase("optimize");
+        Program ast = optimize(parsed.ast(), opt, er, parsed.smap());
+        stats.end();
+        if (er.hasErrors()) {
+            throw new Rejected(er);
+        }
+        return ast;
+    }
+
+    private int report(Rejected ex) {
+        if (ex.errors() != null) {
+            err.println("=== SEMANTIC ERRORS ===");
+            ex.errors().dump(err);
+        } else {
+            err.println(ex.getMessage());
+        }
+        return ex.exitCode();
+    }
+
+    /**
+     * Runs the AST passes of optimization level {@code opt} (0-3). Division by zero in constant
+     * expressions is reported to {@code er}; the caller must check it before generating code.
+     */
+    public static Program optimize(Program ast, int opt, ErrorReporter er, SourceMap smap) {
+        if (opt < 1) {
+            return ast;
+        }
+        ast = new ConstantFolder(er, smap).fold(ast);
+        if (er.hasErrors()) {
+            return ast;
+        }
+        ast = new DeadCodeEliminator(smap).eliminate(ast);
+        // -O3 inlines twice: the second round reaches callers of routines inlined in the first
+        int inlineRounds = opt >= 3 ? 2 : opt == 2 ? 1 : 0;
+        for (int round = 0; round < inlineRounds; round++) {
+            ast = new Inliner(smap).inline(ast);
+            // inlined bodies expose new constants; a division by zero found only now is left to run time
+            ast = new ConstantFolder(new ErrorReporter(), smap).fold(ast);
+            ast = new DeadCodeEliminator(smap).eliminate(ast);
+        }
+        if (opt >= 2) {
+            ast = new LoopOptimizer(smap).optimize(ast);
+        }
+        return ast;
+    }
+
+    private int launch(Path exe, PhaseStats stats) throws Exception {
+        out.flush();
+        return launcher.launch(exe, stats);
+    }
+
+    private int built(Path exe) {
+        out.println("Built executable at: " + exe);
+        return 0;
+    }
+
+    private int interpret(Program ast) {
+        out.flush();
+        try {
+            new Interpreter(new Console(in, out)).run(ast);
+        } catch (RuntimeFault ex) {
+            err.println("Runtime error: " + ex.getMessage());
+            return EXIT_RUNTIME;
+        }
+        return 0;
+    }
+
+    private int execute(Chunk chunk) {
+        out.flush();
+        try {
+            new Vm(new Console(in, out)).run(chunk);
+        } catch (RuntimeFault ex) {
+            err.println("Runtime error: " + ex.getMessage());
+            return EXIT_RUNTIME;
+        }
+        return 0;
+    }
+
+    private int execute(byte[] classBytes) {
+        out.flush();
+        try {
+            JvmRunner.run(classBytes, new Console(in, out));
+        } catch (RuntimeFault ex) {
+            err.println("Runtime error: " + ex.getMessage());
+            return EXIT_RUNTIME;
+        }
+        return 0;
+    }
+
+    /** Parses a whole module; syntax errors surface as ParseCancellationException. */
+    public static Oberon0Parser.ModuleContext parse(CharStream input) {
+        return parse(lex(input));
+    }
+
+    /** Token stream over {@code input}; lexing happens lazily unless the caller fills it. */
+    public static CommonTokenStream lex(CharStream input) {
+        return lex(input, false);
+    }
+
+    /**
+     * Like {@link #lex(CharStream)}; {@code antlr} selects the generated lexer instead of
+     * {@link FastLexer}. Both yield the same tokens and the same error messages.
+     */
+    public static CommonTokenStream lex(CharStream input, boolean antlr) {
+        return new CommonTokenStream(tokenSource(input, antlr));
+    }
+
+    /** The lexer itself; lexer errors surface as ParseCancellationException. */
+    public static TokenSource tokenSource(CharStream input, boolean antlr) {
+        if (!antlr) {
+            return new FastLexer(input, ThrowingErrorListener.INSTANCE);
+        }
+        Oberon0Lexer lexer = new Oberon0Lexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(ThrowingErrorListener.INSTANCE);
+        return lexer;
+    }
+
+    /**
+     * Two-stage parse: SLL prediction, which is much cheaper, bailing out at the first
+     * problem; then, only if that failed, full LL from the start with the usual listener.
+     * Syntax errors therefore always come from the LL run and read exactly as before, and a
+     * valid module that SLL cannot handle is still accepted.
+     */
+    public static Oberon0Parser.ModuleContext parse(TokenStream tokens) {
+        Oberon0Parser parser = new Oberon0Parser(tokens);
+        parser.removeErrorListeners();
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.module();
+        } catch (ParseCancellationException ex) {
+            if (!(ex.getCause() instanceof RecognitionException)) {
+                // a lexer error, reported at the token SLL reached; the lexer has already
+                // skipped past it, so LL would not see it again
+                throw ex;
+            }
+        }
+
+        parser.reset();
+        parser.addErrorListener(ThrowingErrorListener.INSTANCE);
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        return parser.module();
+    }
+
+    private Path resolve(String p) {
+        return cwd.resolve(p);
+    }
+
+    static void deleteTree(Path dir) {
+        try (var walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder())
+                    .forEach(p -> {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (Exception ignore) {
+                        }
+                    });
+        } catch (Exception ignore) {
+        }
+    }
+
+    static class ThrowingErrorListener extends BaseErrorListener {
+
+        static final ThrowingErrorListener INSTANCE = new ThrowingErrorListener();
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> r, Object sym, int line, int col,
+                String msg, RecognitionException e) {
+            throw new ParseCancellationException("Syntax error at " + line + ":" + col + " - " + msg);
+        }
+    }
+}
@@ -1,195 +1,55 @@
 package app;
 
-import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.misc.ParseCancellationException;
-import app.parser.Oberon0Lexer;
-import app.parser.Oberon0Parser;
-
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.*;
-
-import app.frontend.AstBuilder;
-import app.frontend.AstPrinter;
-import app.frontend.AstAsciiPrinter;
+import java.util.Arrays;
 
-import app.ast.Program;
-
-import app.sem.SourceMap;
-import app.sem.ErrorReporter;
-import app.sem.TypeChecker;
+import app.server.CompileClient;
+import app.server.CompileServer;
+import app.tools.LexerDiff;
+import app.tools.ParserDiff;
+import app.tools.ProgramGenerator;
 
 public class Oberon0Compiler {
 
     public static void main(String[] args) throws Exception {
-        if (args.length == 0) {
-            System.err.println("Usage: mvn -q exec:java \"-Dexec.args=examples/hello.ob0 [--print-ast] [--print-ast-tree] [--frontend-only] [--emit-c out.c] [--no-run]\"");
-            System.exit(1);
-        }
-
-        String file = args[0];
-        if (!file.toLowerCase().endsWith(".ob0")) {
-            System.err.println("Error: expected a .ob0 source file, got: " + file);
-            System.err.println("Usage: mvn -q exec:java \"-Dexec.args=examples/hello.ob0 [--print-ast] [--print-ast-tree] [--frontend-only] [--emit-c out.c] [--no-run]\"");
-            System.exit(1);
-        }
-        String src = Files.readString(Path.of(file));
-
-        boolean printAst = false;
-        boolean frontendOnly = false;
-        boolean emitC = false;
-        boolean run = true;
-        String outC = null;
-        boolean printAstTree = false;
-
-        for (int i = 1; i < args.length; i++) {
-            switch (args[i]) {
-                case "--print-ast" ->
-                    printAst = true;
-                case "--print-ast-tree" ->
-                    printAstTree = true;
-                case "--frontend-only" ->
-                    frontendOnly = true;
-                case "--emit-c" -> {
-                    if (i + 1 < args.length) {
-                        emitC = true;
-                        outC = args[++i];
-                    }
-                }
-                case "--no-run" ->
-                    run = false;
-                default -> {
-                    /* ignore unknown flags */ }
-            }
-        }
-
-        // --- lex/parse ---
-        Oberon0Lexer lexer = new Oberon0Lexer(CharStreams.fromString(src));
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(ThrowingErrorListener.INSTANCE);
-
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        Oberon0Parser parser = new Oberon0Parser(tokens);
-        parser.removeErrorListeners();
-        parser.addErrorListener(ThrowingErrorListener.INSTANCE);
-
-        Oberon0Parser.ModuleContext root;
-        try {
-            root = parser.module();
-        } catch (ParseCancellationException ex) {
-            System.err.println(ex.getMessage());
-            System.exit(2);
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            exit(CompileServer.run(Arrays.copyOfRange(args, 1, args.length)));
             return;
         }
-
-        SourceMap smap = new SourceMap(file);
-        AstBuilder builder = new AstBuilder(smap);
-        Program ast;
-        try {
-            ast = builder.build(root);
-        } catch (IllegalStateException ex) {
-            System.err.println(ex.getMessage());
-            System.exit(3);
+        if (args.length > 0 && args[0].equals("--client")) {
+            exit(CompileClient.run(Arrays.copyOfRange(args, 1, args.length)));
             return;
         }
 
-        System.out.println("Parse OK");
-
-        if (printAstTree) {
-            System.out.println(new AstAsciiPrinter().print(ast));
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchCompiler batch = new BatchCompiler(Path.of(""), System.out, System.err);
+            exit(batch.run(Arrays.copyOfRange(args, 1, args.length)));
             return;
         }
 
-        if (printAst) {
-            System.out.println(new AstPrinter().print(ast));
+        if (args.length > 0 && args[0].equals("--generate")) {
+            exit(ProgramGenerator.run(Arrays.copyOfRange(args, 1, args.length)));
             return;
         }
 
-        ErrorReporter er = new ErrorReporter();
-        TypeChecker tc = new TypeChecker(er, smap);
-        tc.check(ast);
-
-        if (er.hasErrors()) {
-            System.err.println("=== SEMANTIC ERRORS ===");
-            er.dump();
-            System.exit(4);
-        }
-
-        if (frontendOnly) {
-            System.out.println(new AstPrinter().print(ast));
+        if (args.length > 0 && args[0].equals("--lexer-diff")) {
+            exit(LexerDiff.run(Arrays.copyOfRange(args, 1, args.length)));
             return;
         }
 
-        String cCode = new app.backend.CCodegen(ast.name()).generate(ast);
-
-        if (emitC) {
-            if (outC == null) {
-                outC = file.substring(0, file.length() - ".ob0".length()) + ".c";
-            }
-            Files.writeString(Path.of(outC), cCode);
-            System.out.println("C code generated -> " + outC);
-            if (!run) {
-                return;
-            }
+        if (args.length > 0 && args[0].equals("--parser-diff")) {
+            exit(ParserDiff.run(Arrays.copyOfRange(args, 1, args.length)));
+            return;
         }
 
-        Path tmpDir = Files.createTempDirectory("ob0_run_");
-        try {
-            Path cFile = tmpDir.resolve(ast.name() + ".c");
-            Files.writeString(cFile, cCode);
-
-            String cc = System.getenv().getOrDefault("CC", "gcc");
-            boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
-            Path exePath = tmpDir.resolve(isWindows ? ast.name() + ".exe" : ast.name());
-
-            List<String> cmd = new ArrayList<>();
-            cmd.add(cc);
-            cmd.add("-std=c11");
-            cmd.add(cFile.toString());
-            cmd.add("-o");
-            cmd.add(exePath.toString());
-            cmd.add("-lm");
-
-            ProcessBuilder pb = new ProcessBuilder(cmd).inheritIO();
-            Process compile = pb.start();
-            int ccExit = compile.waitFor();
-            if (ccExit != 0) {
-                System.err.println("C compilation failed (exit " + ccExit + ")");
-                System.err.println("Temp kept at: " + tmpDir);
-                System.exit(5);
-            }
-
-            if (run) {
-                ProcessBuilder runPb = new ProcessBuilder(exePath.toString()).inheritIO();
-                Process prog = runPb.start();
-                int rc = prog.waitFor();
-                System.exit(rc);
-            } else {
-                System.out.println("Built temporary executable at: " + exePath);
-            }
-        } finally {
-            try {
-                Files.walk(tmpDir)
-                        .sorted(Comparator.reverseOrder())
-                        .forEach(p -> {
-                            try {
-                                Files.deleteIfExists(p);
-                            } catch (Exception ignore) {
-                            }
-                        });
-            } catch (Exception ignore) {
-            }
-        }
+        CompilerDriver driver = new CompilerDriver(Path.of(""), System.in, System.out, System.err, CompilerDriver.INHERIT_IO);
+        exit(driver.run(args));
     }
 
-    static class ThrowingErrorListener extends BaseErrorListener {
-
-        static final ThrowingErrorListener INSTANCE = new ThrowingErrorListener();
-
-        @Override
-        public void syntaxError(Recognizer<?, ?> r, Object sym, int line, int col,
-                String msg, RecognitionException e) {
-            throw new ParseCancellationException("Syntax error at " + line + ":" + col + " - " + msg);
+    private static void exit(int rc) {
+        System.out.flush();
+        if (rc != 0) {
+            System.exit(rc);
         }
     }
 }
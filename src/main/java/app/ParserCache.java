@@ -0,0 +1,82 @@
+package app;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import java.util.List;
+
+import app.parser.Oberon0Lexer;
+import app.parser.Oberon0Parser;
+import app.tools.ProgramGenerator;
+
+/**
+ * The prediction DFAs that ANTLR builds while lexing and parsing. They are static, shared by
+ * every lexer/parser in the JVM and grow as new inputs are seen, so the first modules of a
+ * run are parsed noticeably slower than later ones.
+ *
+ * ANTLR cannot serialize them, so instead of a snapshot {@link #warmUp()} parses an
+ * embedded corpus: a generated module using every statement form, plus the constructs the
+ * generator never writes (read, comments, exponents).
+ */
+public final class ParserCache {
+
+    private static final String EXTRA = """
+            module warmup;
+            (* comment *)
+            var i: integer; x: real; b: boolean; s: string; a: array[2, 3] of real;
+            procedure p();
+            begin
+              read(i); read(x); read(b);
+              write(i, " ", x); writeln; writeln(s, 1.5e-3, .5, 2E10, not b, -i, +x)
+            end p;
+            begin
+              p(); i := 0
+            end warmup.
+            """;
+
+    private ParserCache() {
+    }
+
+    /** Lexes and parses the embedded corpus; takes a few hundred milliseconds. */
+    public static void warmUp() {
+        ProgramGenerator.Config d = ProgramGenerator.Config.defaults();
+        String generated = ProgramGenerator.generate(new ProgramGenerator.Config(1, 600, 4, 12, 3, 3,
+                d.identifiers(), 4));
+        for (String src : List.of(generated, EXTRA)) {
+            CompilerDriver.parse(CharStreams.fromString(src, "warmup.ob0"));
+        }
+    }
+
+    /** Number of DFA states currently cached by the lexer and the parser. */
+    public static int states() {
+        return states(lexer().getInterpreter().decisionToDFA) + states(parser().getInterpreter().decisionToDFA);
+    }
+
+    private static int states(DFA[] dfas) {
+        int n = 0;
+        for (DFA dfa : dfas) {
+            n += dfa.states.size();
+        }
+        return n;
+    }
+
+    /**
+     * Drops all cached DFA states. Parsers that are running keep working: they finish on the
+     * old DFAs, which are then garbage.
+     */
+    public static void clear() {
+        lexer().getInterpreter().clearDFA();
+        parser().getInterpreter().clearDFA();
+    }
+
+    // the DFAs are static, so any instance gives access to them
+    private static Oberon0Lexer lexer() {
+        return new Oberon0Lexer(CharStreams.fromString(""));
+    }
+
+    private static Oberon0Parser parser() {
+        return new Oberon0Parser(new CommonTokenStream(new ListTokenSource(List.of())));
+    }
+}
@@ -0,0 +1,212 @@
+package app;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Wall time, CPU time and allocated bytes of each compiler phase, plus run time and peak
+ * resident set size of the child processes (C compiler, built program).
+ *
+ * Phases run one after another on the calling thread: {@link #phase} closes the previous
+ * phase and opens the next one, {@link #end} closes the last. CPU time and allocation are
+ * those of the calling thread only.
+ */
+public final class PhaseStats {
+
+    public record Phase(String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+    }
+
+    /**
+     * {@code peakRssKb} is best-effort (see {@link #watch}) and -1 where it is not known: not
+     * Linux, or the process exited before it was first sampled.
+     */
+    public record Child(String name, long wallNanos, long peakRssKb) {
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<Child> children = new ArrayList<>();
+
+    private String open;
+    private long wall0;
+    private long cpu0;
+    private long alloc0;
+
+    public void phase(String name) {
+        end();
+        open = name;
+        wall0 = System.nanoTime();
+        cpu0 = cpuTime();
+        alloc0 = allocated();
+    }
+
+    public void end() {
+        if (open == null) {
+            return;
+        }
+        phases.add(new Phase(open, System.nanoTime() - wall0, cpuTime() - cpu0, allocated() - alloc0));
+        open = null;
+    }
+
+    public List<Phase> phases() {
+        return phases;
+    }
+
+    public List<Child> children() {
+        return children;
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long allocated() {
+        return THREADS.isThreadAllocatedMemorySupported()
+                ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /* ---------- child processes ---------- */
+
+    /**
+     * Starts sampling a just-started child; {@link Watch#waitFor} records it once it exits.
+     * The peak is the largest {@code VmHWM} among the child and its descendants (so gcc's
+     * cc1 and ld count), sampled from /proc every 2 ms while they run.
+     *
+     * The figure is best-effort. Java cannot get the kernel's own account of a reaped child
+     * (getrusage(RUSAGE_CHILDREN)), and /proc forgets a process once it exits. So a process
+     * that ends within the first sample reports no peak, and one whose memory peaks just
+     * before a short-lived descendant exits may be under-reported.
+     */
+    public Watch watch(String name, Process p) {
+        return new Watch(name, p);
+    }
+
+    public final class Watch {
+
+        private final String name;
+        private final Process process;
+        private final long start = System.nanoTime();
+        private final Thread sampler;
+        private volatile long peakKb = -1;
+
+        private Watch(String name, Process process) {
+            this.name = name;
+            this.process = process;
+            sampler = new Thread(this::sample, "stats-" + name);
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        public int waitFor() throws InterruptedException {
+            int rc = process.waitFor();
+            long wall = System.nanoTime() - start;
+            sampler.join();
+            children.add(new Child(name, wall, peakKb));
+            return rc;
+        }
+
+        private void sample() {
+            ProcessHandle root = process.toHandle();
+            while (root.isAlive()) {
+                try (Stream<ProcessHandle> tree = Stream.concat(Stream.of(root), root.descendants())) {
+                    tree.forEach(h -> peakKb = Math.max(peakKb, highWaterMark(h.pid())));
+                }
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** VmHWM of a live process in kB, or -1 (not Linux, or the process is already gone). */
+    private static long highWaterMark(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // exited between listing and reading, or no procfs
+        }
+        return -1;
+    }
+
+    /* ---------- output ---------- */
+
+    public void print(PrintStream out) {
+        out.println("=== STATS ===");
+        out.printf(Locale.ROOT, "%-10s %10s %10s %12s%n", "phase", "wall ms", "cpu ms", "alloc KiB");
+        for (Phase p : phases) {
+            out.printf(Locale.ROOT, "%-10s %10.2f %10.2f %12d%n", p.name(), millis(p.wallNanos()),
+                    millis(p.cpuNanos()), p.allocatedBytes() / 1024);
+        }
+        if (!children.isEmpty()) {
+            out.printf(Locale.ROOT, "%-10s %10s %10s%n", "process", "wall ms", "peak KiB");
+        }
+        for (Child c : children) {
+            out.printf(Locale.ROOT, "%-10s %10.2f %10s%n", c.name(), millis(c.wallNanos()),
+                    c.peakRssKb() < 0 ? "-" : Long.toString(c.peakRssKb()));
+        }
+    }
+
+    public String toJson(String file, int exitCode) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"file\":").append(quote(file)).append(",\"exitCode\":").append(exitCode);
+        sb.append(",\"phases\":[");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase p = phases.get(i);
+            sb.append(i == 0 ? "" : ",")
+                    .append("{\"name\":").append(quote(p.name()))
+                    .append(",\"wallNanos\":").append(p.wallNanos())
+                    .append(",\"cpuNanos\":").append(p.cpuNanos())
+                    .append(",\"allocatedBytes\":").append(p.allocatedBytes()).append('}');
+        }
+        sb.append("],\"processes\":[");
+        for (int i = 0; i < children.size(); i++) {
+            Child c = children.get(i);
+            sb.append(i == 0 ? "" : ",")
+                    .append("{\"name\":").append(quote(c.name()))
+                    .append(",\"wallNanos\":").append(c.wallNanos())
+                    .append(",\"peakRssKb\":").append(c.peakRssKb() < 0 ? "null" : Long.toString(c.peakRssKb()))
+                    .append('}');
+        }
+        return sb.append("]}\n").toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' ->
+                    sb.append("\\\"");
+                case '\\' ->
+                    sb.append("\\\\");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,65 @@
+package app.backend;
+
+import app.ast.ArrayType;
+import app.ast.Type;
+import app.ast.TypeRef;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage layout of an array type: one contiguous buffer of {@link #size()} elements in
+ * row-major order, nested array types flattened into one list of dimensions. Element
+ * {@code (i0, ..., in)} lives at offset {@code i0 * strides[0] + ... + in * strides[n]}, and a
+ * sub-array {@code a[i0, ..., ik]} is the {@link #drop(int) remaining layout} starting at the
+ * offset of its first element.
+ *
+ * The C and JVM backends both lay arrays out this way, so a buffer together with this
+ * descriptor is all that code outside the compiled program needs to read or fill an array in
+ * place.
+ */
+public record ArrayLayout(Type element, List<Integer> dims, List<Integer> strides) {
+
+    public ArrayLayout {
+        dims = List.copyOf(dims);
+        strides = List.copyOf(strides);
+    }
+
+    /** Layout of {@code t}; a scalar type has rank 0 and size 1. */
+    public static ArrayLayout of(TypeRef t) {
+        List<Integer> dims = new ArrayList<>();
+        while (t instanceof ArrayType a) {
+            dims.addAll(a.dimensions());
+            t = a.elementType();
+        }
+        return new ArrayLayout((Type) t, dims, strides(dims));
+    }
+
+    private static List<Integer> strides(List<Integer> dims) {
+        Integer[] stride = new Integer[dims.size()];
+        int st = 1;
+        for (int k = dims.size() - 1; k >= 0; k--) {
+            stride[k] = st;
+            st *= dims.get(k);
+        }
+        return List.of(stride);
+    }
+
+    public int rank() {
+        return dims.size();
+    }
+
+    /** Number of elements in the buffer. */
+    public int size() {
+        return rank() == 0 ? 1 : dims.get(0) * strides.get(0);
+    }
+
+    public int stride(int k) {
+        return strides.get(k);
+    }
+
+    /** Layout of the sub-arrays left after {@code used} leading indices. */
+    public ArrayLayout drop(int used) {
+        return new ArrayLayout(element, dims.subList(used, rank()), strides.subList(used, rank()));
+    }
+}
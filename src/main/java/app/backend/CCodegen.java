@@ -1,76 +1,133 @@
 package app.backend;
 
 import app.ast.*;
+import app.opt.LoopOptimizer;
+import app.sem.Env;
+import app.sem.SourceMap;
+import app.sem.VarSym;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
 public final class CCodegen {
 
-    private final String moduleName;
-    private final StringBuilder out = new StringBuilder();
+    /** Characters collected before they are handed to the sink. */
+    private static final int CHUNK = 1 << 16;
 
-    private final Deque<String> procStack = new ArrayDeque<>();
-    private final Deque<Map<String, TypeRef>> varScopes = new ArrayDeque<>();
+    private Appendable sink;
+    private StringBuilder out;
 
-    private final Map<String, String> topNames = new HashMap<>();
+    /** C name of every procedure/function, nested ones included. */
+    private final Map<Decl, String> cNames = new IdentityHashMap<>();
+    private final List<Decl> routines = new ArrayList<>();
 
-    private final Deque<Set<String>> nestedVisible = new ArrayDeque<>();
+    /** Variables visible in the routine being emitted. */
+    private final Env vars = new Env();
 
-    public CCodegen(String moduleName) {
-        this.moduleName = moduleName;
+    private FreeVariables fv;
+    /** Routine whose body is being emitted; null for main. */
+    private Decl current;
+
+    /** Accesses of the loops being emitted that go through a row pointer, and that pointer. */
+    private final Map<ArrayAccess, String> rows = new IdentityHashMap<>();
+    private int rowCount;
+    /** Temporaries holding the limits of FOR loops. */
+    private int limitCount;
+
+    /** Positions named by failing bounds checks; null when indices are not checked. */
+    private final SourceMap checks;
+    private int checksKept;
+    private int checksEliminated;
+    /** Values the counters of the loops being emitted take, where known. */
+    private final Map<String, long[]> ranges = new HashMap<>();
+
+    public CCodegen() {
+        this(null);
     }
 
-    private void pushScope() {
-        Map<String, TypeRef> base = varScopes.isEmpty() ? new HashMap<>() : new HashMap<>(varScopes.peek());
-        varScopes.push(base);
+    /**
+     * With {@code checks} non-null every array index is checked at run time, except where range
+     * analysis proves it in bounds; a failing check reports the access's position in
+     * {@code checks} and exits with status 6, as a runtime error of the driver does.
+     */
+    public CCodegen(SourceMap checks) {
+        this.checks = checks;
     }
 
-    private void popScope() {
-        varScopes.pop();
+    public boolean checksBounds() {
+        return checks != null;
     }
 
-    private void declareVar(String name, TypeRef t) {
-        if (varScopes.isEmpty()) {
-            pushScope();
-        }
-        varScopes.peek().put(name, t);
+    /** Bounds checks in the generated code. */
+    public int checksKept() {
+        return checksKept;
+    }
+
+    /** Indices proven in bounds, which therefore got no check. */
+    public int checksEliminated() {
+        return checksEliminated;
     }
 
     private TypeRef lookupVar(String name) {
-        for (Map<String, TypeRef> m : varScopes) {
-            TypeRef t = m.get(name);
-            if (t != null) {
-                return t;
-            }
-        }
-        return null;
+        return vars.lookup(name) instanceof VarSym v ? v.type() : null;
     }
 
+    /** The whole translation unit as one String. */
     public String generate(Program p) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            generate(p, sb);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // a StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the translation unit to {@code sink} while it is generated, in chunks of about
+     * {@value #CHUNK} characters, so the C text never has to exist as a whole. A StringBuilder
+     * sink is written to directly.
+     */
+    public void generate(Program p, Appendable sink) throws IOException {
+        this.sink = sink;
+        out = sink instanceof StringBuilder sb ? sb : new StringBuilder(CHUNK + CHUNK / 4);
+        try {
+            program(p);
+            flush();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private void program(Program p) {
+        fv = FreeVariables.of(p);
         emit("#include <stdio.h>\n#include <string.h>\n#include <math.h>\n\n");
-        pushScope();
         emit("static void __print_bool(int b){ printf(b?\"TRUE\":\"FALSE\"); }\n");
         emit("static void __read_bool(int* b){ char buf[8]; if (scanf(\"%7s\", buf)==1){ *b = (strcmp(buf,\"TRUE\")==0); } }\n\n");
-
-        for (Decl d : p.decls()) {
-            if (d instanceof ProcDecl pr) {
-                String nm = mangleTop(pr.name());
-                topNames.put(pr.name(), nm);
-                emit("void ").append(nm).append("(").append(paramsProto(pr.params())).append(");\n");
-            } else if (d instanceof FuncDecl fn) {
-                String nm = mangleTop(fn.name());
-                topNames.put(fn.name(), nm);
-                emit(type(fn.retType())).append(" ").append(nm).append("(").append(paramsProto(fn.params())).append(");\n");
-            }
+        if (checks != null) {
+            emit("#include <stdlib.h>\n");
+            emit("static int __bound(int i, int n, const char* at){ if (i < 0 || i >= n){ fflush(stdout); "
+                    + "fprintf(stderr, \"Runtime error: array index out of range: %d not in 0..%d at %s\\n\", i, n - 1, at); "
+                    + "exit(6); } return i; }\n\n");
         }
-        if (!p.decls().isEmpty()) {
+
+        // nested routines are lifted to file scope; the variables they use from enclosing
+        // routines become extra pointer parameters
+        nameRoutines(p.decls(), "p_");
+        for (Decl d : routines) {
+            emit(header(d)).append(";\n");
+            flushIfFull();
+        }
+        if (!routines.isEmpty()) {
             emit("\n");
         }
 
         for (Decl d : p.decls()) {
             if (d instanceof VarDecl v) {
-                declareVar(v.name(), v.type());
-                emitVarDecl("", v.name(), v.type());
+                vars.declare(new VarSym(v.name(), v.type(), false));
+                emitVarDecl("", cVar(v.name()), v.type());
+                flushIfFull();
             }
         }
         if (!p.decls().isEmpty()) {
@@ -78,143 +135,187 @@ public final class CCodegen {
         }
 
         for (Decl d : p.decls()) {
-            if (d instanceof ProcDecl pr) {
-                emitProc(pr);
-                emit("\n");
-            } else if (d instanceof FuncDecl fn) {
-                emitFunc(fn);
-                emit("\n");
+            if (d instanceof ProcDecl || d instanceof FuncDecl) {
+                emitRoutine(d);
             }
         }
 
         emit("int main(void){\n");
-        for (Stmt s : p.body()) {
-            emit("  ").append(stmt(s)).append("\n");
-        }
+        lines(p.body());
         emit("  return 0;\n}\n");
+    }
 
-        return out.toString();
+    /** Hands the buffered text to the sink once a chunk is full. */
+    private void flushIfFull() {
+        if (out.length() >= CHUNK) {
+            flush();
+        }
     }
 
-    private void emitProc(ProcDecl pr) {
-        procStack.push(pr.name());
-        nestedVisible.push(collectNestedNames(pr.nested()));
-        pushScope();
-        for (Param par : pr.params()) {
-            declareVar(par.name(), par.type());
+    private void flush() {
+        if (out == sink) {
+            return;
+        }
+        try {
+            sink.append(out);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
+        out.setLength(0);
+    }
 
-        String self = mangleTop(pr.name());
-        emit("void ").append(self).append("(").append(paramsProto(pr.params())).append("){\n");
+    /*
+     * C names. Oberon identifiers may contain '_' anywhere, so none is used in C as it is: a
+     * variable or parameter x is v_x, and a routine is p_ followed by its path, each '_' of a
+     * name written as _1 and nested names joined by _0 (P.Q is p_P_0Q, a top-level P__Q is
+     * p_P_1_1Q). What the generator adds itself starts with "__". The three kinds cannot meet,
+     * and no Oberon name can become a C keyword or a library function.
+     */
 
-        for (Decl d : pr.locals()) {
-            if (d instanceof VarDecl v) {
-                declareVar(v.name(), v.type());
-                emitVarDecl("  ", v.name(), v.type());
-            }
-        }
+    private static String cVar(String name) {
+        return "v_" + name;
+    }
 
-        for (Decl d : pr.nested()) {
-            if (d instanceof ProcDecl q) {
-                emitNestedProc(q);
-                emit("\n");
-            } else if (d instanceof FuncDecl g) {
-                emitNestedFunc(g);
-                emit("\n");
+    private void nameRoutines(List<Decl> decls, String prefix) {
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl pr) {
+                String c = prefix + pr.name().replace("_", "_1");
+                cNames.put(d, c);
+                routines.add(d);
+                nameRoutines(pr.nested(), c + "_0");
+            } else if (d instanceof FuncDecl fn) {
+                String c = prefix + fn.name().replace("_", "_1");
+                cNames.put(d, c);
+                routines.add(d);
+                nameRoutines(fn.nested(), c + "_0");
             }
         }
+    }
 
-        for (Stmt s : pr.body()) {
-            emit("  ").append(stmt(s)).append("\n");
+    private String header(Decl d) {
+        StringBuilder sb = new StringBuilder("static ");
+        List<Param> params;
+        if (d instanceof ProcDecl pr) {
+            sb.append("void ");
+            params = pr.params();
+        } else {
+            FuncDecl fn = (FuncDecl) d;
+            sb.append(type(fn.retType())).append(" ");
+            params = fn.params();
         }
-        emit("}\n");
-
-        popScope();
-        nestedVisible.pop();
-        procStack.pop();
+        List<String> ps = new ArrayList<>();
+        if (!params.isEmpty()) {
+            ps.add(paramsProto(params));
+        }
+        for (FreeVariables.Binding b : fv.free(d)) {
+            if (b.type() instanceof Type t) {
+                ps.add(type(t) + "* " + upName(b));
+            } else {
+                ps.add(paramDecl(upName(b), b.type()));
+            }
+        }
+        return sb.append(cNames.get(d)).append("(").append(String.join(", ", ps)).append(")").toString();
     }
 
-    private void emitFunc(FuncDecl fn) {
-        procStack.push(fn.name());
-        nestedVisible.push(collectNestedNames(fn.nested()));
-        pushScope();
-        for (Param par : fn.params()) {
-            declareVar(par.name(), par.type());
+    /** Emits {@code d} after the routines nested in it, which see its parameters and locals. */
+    private void emitRoutine(Decl d) {
+        List<Param> params;
+        List<Decl> locals;
+        List<Decl> nested;
+        List<Stmt> body;
+        if (d instanceof ProcDecl pr) {
+            params = pr.params();
+            locals = pr.locals();
+            nested = pr.nested();
+            body = pr.body();
+        } else {
+            FuncDecl fn = (FuncDecl) d;
+            params = fn.params();
+            locals = fn.locals();
+            nested = fn.nested();
+            body = fn.body();
+        }
+        Decl outer = current;
+        current = d;
+        vars.push();
+        for (Param par : params) {
+            vars.declare(new VarSym(par.name(), par.type(), true));
+        }
+        for (Decl l : locals) {
+            if (l instanceof VarDecl v) {
+                vars.declare(new VarSym(v.name(), v.type(), false));
+            }
         }
 
-        String self = mangleTop(fn.name());
-        emit(type(fn.retType())).append(" ").append(self).append("(").append(paramsProto(fn.params())).append("){\n");
-
-        for (Decl d : fn.locals()) {
-            if (d instanceof VarDecl v) {
-                declareVar(v.name(), v.type());
-                emitVarDecl("  ", v.name(), v.type());
+        for (Decl n : nested) {
+            if (n instanceof ProcDecl || n instanceof FuncDecl) {
+                emitRoutine(n);
             }
         }
 
-        for (Decl d : fn.nested()) {
-            if (d instanceof ProcDecl q) {
-                emitNestedProc(q);
-                emit("\n");
-            } else if (d instanceof FuncDecl g) {
-                emitNestedFunc(g);
-                emit("\n");
+        emit(header(d)).append("{\n");
+        for (Decl l : locals) {
+            if (l instanceof VarDecl v) {
+                emitVarDecl("  ", cVar(v.name()), v.type());
             }
         }
+        lines(body);
+        emit("}\n\n");
 
-        for (Stmt s : fn.body()) {
-            emit("  ").append(stmt(s)).append("\n");
-        }
-        emit("}\n");
+        vars.pop();
+        current = outer;
+    }
 
-        popScope();
-        nestedVisible.pop();
-        procStack.pop();
+    /** Parameter through which a routine receives a variable of an enclosing routine. */
+    private String upName(FreeVariables.Binding b) {
+        // the owners of one routine's free variables are its distinct ancestors, so depth disambiguates
+        int depth = 0;
+        for (Decl r = fv.parent(b.owner()); r != null; r = fv.parent(r)) {
+            depth++;
+        }
+        return "__up" + depth + "_" + b.name();
     }
 
-    private void emitNestedProc(ProcDecl pr) {
-        nestedVisible.push(collectNestedNames(pr.nested()));
-        pushScope(); 
-        for (Param par : pr.params()) {
-            declareVar(par.name(), par.type()); 
-        }
-        emit("  void ").append(mangle(pr.name())).append("(").append(paramsProto(pr.params())).append("){\n");
-        for (Decl d : pr.locals()) {
-            if (d instanceof VarDecl v) {
-                declareVar(v.name(), v.type());
-                emitVarDecl("    ", v.name(), v.type());
-            }
-        }
-        for (Stmt s : pr.body()) {
-            emit("    ").append(stmt(s)).append("\n");
+    /** C lvalue for a variable named in the current routine. */
+    private void var(String name) {
+        FreeVariables.Binding b = fv.resolve(current, name);
+        if (b == null || b.owner() == current) {
+            emit(cVar(name));
+        } else if (b.type() instanceof ArrayType) {
+            emit(upName(b));
+        } else {
+            emit("(*").append(upName(b)).append(')');
         }
-        emit("  }\n");
-        popScope();
-        nestedVisible.pop();
     }
 
-    private void emitNestedFunc(FuncDecl fn) {
-        nestedVisible.push(collectNestedNames(fn.nested()));
-        pushScope();
-        for (Param par : fn.params()) {
-            declareVar(par.name(), par.type());
-        }
-        emit("  ").append(type(fn.retType())).append(" ").append(mangle(fn.name()))
-                .append("(").append(paramsProto(fn.params())).append("){\n");
-        for (Decl d : fn.locals()) {
-            if (d instanceof VarDecl v) {
-                declareVar(v.name(), v.type());
-                emitVarDecl("    ", v.name(), v.type());
-            }
-        }
-        for (Stmt s : fn.body()) {
-            emit("    ").append(stmt(s)).append("\n");
+    /** What the current routine passes for a free variable of a routine it calls. */
+    private void pointerTo(FreeVariables.Binding b) {
+        if (b.owner() != current) {
+            emit(upName(b));
+        } else if (b.type() instanceof ArrayType) {
+            emit(cVar(b.name()));
+        } else {
+            emit("&").append(cVar(b.name()));
         }
-        emit("  }\n");
-        popScope();
-        nestedVisible.pop();
     }
-    
+
+    private void call(String name, List<Expr> args) {
+        Decl callee = fv.resolveRoutine(current, name);
+        emit(cNames.get(callee)).append('(');
+        String sep = "";
+        for (Expr a : args) {
+            emit(sep);
+            expr(a);
+            sep = ", ";
+        }
+        for (FreeVariables.Binding b : fv.free(callee)) {
+            emit(sep);
+            pointerTo(b);
+            sep = ", ";
+        }
+        emit(")");
+    }
+
 //    private String paramsProto(List<Param> ps) {
 //        return ps.stream().map(p -> {
 //            TypeRef t = p.type();
@@ -229,28 +330,18 @@ public final class CCodegen {
 //    }
     
     private String paramsProto(List<Param> ps){
-    return ps.stream().map(p -> {
-        TypeRef t = p.type();
-        if (t instanceof ArrayType) {
-            Flat f = flatten(t);                
-            List<Integer> dims = f.dims;
-
-            String tail = dims.stream().skip(1)
-                              .map(d -> "[" + d + "]")
-                              .collect(Collectors.joining());
+    return ps.stream().map(p -> paramDecl(cVar(p.name()), p.type())).collect(Collectors.joining(", "));
+}
 
-            if (dims.size() <= 1) {
-                return baseTypeOf(t) + "* " + p.name();          
-            } else {
-                return baseTypeOf(t) + " (*" + p.name() + ")" + tail; 
-            }
+    private String paramDecl(String name, TypeRef t) {
+        if (t instanceof ArrayType) {
+            return baseTypeOf(t) + "* " + name;
         }
         if (t instanceof Type base) {
-            return type(base) + " " + p.name();
+            return type(base) + " " + name;
         }
-        return "/*unknown*/ " + p.name();
-    }).collect(Collectors.joining(", "));
-}
+        return "/*unknown*/ " + name;
+    }
 
 
     private String type(Type t) {
@@ -279,7 +370,7 @@ public final class CCodegen {
     private void emitVarDecl(String indent, String name, TypeRef t) {
         if (t instanceof ArrayType) {
             emit(indent).append(baseTypeOf(t)).append(" ")
-                    .append(name).append(dimsAll(t)).append(";\n");
+                    .append(name).append('[').append(ArrayLayout.of(t).size()).append("];\n");
         } else if (t instanceof Type base) {
             emit(indent).append(type(base)).append(" ").append(name).append(";\n");
         } else {
@@ -291,216 +382,742 @@ public final class CCodegen {
         return dims.stream().map(d -> "[" + d + "]").collect(Collectors.joining());
     }
 
-    private String stmt(Stmt s) {
-        if (s instanceof Assign a) {
-            return a.name() + " = " + expr(a.value()) + ";";
-        }
-        if (s instanceof AssignIndex ai) {
-            return expr(ai.target()) + " = " + expr(ai.value()) + ";";
+    /** One statement per line, each indented by two spaces (its continuation lines are not). */
+    private void lines(List<Stmt> body) {
+        for (int k = 0; k < body.size(); k++) {
+            emit("  ");
+            stmt(body.get(k), body.subList(0, k));
+            emit("\n");
+            flushIfFull();
         }
-        if (s instanceof CallStmt c) {
+    }
+
+    private void stmt(Stmt s) {
+        stmt(s, List.of());
+    }
+
+    /** {@code before} are the statements in front of {@code s} in its block. */
+    private void stmt(Stmt s, List<Stmt> before) {
+        if (s instanceof Assign a) {
+            var(a.name());
+            emit(" = ");
+            expr(a.value());
+            emit(";");
+        } else if (s instanceof AssignIndex ai) {
+            expr(ai.target());
+            emit(" = ");
+            expr(ai.value());
+            emit(";");
+        } else if (s instanceof CallStmt c) {
             if (c.name().equals("write")) {
-                return emitWrite(c.args(), false);
-            }
-            if (c.name().equals("writeln")) {
-                return emitWrite(c.args(), true);
-            }
-            if (c.name().equals("read")) {
+                emitWrite(c.args(), false);
+            } else if (c.name().equals("writeln")) {
+                emitWrite(c.args(), true);
+            } else if (c.name().equals("read")) {
                 if (c.args().isEmpty()) {
-                    return "/* read() no args */;";
+                    emit("/* read() no args */;");
+                } else {
+                    emitRead(c.args().get(0));
+                    emit(";");
                 }
-                return emitRead(c.args().get(0)) + ";";
-            }
-            return mangleMaybe(c.name()) + "(" + c.args().stream().map(this::expr).collect(Collectors.joining(", ")) + ");";
-        }
-        if (s instanceof Return r) {
-            return "return " + expr(r.value()) + ";";
-        }
-        if (s instanceof ReturnVoid) {
-            return "return;";
-        }
-        if (s instanceof Break) {
-            return "break;";
-        }
-        if (s instanceof Continue) {
-            return "continue;";
-        }
-        if (s instanceof If iff) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("if (").append(expr(iff.cond())).append(") {\n");
-            for (Stmt t : iff.thenPart()) {
-                sb.append("  ").append(stmt(t)).append("\n");
+            } else {
+                call(c.name(), c.args());
+                emit(";");
             }
+        } else if (s instanceof Return r) {
+            emit("return ");
+            expr(r.value());
+            emit(";");
+        } else if (s instanceof ReturnVoid) {
+            emit("return;");
+        } else if (s instanceof Break) {
+            emit("break;");
+        } else if (s instanceof Continue) {
+            emit("continue;");
+        } else if (s instanceof If iff) {
+            emit("if (");
+            expr(iff.cond());
+            emit(") {\n");
+            lines(iff.thenPart());
             for (ElseIf e : iff.elseIfs()) {
-                sb.append("} else if (").append(expr(e.cond())).append(") {\n");
-                for (Stmt t : e.body()) {
-                    sb.append("  ").append(stmt(t)).append("\n");
-                }
+                emit("} else if (");
+                expr(e.cond());
+                emit(") {\n");
+                lines(e.body());
             }
             if (!iff.elsePart().isEmpty()) {
-                sb.append("} else {\n");
-                for (Stmt t : iff.elsePart()) {
-                    sb.append("  ").append(stmt(t)).append("\n");
-                }
+                emit("} else {\n");
+                lines(iff.elsePart());
             }
-            sb.append("}");
-            return sb.toString();
-        }
-        if (s instanceof While w) {
-            return "while (" + expr(w.cond()) + ") " + block1(w.body());
-        }
-        if (s instanceof Repeat r) {
-            StringBuilder sb = new StringBuilder("do {\n");
-            for (Stmt t : r.body()) {
-                sb.append("  ").append(stmt(t)).append("\n");
+            emit("}");
+        } else if (s instanceof While w) {
+            emit("while (");
+            expr(w.cond());
+            emit(") ");
+            Counter c = counter(w, before);
+            if (c == null) {
+                block1(w.body());
+            } else {
+                counted(w.body(), c);
             }
-            sb.append("} while (!(").append(expr(r.cond())).append("));");
-            return sb.toString();
-        }
-        if (s instanceof For f) {
-            String i = f.var();
-            return "for (" + i + " = " + expr(f.from()) + "; " + i + " <= " + expr(f.to()) + "; " + i + "++) " + block1(f.body());
+        } else if (s instanceof Repeat r) {
+            emit("do {\n");
+            lines(r.body());
+            emit("} while (!(");
+            expr(r.cond());
+            emit("));");
+        } else if (s instanceof For f) {
+            // the limit is evaluated once, after the start value; a literal is used as it is
+            String limit = null;
+            if (!(f.to() instanceof IntLit)) {
+                limit = "__lim" + ++limitCount;
+                emit("{ int ").append(limit).append("; ");
+            }
+            LoopScan scan = LoopScan.of(f);
+            List<ArrayAccess> reduced = hoistRows(f, scan);
+            emit("for (");
+            var(f.var());
+            emit(" = ");
+            expr(f.from());
+            if (limit != null) {
+                emit(", ").append(limit).append(" = ");
+                expr(f.to());
+            }
+            emit("; ");
+            var(f.var());
+            emit(" <= ");
+            if (limit != null) {
+                emit(limit);
+            } else {
+                expr(f.to());
+            }
+            emit("; ");
+            var(f.var());
+            emit("++) ");
+            long[] outer = ranges.remove(f.var());
+            long[] range = loopRange(f, scan);
+            if (range != null) {
+                ranges.put(f.var(), range);
+            }
+            block1(f.body());
+            ranges.remove(f.var());
+            if (outer != null) {
+                ranges.put(f.var(), outer);
+            }
+            if (!reduced.isEmpty()) {
+                emit(" }");
+                reduced.forEach(rows::remove);
+            }
+            if (limit != null) {
+                emit(" }");
+            }
+        } else {
+            emit("/* unknown stmt */;");
         }
-        return "/* unknown stmt */;";
     }
 
-    private String block1(List<Stmt> body) {
+    /** Loop body: a single one-line statement stays on the loop's line. */
+    private void block1(List<Stmt> body) {
         if (body == null || body.isEmpty()) {
-            return "{ }";
+            emit("{ }");
+        } else if (body.size() == 1 && !multiline(body.get(0))) {
+            emit("{ ");
+            stmt(body.get(0));
+            emit(" }");
+        } else {
+            emit("{\n");
+            lines(body);
+            emit("}");
         }
-        if (body.size() == 1) {
-            String one = stmt(body.get(0));
-            if (!one.contains("\n")) {
-                return "{ " + one + " }";
+    }
+
+    /**
+     * Like {@link #block1}, with the counter's range known: {@code head} up to its step,
+     * {@code tail} after it.
+     */
+    private void counted(List<Stmt> body, Counter c) {
+        long[] outer = ranges.put(c.var(), c.head());
+        if (body.size() == 1 && !multiline(body.get(0))) {
+            emit("{ ");
+            stmt(body.get(0));
+            emit(" }");
+        } else {
+            emit("{\n");
+            for (int k = 0; k < body.size(); k++) {
+                if (k == c.step() + 1) {
+                    ranges.put(c.var(), c.tail());
+                }
+                emit("  ");
+                stmt(body.get(k), body.subList(0, k));
+                emit("\n");
+                flushIfFull();
             }
+            emit("}");
         }
-        StringBuilder sb = new StringBuilder("{\n");
-        for (Stmt s : body) {
-            sb.append("  ").append(stmt(s)).append("\n");
+        ranges.remove(c.var());
+        if (outer != null) {
+            ranges.put(c.var(), outer);
         }
-        sb.append("}");
-        return sb.toString();
     }
 
-    private String expr(Expr e) {
-        if (e instanceof IntLit i) {
-            return Integer.toString(i.value());
+    /** Whether {@link #stmt} writes more than one line for {@code s}. */
+    private static boolean multiline(Stmt s) {
+        if (s instanceof If || s instanceof Repeat) {
+            return true;
         }
-        if (e instanceof RealLit d) {
-            return Double.toString(d.value());
-        }
-        if (e instanceof BoolLit b) {
-            return b.value() ? "1" : "0";
-        }
-        if (e instanceof StringLit s) {
-            return "\"" + s.value().replace("\"", "\\\"") + "\"";
-        }
-        if (e instanceof Var v) {
-            return v.name();
-        }
-        if (e instanceof Paren p) {
-            return "(" + expr(p.inner()) + ")";
+        List<Stmt> body;
+        if (s instanceof While w) {
+            body = w.body();
+        } else if (s instanceof For f) {
+            body = f.body();
+        } else {
+            return false;
         }
-        if (e instanceof Unary u) {
-            String op = switch (u.op()) {
+        return body != null && (body.size() > 1 || body.size() == 1 && multiline(body.get(0)));
+    }
+
+    private void expr(Expr e) {
+        if (e instanceof IntLit i) {
+            // folding can produce INT_MIN, whose literal would not have type int in C
+            if (i.value() == Integer.MIN_VALUE) {
+                emit("(-2147483647 - 1)");
+            } else {
+                out.append(i.value());
+            }
+        } else if (e instanceof RealLit d) {
+            out.append(d.value());
+        } else if (e instanceof BoolLit b) {
+            emit(b.value() ? "1" : "0");
+        } else if (e instanceof StringLit s) {
+            out.append('"');
+            String v = s.value();
+            for (int i = 0; i < v.length(); i++) {
+                char c = v.charAt(i);
+                if (c == '"') {
+                    out.append('\\');
+                }
+                out.append(c);
+            }
+            out.append('"');
+        } else if (e instanceof Var v) {
+            var(v.name());
+        } else if (e instanceof Paren p) {
+            emit("(");
+            expr(p.inner());
+            emit(")");
+        } else if (e instanceof Unary u) {
+            emit(switch (u.op()) {
                 case POS ->
                     "+";
                 case NEG ->
                     "-";
                 default ->
                     "!";
-            };
-            return op + "(" + expr(u.value()) + ")";
-        }
-        if (e instanceof Binary b) {
+            });
+            emit("(");
+            expr(u.value());
+            emit(")");
+        } else if (e instanceof Binary b) {
             String op = switch (b.op()) {
                 case ADD ->
-                    "+";
+                    " + ";
                 case SUB ->
-                    "-";
+                    " - ";
                 case MUL ->
-                    "*";
+                    " * ";
                 case DIV ->
-                    "/";
+                    " / ";
                 case MOD ->
-                    "%";
+                    " % ";
                 case AND ->
-                    "&&";
+                    " && ";
                 case OR ->
-                    "||";
+                    " || ";
                 case EQ ->
-                    "==";
+                    " == ";
                 case NE ->
-                    "!=";
+                    " != ";
                 case LT ->
-                    "<";
+                    " < ";
                 case LE ->
-                    "<=";
+                    " <= ";
                 case GT ->
-                    ">";
+                    " > ";
                 case GE ->
-                    ">=";
+                    " >= ";
             };
-            return "(" + expr(b.left()) + " " + op + " " + expr(b.right()) + ")";
-        }
-        if (e instanceof CallExpr c) {
-            return mangleMaybe(c.name()) + "(" + c.args().stream().map(this::expr).collect(Collectors.joining(", ")) + ")";
-        }
-        if (e instanceof ArrayAccess a) {
-            String base = expr(a.base());
-            String idxs = a.indices().stream().map(this::expr).map(s -> "[" + s + "]").collect(Collectors.joining());
-            return base + idxs;
+            emit("(");
+            expr(b.left());
+            emit(op);
+            expr(b.right());
+            emit(")");
+        } else if (e instanceof CallExpr c) {
+            call(c.name(), c.args());
+        } else if (e instanceof ArrayAccess a) {
+            element(a);
+        } else {
+            emit("/* unknown expr */");
         }
-        return "/* unknown expr */";
     }
 
-    private String emitWrite(List<Expr> args, boolean ln) {
+    private void emitWrite(List<Expr> args, boolean ln) {
         if (args.isEmpty()) {
-            return ln ? "printf(\"\\n\");" : "/* write() */;";
+            emit(ln ? "printf(\"\\n\");" : "/* write() */;");
+            return;
         }
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < args.size(); i++) {
-            Expr x = args.get(i);
+        for (Expr x : args) {
             switch (kindOf(x)) {
-                case INT ->
-                    sb.append("printf(\"%d\", ").append(expr(x)).append(");");
-                case REAL ->
-                    sb.append("printf(\"%g\", ").append(expr(x)).append(");");
-                case BOOL ->
-                    sb.append("__print_bool(").append(expr(x)).append(");");
-                case STR ->
-                    sb.append("printf(\"%s\", ").append(expr(x)).append(");");
+                case INT -> {
+                    emit("printf(\"%d\", ");
+                    expr(x);
+                    emit(");");
+                }
+                case REAL -> {
+                    emit("printf(\"%g\", ");
+                    expr(x);
+                    emit(");");
+                }
+                case BOOL -> {
+                    emit("__print_bool(");
+                    expr(x);
+                    emit(");");
+                }
+                case STR -> {
+                    emit("printf(\"%s\", ");
+                    expr(x);
+                    emit(");");
+                }
                 case ARRAY ->
-                    sb.append("/* cannot print arrays */;");
+                    emit("/* cannot print arrays */;");
             }
         }
         if (ln) {
-            sb.append(" printf(\"\\n\");");
+            emit(" printf(\"\\n\");");
         }
-        return sb.toString();
     }
 
-    private String emitRead(Expr arg) {
-        String addr;
-        if (arg instanceof Var v) {
-            addr = "&" + v.name();
-        } else if (arg instanceof ArrayAccess a) {
-            addr = "&" + expr(a);
-        } else {
-            return "/* invalid read target */";
+    private void emitRead(Expr arg) {
+        if (!(arg instanceof Var) && !(arg instanceof ArrayAccess)) {
+            emit("/* invalid read target */");
+            return;
         }
-
         switch (kindOf(arg)) {
-            case INT:
-                return "scanf(\"%d\", " + addr + ")";
-            case REAL:
-                return "scanf(\"%lf\", " + addr + ")"; 
-            case BOOL:
-                return "__read_bool(" + addr + ")";
-            case STR:
-                return "/* read(string) not supported: need char buffer */";
-            default:
-                return "/* cannot read arrays */";
+            case INT ->
+                emit("scanf(\"%d\", &");
+            case REAL ->
+                emit("scanf(\"%lf\", &");
+            case BOOL ->
+                emit("__read_bool(&");
+            case STR -> {
+                emit("/* read(string) not supported: need char buffer */");
+                return;
+            }
+            default -> {
+                emit("/* cannot read arrays */");
+                return;
+            }
+        }
+        expr(arg);
+        emit(")");
+    }
+
+    /**
+     * Arrays are flat buffers laid out by {@link ArrayLayout}: all indices of an access chain,
+     * {@code r[1][2]} as well as {@code m[1, 2]}, fold into one offset. An element is
+     * {@code base[offset]}, a sub-array the pointer {@code (base + offset)}.
+     */
+    private void element(ArrayAccess aa) {
+        List<Expr> indices = indicesOf(aa);
+        String base = baseVar(aa).name();
+        ArrayLayout layout = ArrayLayout.of(lookupVar(base));
+        String row = rows.get(aa);
+        if (row != null) {
+            int last = indices.size() - 1;
+            if (checks != null) {
+                // hoistRows only takes rows whose indices are proven in bounds
+                checksEliminated += last;
+            }
+            emit(row).append('[');
+            if (needsCheck(indices.get(last), layout.dims().get(last))) {
+                bound(indices.get(last), layout.dims().get(last), aa);
+            } else {
+                expr(indices.get(last));
+            }
+            emit("]");
+            return;
+        }
+        boolean whole = indices.size() >= layout.rank();
+        if (!whole) {
+            emit("(");
+        }
+        var(base);
+        emit(whole ? "[" : " + ");
+        offset(indices, layout, aa);
+        emit(whole ? "]" : ")");
+    }
+
+    /**
+     * Sum of {@code indices[k] * stride(k)}, literal indices folded into one constant. Indices
+     * are checked as indices of {@code at}, or not at all if it is null.
+     */
+    private void offset(List<Expr> indices, ArrayLayout layout, ArrayAccess at) {
+        int constant = 0;
+        String sep = "";
+        for (int k = 0; k < indices.size(); k++) {
+            Expr ix = indices.get(k);
+            boolean check = at != null && needsCheck(ix, layout.dims().get(k));
+            if (ix instanceof IntLit lit && !check) {
+                constant += lit.value() * layout.stride(k);
+                continue;
+            }
+            emit(sep);
+            if (check) {
+                bound(ix, layout.dims().get(k), at);
+            } else {
+                expr(ix);
+            }
+            if (layout.stride(k) != 1) {
+                emit(" * ").append(layout.stride(k));
+            }
+            sep = " + ";
+        }
+        if (constant != 0 || sep.isEmpty()) {
+            emit(sep);
+            expr(new IntLit(constant));
+        }
+    }
+
+    /** Whether index {@code ix} of a dimension of size {@code dim} gets a run-time check. */
+    private boolean needsCheck(Expr ix, int dim) {
+        if (checks == null) {
+            return false;
+        }
+        if (inBounds(ix, dim)) {
+            checksEliminated++;
+            return false;
+        }
+        checksKept++;
+        return true;
+    }
+
+    private boolean inBounds(Expr ix, int dim) {
+        long[] r = range(ix);
+        return r != null && r[0] >= 0 && r[1] < dim;
+    }
+
+    private void bound(Expr ix, int dim, ArrayAccess at) {
+        emit("__bound(");
+        expr(ix);
+        emit(", ").append(dim).append(", \"");
+        String where = checks.get(at).toString();
+        for (int i = 0; i < where.length(); i++) {
+            char c = where.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        emit("\")");
+    }
+
+    /**
+     * Interval of the values {@code e} can have where it is evaluated, or null if unknown.
+     * Only literals and the variables of enclosing FOR loops have known ranges.
+     */
+    private long[] range(Expr e) {
+        if (e instanceof IntLit i) {
+            return new long[]{i.value(), i.value()};
+        }
+        if (e instanceof Var v) {
+            return ranges.get(v.name());
+        }
+        if (e instanceof Paren p) {
+            return range(p.inner());
+        }
+        if (e instanceof Unary u && u.op() != UnOp.NOT) {
+            long[] r = range(u.value());
+            return r == null || u.op() == UnOp.POS ? r : new long[]{-r[1], -r[0]};
+        }
+        if (!(e instanceof Binary b)) {
+            return null;
+        }
+        long[] l = range(b.left());
+        long[] r = range(b.right());
+        if (l == null || r == null) {
+            return null;
+        }
+        boolean positiveConstant = r[0] == r[1] && r[0] > 0;
+        long[] res = switch (b.op()) {
+            case ADD ->
+                new long[]{l[0] + r[0], l[1] + r[1]};
+            case SUB ->
+                new long[]{l[0] - r[1], l[1] - r[0]};
+            case MUL -> {
+                long p1 = l[0] * r[0];
+                long p2 = l[0] * r[1];
+                long p3 = l[1] * r[0];
+                long p4 = l[1] * r[1];
+                yield new long[]{Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4))};
+            }
+            // C division and remainder truncate towards zero, so only a non-negative left side is easy
+            case DIV ->
+                l[0] >= 0 && positiveConstant ? new long[]{l[0] / r[0], l[1] / r[0]} : null;
+            case MOD ->
+                l[0] >= 0 && positiveConstant ? new long[]{0, Math.min(l[1], r[0] - 1)} : null;
+            default ->
+                null;
+        };
+        // past the int range the C arithmetic may have wrapped around
+        return res != null && res[0] >= Integer.MIN_VALUE && res[1] <= Integer.MAX_VALUE ? res : null;
+    }
+
+    /**
+     * Values the variable of {@code f} takes in the loop body, or null if unknown: both bounds
+     * need known ranges, and the body must not assign the variable, nor call a routine when a
+     * call could (the variable is global, an enclosing routine's or used by a nested one).
+     */
+    private long[] loopRange(For f, LoopScan scan) {
+        if (checks == null || scan.assigned.contains(f.var())) {
+            return null;
+        }
+        if (scan.calls) {
+            FreeVariables.Binding b = fv.resolve(current, f.var());
+            if (b == null || b.owner() != current || fv.captured(b)) {
+                return null;
+            }
+        }
+        long[] from = range(f.from());
+        long[] to = range(f.to());
+        return from == null || to == null ? null : new long[]{from[0], to[1]};
+    }
+
+    /**
+     * A WHILE loop counter: the body's statement {@code step} changes it by a constant, and it
+     * is in {@code head} up to that statement and in {@code tail} after it.
+     */
+    private record Counter(String var, int step, long[] head, long[] tail) {
+    }
+
+    /**
+     * The counter of {@code w} with known ranges, or null: an integer induction variable (see
+     * {@link LoopOptimizer#inductions}) that counts up while {@code v < e} or {@code v <= e}
+     * holds, or down while {@code v > e} or {@code v >= e}, where {@code e} has a known range.
+     * The other end comes from the last assignment to it in {@code before}, whose value must
+     * have a known range. A call in the loop or after that assignment rules out a counter a
+     * call could change, as in {@link #loopRange}.
+     */
+    private Counter counter(While w, List<Stmt> before) {
+        if (checks == null) {
+            return null;
+        }
+        for (LoopOptimizer.Induction ind : LoopOptimizer.inductions(w)) {
+            String v = ind.var();
+            Binary g = guard(w.cond(), v, ind.step() > 0);
+            if (g == null || lookupVar(v) != Type.INTEGER) {
+                continue;
+            }
+            LoopScan between = new LoopScan();
+            Assign init = null;
+            for (int k = before.size() - 1; k >= 0 && init == null; k--) {
+                Stmt s = before.get(k);
+                if (s instanceof Assign a && a.name().equals(v)) {
+                    init = a;
+                } else {
+                    between.stmt(s);
+                }
+            }
+            if (init == null || between.assigned.contains(v)) {
+                continue;
+            }
+            LoopScan scan = new LoopScan();
+            scan.expr(w.cond());
+            w.body().forEach(scan::stmt);
+            if (scan.calls || between.calls) {
+                FreeVariables.Binding b = fv.resolve(current, v);
+                if (b == null || b.owner() != current || fv.captured(b)) {
+                    continue;
+                }
+            }
+            long[] start = range(init.value());
+            long[] limit = range(g.right());
+            if (start == null || limit == null) {
+                continue;
+            }
+            boolean strict = g.op() == BinOp.LT || g.op() == BinOp.GT;
+            long[] head = ind.step() > 0
+                    ? new long[]{start[0], strict ? limit[1] - 1 : limit[1]}
+                    : new long[]{strict ? limit[0] + 1 : limit[0], start[1]};
+            long[] tail = {head[0] + ind.step(), head[1] + ind.step()};
+            if (head[0] > head[1] || tail[0] < Integer.MIN_VALUE || tail[1] > Integer.MAX_VALUE) {
+                continue;
+            }
+            int step = 0;
+            while (!(w.body().get(step) instanceof Assign a && a.name().equals(v))) {
+                step++;
+            }
+            return new Counter(v, step, head, tail);
+        }
+        return null;
+    }
+
+    /** The test {@code v < e}, {@code v <= e} ({@code up}) or {@code v > e}, {@code v >= e} that {@code cond} requires. */
+    private static Binary guard(Expr cond, String v, boolean up) {
+        cond = strip(cond);
+        if (!(cond instanceof Binary b)) {
+            return null;
+        }
+        if (b.op() == BinOp.AND) {
+            Binary l = guard(b.left(), v, up);
+            return l != null ? l : guard(b.right(), v, up);
+        }
+        boolean fits = up ? b.op() == BinOp.LT || b.op() == BinOp.LE : b.op() == BinOp.GT || b.op() == BinOp.GE;
+        return fits && strip(b.left()) instanceof Var x && x.name().equals(v) ? b : null;
+    }
+
+    private static Expr strip(Expr e) {
+        while (e instanceof Paren p) {
+            e = p.inner();
+        }
+        return e;
+    }
+
+    private record Row(String array, List<Expr> prefix) {
+    }
+
+    /**
+     * Strength reduction of the accesses {@code a[e0, ..., ek, i]} in {@code f} whose last index
+     * is the loop variable and whose other indices are literals or variables the loop does
+     * not assign: the row offset is multiplied out once, into a pointer declared before the
+     * loop, and the access becomes {@code row[i]}. Loops that call routines are left alone,
+     * since a call may change any variable; with bounds checks, so are rows not proven in
+     * bounds, whose pointer would be computed even if the loop does not run. Opens a block for
+     * the pointers, which the caller closes after the loop, and returns the accesses it took over.
+     */
+    private List<ArrayAccess> hoistRows(For f, LoopScan scan) {
+        if (scan.calls) {
+            return List.of();
+        }
+        Map<Row, String> names = new HashMap<>();
+        List<ArrayAccess> reduced = new ArrayList<>();
+        for (ArrayAccess aa : scan.accesses) {
+            String base = baseVar(aa).name();
+            ArrayLayout layout = ArrayLayout.of(lookupVar(base));
+            List<Expr> indices = indicesOf(aa);
+            int last = indices.size() - 1;
+            if (rows.containsKey(aa) || layout.rank() < 2 || indices.size() != layout.rank()
+                    || scan.assigned.contains(base)
+                    || !(indices.get(last) instanceof Var v && v.name().equals(f.var()))) {
+                continue;
+            }
+            List<Expr> prefix = indices.subList(0, last);
+            boolean invariant = prefix.stream().allMatch(ix -> ix instanceof IntLit
+                    || ix instanceof Var x && !x.name().equals(f.var()) && !scan.assigned.contains(x.name()));
+            if (!invariant || prefix.stream().allMatch(ix -> ix instanceof IntLit)) {
+                continue;
+            }
+            if (checks != null) {
+                boolean proven = true;
+                for (int k = 0; k < last; k++) {
+                    proven &= inBounds(prefix.get(k), layout.dims().get(k));
+                }
+                if (!proven) {
+                    continue;
+                }
+            }
+            String row = names.get(new Row(base, prefix));
+            if (row == null) {
+                row = "__row" + ++rowCount;
+                names.put(new Row(base, prefix), row);
+                emit(reduced.isEmpty() ? "{ " : "").append(baseTypeOf(layout.element())).append("* ")
+                        .append(row).append(" = ");
+                var(base);
+                emit(" + ");
+                offset(prefix, layout, null);
+                emit("; ");
+            }
+            rows.put(aa, row);
+            reduced.add(aa);
+        }
+        return reduced;
+    }
+
+    /** Variables a loop assigns, the array accesses in it and whether it calls routines. */
+    private static final class LoopScan {
+
+        final Set<String> assigned = new HashSet<>();
+        final List<ArrayAccess> accesses = new ArrayList<>();
+        boolean calls;
+
+        /** Scan of the bounds and the body of {@code f}; its own variable is not counted as assigned. */
+        static LoopScan of(For f) {
+            LoopScan scan = new LoopScan();
+            scan.expr(f.from());
+            scan.expr(f.to());
+            f.body().forEach(scan::stmt);
+            return scan;
+        }
+
+        void stmt(Stmt s) {
+            if (s instanceof Assign a) {
+                assigned.add(a.name());
+                expr(a.value());
+            } else if (s instanceof AssignIndex ai) {
+                expr(ai.target());
+                expr(ai.value());
+            } else if (s instanceof CallStmt c) {
+                switch (c.name()) {
+                    case "write", "writeln" -> {
+                    }
+                    case "read" -> {
+                        if (!c.args().isEmpty() && c.args().get(0) instanceof Var v) {
+                            assigned.add(v.name());
+                        }
+                    }
+                    default ->
+                        calls = true;
+                }
+                c.args().forEach(this::expr);
+            } else if (s instanceof Return r) {
+                expr(r.value());
+            } else if (s instanceof If iff) {
+                expr(iff.cond());
+                iff.thenPart().forEach(this::stmt);
+                for (ElseIf e : iff.elseIfs()) {
+                    expr(e.cond());
+                    e.body().forEach(this::stmt);
+                }
+                iff.elsePart().forEach(this::stmt);
+            } else if (s instanceof While w) {
+                expr(w.cond());
+                w.body().forEach(this::stmt);
+            } else if (s instanceof Repeat r) {
+                r.body().forEach(this::stmt);
+                expr(r.cond());
+            } else if (s instanceof For f) {
+                assigned.add(f.var());
+                expr(f.from());
+                expr(f.to());
+                f.body().forEach(this::stmt);
+            }
+        }
+
+        void expr(Expr e) {
+            if (e instanceof ArrayAccess aa) {
+                accesses.add(aa);
+                for (Expr cur = aa; cur instanceof ArrayAccess a; cur = a.base()) {
+                    a.indices().forEach(this::expr);
+                }
+            } else if (e instanceof Paren p) {
+                expr(p.inner());
+            } else if (e instanceof Unary u) {
+                expr(u.value());
+            } else if (e instanceof Binary b) {
+                expr(b.left());
+                expr(b.right());
+            } else if (e instanceof CallExpr c) {
+                calls = true;
+                c.args().forEach(this::expr);
+            }
         }
     }
 
@@ -525,100 +1142,52 @@ public final class CCodegen {
         if (e instanceof Var v) {
             TypeRef t = lookupVar(v.name());
             if (t instanceof Type bt) {
-                return switch (bt) {
-                    case STRING ->
-                        K.STR;
-                    case BOOLEAN ->
-                        K.BOOL;
-                    case REAL ->
-                        K.REAL;
-                    case INTEGER ->
-                        K.INT;
-                };
+                return kindOf(bt);
             }
             return K.ARRAY;
         }
         if (e instanceof ArrayAccess aa) {
             TypeRef et = elementTypeOf(aa);
             if (et instanceof Type bt) {
-                return switch (bt) {
-                    case STRING ->
-                        K.STR;
-                    case BOOLEAN ->
-                        K.BOOL;
-                    case REAL ->
-                        K.REAL;
-                    case INTEGER ->
-                        K.INT;
-                };
+                return kindOf(bt);
             }
             return K.ARRAY;
         }
-        return K.INT;
-    }
-
-    private String mangleTop(String name) {
-        return "__" + moduleName + "_" + name;
-    }
-
-    private String mangle(String name) {
-        if (procStack.isEmpty()) {
-            return mangleTop(name);
+        if (e instanceof Paren p) {
+            return kindOf(p.inner());
         }
-        return "__" + moduleName + "_" + String.join("__", procStack) + "__" + name;
-    }
-
-    private Set<String> collectNestedNames(List<Decl> nested) {
-        Set<String> s = new HashSet<>();
-        for (Decl d : nested) {
-            if (d instanceof ProcDecl q) {
-                s.add(q.name());
-            } else if (d instanceof FuncDecl g) {
-                s.add(g.name());
-            }
+        if (e instanceof Unary u) {
+            return u.op() == UnOp.NOT ? K.BOOL : kindOf(u.value());
         }
-        return s;
-    }
-
-    private String mangleMaybe(String name) {
-        for (Iterator<Set<String>> it = nestedVisible.descendingIterator(); it.hasNext();) {
-            if (it.next().contains(name)) {
-                return mangle(name);
-            }
+        if (e instanceof Binary b) {
+            return switch (b.op()) {
+                case EQ, NE, LT, LE, GT, GE, AND, OR ->
+                    K.BOOL;
+                default ->
+                    kindOf(b.left());
+            };
         }
-        return topNames.getOrDefault(name, name);
-    }
-
-    private static final class Flat {
-
-        final Type base;
-        final List<Integer> dims;
-
-        Flat(Type base, List<Integer> dims) {
-            this.base = base;
-            this.dims = dims;
+        if (e instanceof CallExpr c && fv.resolveRoutine(current, c.name()) instanceof FuncDecl f) {
+            return kindOf(f.retType());
         }
+        return K.INT;
     }
 
-    private Flat flatten(TypeRef t) {
-        if (t instanceof Type base) {
-            return new Flat(base, List.of());
-        }
-        if (t instanceof ArrayType a) {
-            Flat inner = flatten(a.elementType());
-            List<Integer> all = new ArrayList<>(a.dimensions());
-            all.addAll(inner.dims);
-            return new Flat(inner.base, all);
-        }
-        return new Flat(Type.INTEGER, List.of());
+    private K kindOf(Type t) {
+        return switch (t) {
+            case STRING ->
+                K.STR;
+            case BOOLEAN ->
+                K.BOOL;
+            case REAL ->
+                K.REAL;
+            case INTEGER ->
+                K.INT;
+        };
     }
 
     private String baseTypeOf(TypeRef t) {
-        return type(flatten(t).base);
-    }
-
-    private String dimsAll(TypeRef t) {
-        return flatten(t).dims.stream().map(d -> "[" + d + "]").collect(Collectors.joining());
+        return type(ArrayLayout.of(t).element());
     }
 
     private StringBuilder emit(String s) {
@@ -636,6 +1205,15 @@ public final class CCodegen {
         return c;
     }
 
+    /** All indices of an access chain, outermost array first: {@code r[1][2]} gives 1, 2. */
+    private static List<Expr> indicesOf(ArrayAccess aa) {
+        List<Expr> indices = new ArrayList<>();
+        for (Expr cur = aa; cur instanceof ArrayAccess a; cur = a.base()) {
+            indices.addAll(0, a.indices());
+        }
+        return indices;
+    }
+
     private Var baseVar(Expr e) {
         Expr cur = e;
         while (cur instanceof ArrayAccess aa) {
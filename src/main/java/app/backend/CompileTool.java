@@ -49,7 +49,7 @@
 //            System.exit(3);
 //        }
 //
-//        String c = new CCodegen(ast.name()).generate(ast);
+//        String c = new CCodegen().generate(ast);
 //        Files.writeString(Path.of(outPath), c);
 //        System.out.println("OK → " + outPath);
 //    }
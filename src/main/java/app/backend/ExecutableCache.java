@@ -0,0 +1,287 @@
+package app.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of compiled executables.
+ *
+ * The key is a SHA-256 of the generated C, the C compiler command line and the compiler's
+ * {@code --version} output, so an unchanged program is never compiled twice and upgrading the
+ * compiler invalidates old entries. With {@code -march=native} the key also covers what the
+ * compiler makes of it on this machine, so a cache shared between machines (or copied to a
+ * new one) never hands out code built for another CPU. Entries are published with an atomic
+ * rename, which makes the cache safe to share between concurrent compilations (e.g. the compile
+ * server).
+ *
+ * Each store evicts entries unused for {@link #MAX_AGE}, then the least recently used ones
+ * while the cache holds more than {@code $OB0_CACHE_MB} megabytes (default 256).
+ *
+ * Location: {@code $OB0_CACHE}, else {@code $XDG_CACHE_HOME/oberon0}, else {@code ~/.cache/oberon0}.
+ */
+public final class ExecutableCache {
+
+    /** Entries not used for this long are evicted. */
+    public static final Duration MAX_AGE = Duration.ofDays(30);
+    /** Entries used this recently are kept whatever the size, since a caller may be about to run them. */
+    private static final Duration IN_USE = Duration.ofMinutes(1);
+    /** Builds left over by a compilation that died are deleted after this long. */
+    private static final Duration ABANDONED = Duration.ofHours(1);
+
+    private static final Map<String, String> VERSIONS = new ConcurrentHashMap<>();
+    private static final Map<String, String> NATIVE = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final long maxBytes;
+
+    private ExecutableCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** The user's cache, or null if its directory cannot be created. */
+    public static ExecutableCache open() {
+        Map<String, String> env = System.getenv();
+        Path dir;
+        if (env.containsKey("OB0_CACHE")) {
+            dir = Path.of(env.get("OB0_CACHE"));
+        } else if (env.containsKey("XDG_CACHE_HOME")) {
+            dir = Path.of(env.get("XDG_CACHE_HOME"), "oberon0");
+        } else {
+            dir = Path.of(System.getProperty("user.home"), ".cache", "oberon0");
+        }
+        long mb = 256;
+        try {
+            mb = Long.parseLong(env.getOrDefault("OB0_CACHE_MB", "256").strip());
+        } catch (NumberFormatException ex) {
+            // keep the default
+        }
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException ex) {
+            return null;
+        }
+        return new ExecutableCache(dir, mb << 20);
+    }
+
+    public String key(String cc, List<String> flags, String cCode) {
+        Key key = newKey(cc, flags);
+        try {
+            key.append(cCode);
+            return key.finish();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // digesting does not do I/O
+        }
+    }
+
+    /**
+     * Starts a key for C code that is still being generated: the code is appended to the
+     * returned {@link Key} as it is written and {@link Key#finish()} gives the same key as
+     * {@link #key(String, List, String)} would for the whole text.
+     */
+    public Key newKey(String cc, List<String> flags) {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        update(sha, System.getProperty("os.name") + "/" + System.getProperty("os.arch"));
+        update(sha, cc);
+        update(sha, version(cc));
+        for (String f : flags) {
+            update(sha, f);
+        }
+        if (flags.contains("-march=native")) {
+            update(sha, nativeTarget(cc));
+        }
+        return new Key(sha);
+    }
+
+    /** Digest of the C code appended so far; see {@link #newKey(String, List)}. */
+    public static final class Key implements Appendable {
+
+        private final MessageDigest sha;
+        private final Writer utf8;
+
+        private Key(MessageDigest sha) {
+            this.sha = sha;
+            this.utf8 = new OutputStreamWriter(new DigestOutputStream(OutputStream.nullOutputStream(), sha),
+                    StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            utf8.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            utf8.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            utf8.append(c);
+            return this;
+        }
+
+        public String finish() throws IOException {
+            utf8.flush();
+            sha.update((byte) 0);
+            return HexFormat.of().formatHex(sha.digest());
+        }
+    }
+
+    private static void update(MessageDigest sha, String s) {
+        sha.update(s.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+    }
+
+    /** First line(s) of {@code cc --version}, remembered for the life of the JVM. */
+    private static String version(String cc) {
+        return VERSIONS.computeIfAbsent(cc, c -> {
+            try {
+                Process p = new ProcessBuilder(c, "--version").redirectErrorStream(true).start();
+                String v = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                p.waitFor();
+                return v;
+            } catch (IOException ex) {
+                return "";
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return "";
+            }
+        });
+    }
+
+    /**
+     * What {@code -march=native} stands for here: the target options {@code cc} enables with it
+     * (GCC's {@code -Q --help=target}), else the CPU model from /proc/cpuinfo.
+     */
+    private static String nativeTarget(String cc) {
+        return NATIVE.computeIfAbsent(cc, c -> {
+            String v = "";
+            try {
+                Process p = new ProcessBuilder(c, "-march=native", "-Q", "--help=target")
+                        .redirectErrorStream(true).start();
+                v = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                if (p.waitFor() != 0) {
+                    v = "";
+                }
+            } catch (IOException ex) {
+                // not GCC, or not there: fall back to the CPU model
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (v.isEmpty()) {
+                try (Stream<String> lines = Files.lines(Path.of("/proc/cpuinfo"))) {
+                    v = lines.filter(l -> l.startsWith("model name") || l.startsWith("flags"))
+                            .distinct().reduce("", (a, b) -> a + b + "\n");
+                } catch (IOException | UncheckedIOException ex) {
+                    v = "";
+                }
+            }
+            return v;
+        });
+    }
+
+    /** The cached executable for {@code key}, or null. A hit counts as a use for eviction. */
+    public Path lookup(String key) {
+        Path exe = dir.resolve(key + suffix());
+        if (!Files.isExecutable(exe)) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(exe, FileTime.from(Instant.now()));
+        } catch (IOException ex) {
+            // evicted meanwhile, or a read-only cache: the entry is still good to run if it is there
+        }
+        return Files.isExecutable(exe) ? exe : null;
+    }
+
+    /** A new empty file in the cache directory to build an executable in; see {@link #store}. */
+    public Path newBuild() throws IOException {
+        return Files.createTempFile(dir, "build", ".part");
+    }
+
+    /** Moves a freshly built executable into the cache and returns its new location. */
+    public Path store(String key, Path built) throws IOException {
+        Path exe = dir.resolve(key + suffix());
+        Path tmp = Files.createTempFile(dir, key, ".part");
+        try {
+            Files.move(built, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, exe, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict();
+        return exe;
+    }
+
+    /** Applies the age and size limits; see the class comment. */
+    private void evict() {
+        record Entry(Path path, long size, Instant used) {
+        }
+        Instant now = Instant.now();
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                try {
+                    Instant used = Files.getLastModifiedTime(f).toInstant();
+                    if (f.getFileName().toString().endsWith(".part")) {
+                        if (used.isBefore(now.minus(ABANDONED))) {
+                            Files.deleteIfExists(f);
+                        }
+                    } else if (used.isBefore(now.minus(MAX_AGE))) {
+                        Files.deleteIfExists(f);
+                    } else if (Files.isRegularFile(f)) {
+                        entries.add(new Entry(f, Files.size(f), used));
+                    }
+                } catch (IOException ex) {
+                    // removed by a concurrent eviction
+                }
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            return; // eviction is best-effort; the entry just stored is fine
+        }
+
+        long total = entries.stream().mapToLong(Entry::size).sum();
+        entries.sort(Comparator.comparing(Entry::used));
+        for (Entry e : entries) {
+            if (total <= maxBytes || e.used().isAfter(now.minus(IN_USE))) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(e.path());
+                total -= e.size();
+            } catch (IOException ex) {
+                // still counted; the next store tries again
+            }
+        }
+    }
+
+    private static String suffix() {
+        return System.getProperty("os.name").toLowerCase().contains("win") ? ".exe" : "";
+    }
+}
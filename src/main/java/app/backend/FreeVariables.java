@@ -0,0 +1,255 @@
+package app.backend;
+
+import app.ast.*;
+
+import java.util.*;
+
+/**
+ * Free-variable analysis for nested routines.
+ *
+ * For every procedure/function this computes the parameters and locals of enclosing routines it
+ * uses, either directly or through the routines it calls (transitively, to a fixpoint). Module
+ * variables are globals and are never free. Backends without nested functions use the result to
+ * pass the captured variables explicitly.
+ */
+public final class FreeVariables {
+
+    /** A parameter or local of one routine; identity is the declaration. */
+    public static final class Binding {
+
+        private final Decl owner;
+        private final String name;
+        private final TypeRef type;
+        private final boolean param;
+
+        private Binding(Decl owner, String name, TypeRef type, boolean param) {
+            this.owner = owner;
+            this.name = name;
+            this.type = type;
+            this.param = param;
+        }
+
+        public Decl owner() {
+            return owner;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public TypeRef type() {
+            return type;
+        }
+
+        public boolean param() {
+            return param;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Map<Decl, Decl> parent = new IdentityHashMap<>();
+    private final Map<Decl, Map<String, Binding>> locals = new IdentityHashMap<>();
+    private final Map<Object, Map<String, Decl>> routines = new IdentityHashMap<>();
+    private final Map<Decl, Set<Binding>> free = new IdentityHashMap<>();
+    private final Map<Decl, Set<Decl>> calls = new IdentityHashMap<>();
+    private final Set<Binding> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Program program;
+
+    private FreeVariables(Program program) {
+        this.program = program;
+    }
+
+    public static FreeVariables of(Program p) {
+        FreeVariables fv = new FreeVariables(p);
+        fv.routines.put(p, nested(p.decls()));
+        for (Decl d : p.decls()) {
+            if (d instanceof ProcDecl || d instanceof FuncDecl) {
+                fv.declare(d, null);
+            }
+        }
+        fv.solve();
+        return fv;
+    }
+
+    /** Parameters (in order) followed by locals of {@code routine}. */
+    public Map<String, Binding> locals(Decl routine) {
+        return locals.get(routine);
+    }
+
+    /** The lexically enclosing routine, or null for a top-level one. */
+    public Decl parent(Decl routine) {
+        return parent.get(routine);
+    }
+
+    public List<Binding> free(Decl routine) {
+        return List.copyOf(free.get(routine));
+    }
+
+    /** True if some nested routine uses {@code b}. */
+    public boolean captured(Binding b) {
+        return captured.contains(b);
+    }
+
+    /** Resolves a variable seen from {@code routine} (null = module body); null means a global. */
+    public Binding resolve(Decl routine, String name) {
+        for (Decl r = routine; r != null; r = parent.get(r)) {
+            Binding b = locals.get(r).get(name);
+            if (b != null) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /** Resolves a call seen from {@code routine} (null = module body). */
+    public Decl resolveRoutine(Decl routine, String name) {
+        for (Decl r = routine; r != null; r = parent.get(r)) {
+            Decl d = routines.get(r).get(name);
+            if (d != null) {
+                return d;
+            }
+        }
+        Decl d = routines.get(program).get(name);
+        if (d == null) {
+            throw new IllegalStateException("unknown routine " + name);
+        }
+        return d;
+    }
+
+    private static Map<String, Decl> nested(List<Decl> decls) {
+        Map<String, Decl> m = new HashMap<>();
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl p) {
+                m.put(p.name(), p);
+            } else if (d instanceof FuncDecl f) {
+                m.put(f.name(), f);
+            }
+        }
+        return m;
+    }
+
+    private void declare(Decl d, Decl outer) {
+        List<Param> params;
+        List<Decl> decls;
+        List<Decl> inner;
+        List<Stmt> body;
+        if (d instanceof ProcDecl p) {
+            params = p.params();
+            decls = p.locals();
+            inner = p.nested();
+            body = p.body();
+        } else {
+            FuncDecl f = (FuncDecl) d;
+            params = f.params();
+            decls = f.locals();
+            inner = f.nested();
+            body = f.body();
+        }
+        parent.put(d, outer);
+        Map<String, Binding> own = new LinkedHashMap<>();
+        for (Param pa : params) {
+            own.put(pa.name(), new Binding(d, pa.name(), pa.type(), true));
+        }
+        for (Decl x : decls) {
+            if (x instanceof VarDecl v) {
+                own.put(v.name(), new Binding(d, v.name(), v.type(), false));
+            }
+        }
+        locals.put(d, own);
+        routines.put(d, nested(inner));
+        free.put(d, new LinkedHashSet<>());
+        calls.put(d, new LinkedHashSet<>());
+
+        for (Decl x : inner) {
+            if (x instanceof ProcDecl || x instanceof FuncDecl) {
+                declare(x, d);
+            }
+        }
+        body.forEach(s -> stmt(d, s));
+    }
+
+    private void use(Decl r, String name) {
+        Binding b = resolve(r, name);
+        if (b != null && b.owner != r) {
+            free.get(r).add(b);
+        }
+    }
+
+    private void stmt(Decl r, Stmt s) {
+        if (s instanceof Assign a) {
+            use(r, a.name());
+            expr(r, a.value());
+        } else if (s instanceof AssignIndex ai) {
+            expr(r, ai.target());
+            expr(r, ai.value());
+        } else if (s instanceof CallStmt c) {
+            if (!c.name().equals("write") && !c.name().equals("writeln") && !c.name().equals("read")) {
+                calls.get(r).add(resolveRoutine(r, c.name()));
+            }
+            c.args().forEach(x -> expr(r, x));
+        } else if (s instanceof If iff) {
+            expr(r, iff.cond());
+            iff.thenPart().forEach(x -> stmt(r, x));
+            for (ElseIf e : iff.elseIfs()) {
+                expr(r, e.cond());
+                e.body().forEach(x -> stmt(r, x));
+            }
+            iff.elsePart().forEach(x -> stmt(r, x));
+        } else if (s instanceof While w) {
+            expr(r, w.cond());
+            w.body().forEach(x -> stmt(r, x));
+        } else if (s instanceof Repeat rp) {
+            rp.body().forEach(x -> stmt(r, x));
+            expr(r, rp.cond());
+        } else if (s instanceof For f) {
+            use(r, f.var());
+            expr(r, f.from());
+            expr(r, f.to());
+            f.body().forEach(x -> stmt(r, x));
+        } else if (s instanceof Return ret) {
+            expr(r, ret.value());
+        }
+    }
+
+    private void expr(Decl r, Expr e) {
+        if (e instanceof Var v) {
+            use(r, v.name());
+        } else if (e instanceof Paren p) {
+            expr(r, p.inner());
+        } else if (e instanceof Unary u) {
+            expr(r, u.value());
+        } else if (e instanceof Binary b) {
+            expr(r, b.left());
+            expr(r, b.right());
+        } else if (e instanceof CallExpr c) {
+            calls.get(r).add(resolveRoutine(r, c.name()));
+            c.args().forEach(x -> expr(r, x));
+        } else if (e instanceof ArrayAccess a) {
+            expr(r, a.base());
+            a.indices().forEach(x -> expr(r, x));
+        }
+    }
+
+    private void solve() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Decl, Set<Decl>> e : calls.entrySet()) {
+                Decl r = e.getKey();
+                Set<Binding> mine = free.get(r);
+                for (Decl callee : e.getValue()) {
+                    for (Binding b : free.get(callee)) {
+                        if (b.owner != r && mine.add(b)) {
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        free.values().forEach(captured::addAll);
+    }
+}
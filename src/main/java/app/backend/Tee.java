@@ -0,0 +1,38 @@
+package app.backend;
+
+import java.io.IOException;
+import java.util.List;
+
+/** Appendable that copies everything written to it to each of its sinks, in order. */
+public final class Tee implements Appendable {
+
+    private final List<Appendable> sinks;
+
+    public Tee(List<Appendable> sinks) {
+        this.sinks = List.copyOf(sinks);
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        for (Appendable a : sinks) {
+            a.append(csq);
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        for (Appendable a : sinks) {
+            a.append(csq, start, end);
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        for (Appendable a : sinks) {
+            a.append(c);
+        }
+        return this;
+    }
+}
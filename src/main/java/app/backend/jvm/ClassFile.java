@@ -0,0 +1,200 @@
+package app.backend.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class-file writer: a constant pool, static fields and static methods.
+ *
+ * Classes are written as version 49 (Java 5) so the JVM verifies them by type inference and no
+ * StackMapTable frames have to be computed.
+ */
+final class ClassFile {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFile(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /* ---------- constant pool ---------- */
+
+    int utf8(String s) {
+        return entry("U" + s, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(s);
+        });
+    }
+
+    int classRef(String internalName) {
+        int n = utf8(internalName);
+        return entry("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(n);
+        });
+    }
+
+    int string(String s) {
+        int n = utf8(s);
+        return entry("S" + s, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(n);
+        });
+    }
+
+    int integer(int v) {
+        return entry("I" + v, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(v);
+        });
+    }
+
+    int dbl(double v) {
+        long bits = Double.doubleToRawLongBits(v);
+        return entry("D" + bits, 2, out -> {
+            out.writeByte(6);
+            out.writeLong(bits);
+        });
+    }
+
+    int field(String owner, String fname, String desc) {
+        return member(9, owner, fname, desc);
+    }
+
+    int method(String owner, String mname, String desc) {
+        return member(10, owner, mname, desc);
+    }
+
+    private int member(int tag, String owner, String mname, String desc) {
+        int c = classRef(owner);
+        int n = utf8(mname);
+        int t = utf8(desc);
+        int nt = entry("N" + mname + ' ' + desc, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(t);
+        });
+        return entry("M" + tag + owner + '.' + mname + desc, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int slots, Writer w) {
+        Integer idx = entries.get(key);
+        if (idx != null) {
+            return idx;
+        }
+        try {
+            w.write(pool);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        int i = poolCount;
+        poolCount += slots;
+        if (poolCount > 0xFFFF) {
+            throw new IllegalStateException("constant pool overflow");
+        }
+        entries.put(key, i);
+        return i;
+    }
+
+    /* ---------- members ---------- */
+
+    void addField(int access, String fname, String desc) {
+        fields.add(u2s(access, utf8(fname), utf8(desc), 0));
+    }
+
+    void addMethod(int access, String mname, String desc, Code code) {
+        byte[] body = code.bytes();
+        if (body.length > 0xFFFF) {
+            throw new IllegalStateException("routine too large for the JVM backend: " + mname);
+        }
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bo);
+        try {
+            out.write(u2s(access, utf8(mname), utf8(desc), 1));
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + body.length);
+            out.writeShort(code.maxStack());
+            out.writeShort(code.maxLocals());
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        methods.add(bo.toByteArray());
+    }
+
+    private static byte[] u2s(int... values) {
+        byte[] b = new byte[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            b[2 * i] = (byte) (values[i] >> 8);
+            b[2 * i + 1] = (byte) values[i];
+        }
+        return b;
+    }
+
+    byte[] toBytes() {
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bo);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(fields.size());
+            for (byte[] f : fields) {
+                out.write(f);
+            }
+            out.writeShort(methods.size());
+            for (byte[] m : methods) {
+                out.write(m);
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bo.toByteArray();
+    }
+}
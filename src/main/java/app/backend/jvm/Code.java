@@ -0,0 +1,207 @@
+package app.backend.jvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bytecode buffer for one method: forward/backward labels with 16-bit branch fixups and a
+ * running operand-stack depth from which max_stack is taken.
+ */
+final class Code {
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int IALOAD = 0x2e;
+    static final int DALOAD = 0x31;
+    static final int AALOAD = 0x32;
+    static final int BALOAD = 0x33;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int IASTORE = 0x4f;
+    static final int DASTORE = 0x52;
+    static final int AASTORE = 0x53;
+    static final int BASTORE = 0x54;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int IADD = 0x60;
+    static final int DADD = 0x63;
+    static final int ISUB = 0x64;
+    static final int DSUB = 0x67;
+    static final int IMUL = 0x68;
+    static final int DMUL = 0x6b;
+    static final int IDIV = 0x6c;
+    static final int DDIV = 0x6f;
+    static final int IREM = 0x70;
+    static final int INEG = 0x74;
+    static final int DNEG = 0x77;
+    static final int IINC = 0x84;
+    static final int WIDE = 0xc4;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int DRETURN = 0xaf;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEWARRAY = 0xbc;
+    static final int ANEWARRAY = 0xbd;
+
+    static final int T_BOOLEAN = 4;
+    static final int T_DOUBLE = 7;
+    static final int T_INT = 10;
+
+    static final class Label {
+
+        private int pos = -1;
+        private int depth = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    private byte[] buf = new byte[256];
+    private int len;
+    private int stack;
+    private int maxStack;
+    private int maxLocals;
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    int maxLocals() {
+        return maxLocals;
+    }
+
+    void locals(int n) {
+        maxLocals = Math.max(maxLocals, n);
+    }
+
+    /** Emits an opcode with no operands and adjusts the stack depth by {@code delta}. */
+    void op(int opcode, int delta) {
+        u1(opcode);
+        adjust(delta);
+    }
+
+    void op1(int opcode, int operand, int delta) {
+        u1(opcode);
+        u1(operand);
+        adjust(delta);
+    }
+
+    void op2(int opcode, int operand, int delta) {
+        u1(opcode);
+        u2(operand);
+        adjust(delta);
+    }
+
+    /** Local-variable load/store, using the wide form for slots past 255. */
+    void local(int opcode, int slot, int delta) {
+        if (slot > 0xFF) {
+            u1(WIDE);
+            op2(opcode, slot, delta);
+        } else {
+            op1(opcode, slot, delta);
+        }
+    }
+
+    void iinc(int slot, int by) {
+        if (slot > 0xFF || by != (byte) by) {
+            u1(WIDE);
+            u1(IINC);
+            u2(slot);
+            u2(by & 0xFFFF);
+        } else {
+            u1(IINC);
+            u1(slot);
+            u1(by);
+        }
+    }
+
+    /** Emits a conditional or unconditional branch; {@code delta} is what the branch pops. */
+    void jump(int opcode, Label target, int delta) {
+        adjust(delta);
+        if (target.depth < 0) {
+            target.depth = stack;
+        }
+        int at = len;
+        u1(opcode);
+        if (target.pos >= 0) {
+            u2(target.pos - at);
+        } else {
+            target.fixups.add(at);
+            u2(0);
+        }
+    }
+
+    void place(Label l) {
+        l.pos = len;
+        if (l.depth >= 0) {
+            stack = l.depth;
+        } else {
+            l.depth = stack;
+        }
+        for (int at : l.fixups) {
+            patch(at + 1, l.pos - at);
+        }
+    }
+
+    private void adjust(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void patch(int at, int offset) {
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new IllegalStateException("branch offset out of range");
+        }
+        buf[at] = (byte) (offset >> 8);
+        buf[at + 1] = (byte) offset;
+    }
+
+    private void u1(int b) {
+        if (len == buf.length) {
+            buf = Arrays.copyOf(buf, len * 2);
+        }
+        buf[len++] = (byte) b;
+    }
+
+    private void u2(int v) {
+        if (v < Short.MIN_VALUE || v > 0xFFFF) {
+            throw new IllegalStateException("operand out of range");
+        }
+        u1(v >> 8);
+        u1(v);
+    }
+
+    byte[] bytes() {
+        return Arrays.copyOf(buf, len);
+    }
+}
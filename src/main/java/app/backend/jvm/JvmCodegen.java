@@ -0,0 +1,891 @@
+package app.backend.jvm;
+
+import app.ast.*;
+import app.backend.ArrayLayout;
+import app.backend.FreeVariables;
+import app.backend.FreeVariables.Binding;
+import app.runtime.Console;
+
+import java.util.*;
+
+import static app.backend.jvm.Code.*;
+
+/**
+ * Compiles a type-checked {@link Program} into one JVM class.
+ *
+ * Globals become static fields, the module body becomes {@code run()} and every procedure or
+ * function a static method. Integers map to {@code int}, reals to {@code double}, booleans to
+ * {@code boolean} and arrays to flat row-major primitive arrays; an array parameter is passed as
+ * (storage, offset) so sub-arrays need no copying. Nested routines are lifted: the scalars of
+ * enclosing routines they use live in one-element cell arrays that are passed as extra arguments.
+ */
+public final class JvmCodegen {
+
+    static final String PACKAGE = "app/backend/jvm/";
+
+    private static final String CONSOLE = "app/runtime/Console";
+    private static final String SUPPORT = PACKAGE + "Support";
+    private static final String IO = "$io";
+
+    private enum Kind {
+        VALUE, CELL, ARRAY, VIEW
+    }
+
+    private record Slot(Kind kind, int index) {
+    }
+
+    private ClassFile cf;
+    private FreeVariables fv;
+    private final Map<String, TypeRef> globals = new HashMap<>();
+    private final Map<Decl, String> methodNames = new IdentityHashMap<>();
+
+    private Decl routine;
+    private Code code;
+    private Map<Binding, Slot> slots;
+    private int nextLocal;
+    private final Deque<Label[]> loops = new ArrayDeque<>();
+
+    public byte[] generate(Program p) {
+        cf = new ClassFile(PACKAGE + "Ob0$" + p.name());
+        fv = FreeVariables.of(p);
+
+        cf.addField(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, IO, "L" + CONSOLE + ";");
+        for (Decl d : p.decls()) {
+            if (d instanceof VarDecl v) {
+                globals.put(v.name(), v.type());
+                cf.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, global(v.name()), desc(v.type()));
+            }
+        }
+        name(p.decls(), "r");
+
+        begin(null);
+        for (Decl d : p.decls()) {
+            if (d instanceof VarDecl v && v.type() instanceof ArrayType) {
+                newArray(v.type());
+                code.op2(PUTSTATIC, cf.field(cf.name(), global(v.name()), desc(v.type())), -1);
+            }
+        }
+        block(p.body());
+        code.op(RETURN, 0);
+        code.locals(nextLocal);
+        cf.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "run", "()V", code);
+
+        routines(p.decls());
+        return cf.toBytes();
+    }
+
+    private void name(List<Decl> decls, String prefix) {
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                methodNames.put(d, prefix + "$" + q.name());
+                name(q.nested(), prefix + "$" + q.name());
+            } else if (d instanceof FuncDecl f) {
+                methodNames.put(d, prefix + "$" + f.name());
+                name(f.nested(), prefix + "$" + f.name());
+            }
+        }
+    }
+
+    private static String global(String name) {
+        return "g$" + name;
+    }
+
+    private void begin(Decl r) {
+        routine = r;
+        code = new Code();
+        slots = new IdentityHashMap<>();
+        nextLocal = 0;
+    }
+
+    /* ---------- routines ---------- */
+
+    private void routines(List<Decl> decls) {
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                routine(d, q.locals(), q.body(), null);
+                routines(q.nested());
+            } else if (d instanceof FuncDecl f) {
+                routine(d, f.locals(), f.body(), f.retType());
+                routines(f.nested());
+            }
+        }
+    }
+
+    private void routine(Decl d, List<Decl> decls, List<Stmt> body, Type ret) {
+        begin(d);
+        List<Binding> params = new ArrayList<>();
+        List<Binding> locals = new ArrayList<>();
+        for (Binding b : fv.locals(d).values()) {
+            (b.param() ? params : locals).add(b);
+        }
+
+        for (Binding b : params) {
+            if (b.type() instanceof ArrayType) {
+                slots.put(b, new Slot(Kind.VIEW, nextLocal));
+                nextLocal += 2;
+            } else {
+                slots.put(b, new Slot(Kind.VALUE, nextLocal));
+                nextLocal += size(b.type());
+            }
+        }
+        for (Binding b : fv.free(d)) {
+            if (b.type() instanceof ArrayType) {
+                slots.put(b, new Slot(Kind.VIEW, nextLocal));
+                nextLocal += 2;
+            } else {
+                slots.put(b, new Slot(Kind.CELL, nextLocal++));
+            }
+        }
+
+        for (Binding b : params) {
+            if (!(b.type() instanceof ArrayType) && fv.captured(b)) {
+                Type t = (Type) b.type();
+                int cell = nextLocal++;
+                pushInt(1);
+                newArray(t);
+                code.op(DUP, 1);
+                code.op(ICONST_0, 1);
+                code.local(loadOp(t), slots.get(b).index(), size(t));
+                code.op(arrayStore(t), -2 - size(t));
+                code.local(ASTORE, cell, -1);
+                slots.put(b, new Slot(Kind.CELL, cell));
+            }
+        }
+        for (Binding b : locals) {
+            if (b.type() instanceof ArrayType) {
+                int slot = nextLocal++;
+                newArray(b.type());
+                code.local(ASTORE, slot, -1);
+                slots.put(b, new Slot(Kind.ARRAY, slot));
+            } else if (fv.captured(b)) {
+                int slot = nextLocal++;
+                pushInt(1);
+                newArray((Type) b.type());
+                code.local(ASTORE, slot, -1);
+                slots.put(b, new Slot(Kind.CELL, slot));
+            } else {
+                Type t = (Type) b.type();
+                int slot = nextLocal;
+                nextLocal += size(t);
+                zero(t);
+                code.local(storeOp(t), slot, -size(t));
+                slots.put(b, new Slot(Kind.VALUE, slot));
+            }
+        }
+
+        block(body);
+        if (ret == null) {
+            code.op(RETURN, 0);
+        } else {
+            // falling off the end of a function: yield the zero value
+            zero(ret);
+            code.op(returnOp(ret), -size(ret));
+        }
+        code.locals(nextLocal);
+        cf.addMethod(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, methodNames.get(d), descriptor(d), code);
+    }
+
+    private String descriptor(Decl d) {
+        StringBuilder sb = new StringBuilder("(");
+        Type ret = null;
+        for (Binding b : fv.locals(d).values()) {
+            if (b.param()) {
+                sb.append(desc(b.type()));
+                if (b.type() instanceof ArrayType) {
+                    sb.append('I');
+                }
+            }
+        }
+        for (Binding b : fv.free(d)) {
+            if (b.type() instanceof ArrayType) {
+                sb.append(desc(b.type())).append('I');
+            } else {
+                sb.append('[').append(desc(b.type()));
+            }
+        }
+        if (d instanceof FuncDecl f) {
+            ret = f.retType();
+        }
+        return sb.append(')').append(ret == null ? "V" : desc(ret)).toString();
+    }
+
+    /* ---------- statements ---------- */
+
+    private void block(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            stmt(s);
+        }
+    }
+
+    private void stmt(Stmt s) {
+        if (s instanceof Assign a) {
+            TypeRef t = typeOfName(a.name());
+            if (t instanceof ArrayType) {
+                // whole-array assignment copies the elements
+                arrayValue(a.value());
+                arrayValue(new Var(a.name()));
+                pushInt(ArrayLayout.of(t).size());
+                code.op2(INVOKESTATIC, cf.method("java/lang/System", "arraycopy",
+                        "(Ljava/lang/Object;ILjava/lang/Object;II)V"), -5);
+                return;
+            }
+            storePrefix(a.name());
+            expr(a.value());
+            storeSuffix(a.name());
+        } else if (s instanceof AssignIndex ai) {
+            Type t = (Type) typeOf(ai.target());
+            element(ai.target());
+            expr(ai.value());
+            code.op(arrayStore(t), -2 - size(t));
+        } else if (s instanceof CallStmt c) {
+            switch (c.name()) {
+                case "write" ->
+                    c.args().forEach(this::write);
+                case "writeln" -> {
+                    c.args().forEach(this::write);
+                    io();
+                    code.op2(INVOKEVIRTUAL, cf.method(CONSOLE, "newline", "()V"), -1);
+                }
+                case "read" -> {
+                    if (!c.args().isEmpty()) {
+                        read(c.args().get(0));
+                    }
+                }
+                default -> {
+                    Decl q = fv.resolveRoutine(routine, c.name());
+                    call(q, c.args());
+                    if (q instanceof FuncDecl f) {
+                        code.op(size(f.retType()) == 2 ? POP2 : POP, -size(f.retType()));
+                    }
+                }
+            }
+        } else if (s instanceof If iff) {
+            Label end = new Label();
+            Label next = new Label();
+            jumpIf(iff.cond(), false, next);
+            block(iff.thenPart());
+            for (ElseIf e : iff.elseIfs()) {
+                code.jump(GOTO, end, 0);
+                code.place(next);
+                next = new Label();
+                jumpIf(e.cond(), false, next);
+                block(e.body());
+            }
+            if (!iff.elsePart().isEmpty()) {
+                code.jump(GOTO, end, 0);
+                code.place(next);
+                block(iff.elsePart());
+            } else {
+                code.place(next);
+            }
+            code.place(end);
+        } else if (s instanceof While w) {
+            Label top = new Label();
+            Label exit = new Label();
+            code.place(top);
+            jumpIf(w.cond(), false, exit);
+            loops.push(new Label[]{exit, top});
+            block(w.body());
+            loops.pop();
+            code.jump(GOTO, top, 0);
+            code.place(exit);
+        } else if (s instanceof Repeat r) {
+            Label top = new Label();
+            Label cond = new Label();
+            Label exit = new Label();
+            code.place(top);
+            loops.push(new Label[]{exit, cond});
+            block(r.body());
+            loops.pop();
+            code.place(cond);
+            jumpIf(r.cond(), false, top);
+            code.place(exit);
+        } else if (s instanceof For f) {
+            forLoop(f);
+        } else if (s instanceof Return r) {
+            Type t = (Type) typeOf(r.value());
+            expr(r.value());
+            code.op(returnOp(t), -size(t));
+        } else if (s instanceof ReturnVoid) {
+            code.op(RETURN, 0);
+        } else if (s instanceof Break) {
+            code.jump(GOTO, loops.peek()[0], 0);
+        } else if (s instanceof Continue) {
+            code.jump(GOTO, loops.peek()[1], 0);
+        } else {
+            throw new IllegalStateException("unknown statement " + s.getClass().getSimpleName());
+        }
+    }
+
+    private void forLoop(For f) {
+        storePrefix(f.var());
+        expr(f.from());
+        storeSuffix(f.var());
+
+        // the limit is evaluated once, after the start value; a literal is pushed instead
+        int limit = -1;
+        if (!(f.to() instanceof IntLit)) {
+            limit = nextLocal++;
+            expr(f.to());
+            code.local(ISTORE, limit, -1);
+        }
+
+        Label top = new Label();
+        Label step = new Label();
+        Label exit = new Label();
+        code.place(top);
+        loadVar(f.var());
+        if (limit >= 0) {
+            code.local(ILOAD, limit, 1);
+        } else {
+            expr(f.to());
+        }
+        code.jump(IF_ICMPGT, exit, -2);
+
+        loops.push(new Label[]{exit, step});
+        block(f.body());
+        loops.pop();
+
+        code.place(step);
+        Binding b = fv.resolve(routine, f.var());
+        Slot slot = b == null ? null : slots.get(b);
+        if (slot != null && slot.kind() == Kind.VALUE) {
+            code.iinc(slot.index(), 1);
+        } else {
+            storePrefix(f.var());
+            loadVar(f.var());
+            pushInt(1);
+            code.op(IADD, -1);
+            storeSuffix(f.var());
+        }
+        code.jump(GOTO, top, 0);
+        code.place(exit);
+    }
+
+    private void write(Expr x) {
+        if (!(typeOf(x) instanceof Type t)) {
+            return; // arrays are not printable; the C backend emits nothing either
+        }
+        io();
+        expr(x);
+        String m = switch (t) {
+            case INTEGER ->
+                "writeInt";
+            case REAL ->
+                "writeReal";
+            case BOOLEAN ->
+                "writeBool";
+            case STRING ->
+                "writeString";
+        };
+        code.op2(INVOKEVIRTUAL, cf.method(CONSOLE, m, "(" + desc(t) + ")V"), -1 - size(t));
+    }
+
+    private void read(Expr target) {
+        if (!(typeOf(target) instanceof Type t) || t == Type.STRING) {
+            return;
+        }
+        String m = switch (t) {
+            case REAL ->
+                "readReal";
+            case BOOLEAN ->
+                "readBool";
+            default ->
+                "readInt";
+        };
+        int helper = cf.method(SUPPORT, m, "(" + desc(t) + "L" + CONSOLE + ";)" + desc(t));
+        if (target instanceof Var v) {
+            storePrefix(v.name());
+            loadVar(v.name());
+            io();
+            code.op2(INVOKESTATIC, helper, -1);
+            storeSuffix(v.name());
+        } else if (target instanceof ArrayAccess aa) {
+            element(aa);
+            code.op(DUP2, 2);
+            code.op(arrayLoad(t), size(t) - 2);
+            io();
+            code.op2(INVOKESTATIC, helper, -1);
+            code.op(arrayStore(t), -2 - size(t));
+        }
+    }
+
+    private void io() {
+        code.op2(GETSTATIC, cf.field(cf.name(), IO, "L" + CONSOLE + ";"), 1);
+    }
+
+    /* ---------- conditions ---------- */
+
+    /** Jumps to {@code target} when {@code e} evaluates to {@code when}; falls through otherwise. */
+    private void jumpIf(Expr e, boolean when, Label target) {
+        if (e instanceof Paren p) {
+            jumpIf(p.inner(), when, target);
+            return;
+        }
+        if (e instanceof Unary u && u.op() == UnOp.NOT) {
+            jumpIf(u.value(), !when, target);
+            return;
+        }
+        if (e instanceof BoolLit b) {
+            if (b.value() == when) {
+                code.jump(GOTO, target, 0);
+            }
+            return;
+        }
+        if (e instanceof Binary b && (b.op() == BinOp.AND || b.op() == BinOp.OR)) {
+            if ((b.op() == BinOp.AND) != when) {
+                jumpIf(b.left(), when, target);
+                jumpIf(b.right(), when, target);
+            } else {
+                Label skip = new Label();
+                jumpIf(b.left(), !when, skip);
+                jumpIf(b.right(), when, target);
+                code.place(skip);
+            }
+            return;
+        }
+        if (e instanceof Binary b && relation(b.op()) >= 0) {
+            TypeRef lt = typeOf(b.left());
+            int rel = relation(when ? b.op() : negate(b.op()));
+            expr(b.left());
+            expr(b.right());
+            if (lt == Type.REAL) {
+                // NaN: dcmpg yields 1 and dcmpl -1, so every ordered comparison comes out false
+                boolean less = b.op() == BinOp.LT || b.op() == BinOp.LE;
+                code.op(less ? DCMPG : DCMPL, -3);
+                code.jump(IFEQ + rel, target, -1);
+            } else if (lt == Type.STRING) {
+                code.op2(INVOKESTATIC, cf.method(SUPPORT, "compare",
+                        "(Ljava/lang/String;Ljava/lang/String;)I"), -1);
+                code.jump(IFEQ + rel, target, -1);
+            } else {
+                code.jump(IF_ICMPEQ + rel, target, -2);
+            }
+            return;
+        }
+        expr(e);
+        code.jump(when ? IFNE : IFEQ, target, -1);
+    }
+
+    /** Offset from IFEQ/IF_ICMPEQ, or -1 for a non-comparison. */
+    private static int relation(BinOp op) {
+        return switch (op) {
+            case EQ -> 0;
+            case NE -> 1;
+            case LT -> 2;
+            case GE -> 3;
+            case GT -> 4;
+            case LE -> 5;
+            default -> -1;
+        };
+    }
+
+    private static BinOp negate(BinOp op) {
+        return switch (op) {
+            case EQ -> BinOp.NE;
+            case NE -> BinOp.EQ;
+            case LT -> BinOp.GE;
+            case GE -> BinOp.LT;
+            case GT -> BinOp.LE;
+            case LE -> BinOp.GT;
+            default -> throw new IllegalStateException("not a comparison: " + op);
+        };
+    }
+
+    /* ---------- expressions ---------- */
+
+    private void expr(Expr e) {
+        if (e instanceof IntLit i) {
+            pushInt(i.value());
+        } else if (e instanceof RealLit r) {
+            pushReal(r.value());
+        } else if (e instanceof BoolLit b) {
+            pushInt(b.value() ? 1 : 0);
+        } else if (e instanceof StringLit s) {
+            code.op2(LDC_W, cf.string(Console.cString(s.value())), 1);
+        } else if (e instanceof Var v) {
+            loadVar(v.name());
+        } else if (e instanceof Paren p) {
+            expr(p.inner());
+        } else if (e instanceof Unary u) {
+            switch (u.op()) {
+                case POS ->
+                    expr(u.value());
+                case NEG -> {
+                    expr(u.value());
+                    code.op(typeOf(u.value()) == Type.REAL ? DNEG : INEG, 0);
+                }
+                case NOT ->
+                    boolValue(e);
+            }
+        } else if (e instanceof Binary b) {
+            if (b.op() == BinOp.AND || b.op() == BinOp.OR || relation(b.op()) >= 0) {
+                boolValue(e);
+                return;
+            }
+            boolean real = typeOf(b.left()) == Type.REAL;
+            expr(b.left());
+            expr(b.right());
+            int op = switch (b.op()) {
+                case ADD -> real ? DADD : IADD;
+                case SUB -> real ? DSUB : ISUB;
+                case MUL -> real ? DMUL : IMUL;
+                case DIV -> real ? DDIV : IDIV;
+                case MOD -> IREM;
+                default -> throw new IllegalStateException("unexpected operator " + b.op());
+            };
+            code.op(op, real ? -2 : -1);
+        } else if (e instanceof CallExpr c) {
+            call(fv.resolveRoutine(routine, c.name()), c.args());
+        } else if (e instanceof ArrayAccess aa) {
+            Type t = (Type) typeOf(aa);
+            element(aa);
+            code.op(arrayLoad(t), size(t) - 2);
+        } else {
+            throw new IllegalStateException("unknown expression " + e.getClass().getSimpleName());
+        }
+    }
+
+    private void boolValue(Expr e) {
+        Label yes = new Label();
+        Label end = new Label();
+        jumpIf(e, true, yes);
+        pushInt(0);
+        code.jump(GOTO, end, 0);
+        code.place(yes);
+        pushInt(1);
+        code.place(end);
+    }
+
+    private void call(Decl q, List<Expr> args) {
+        List<Param> params = q instanceof ProcDecl p ? p.params() : ((FuncDecl) q).params();
+        int slotsIn = 0;
+        for (int i = 0; i < args.size(); i++) {
+            if (params.get(i).type() instanceof ArrayType) {
+                arrayValue(args.get(i));
+                slotsIn += 2;
+            } else {
+                Type t = (Type) typeOf(args.get(i));
+                expr(args.get(i));
+                slotsIn += size(t);
+            }
+        }
+        for (Binding b : fv.free(q)) {
+            if (b.type() instanceof ArrayType) {
+                arrayRef(b, null);
+                slotsIn += 2;
+            } else {
+                // every scalar a callee needs is a cell here: our own captured local or one we received
+                code.local(ALOAD, slots.get(b).index(), 1);
+                slotsIn++;
+            }
+        }
+        int ret = q instanceof FuncDecl f ? size(f.retType()) : 0;
+        code.op2(INVOKESTATIC, cf.method(cf.name(), methodNames.get(q), descriptor(q)), ret - slotsIn);
+    }
+
+    /** Pushes (storage, offset) of a whole array or a sub-array. */
+    private void arrayValue(Expr e) {
+        if (e instanceof Paren p) {
+            arrayValue(p.inner());
+        } else if (e instanceof Var v) {
+            arrayRef(fv.resolve(routine, v.name()), v.name());
+        } else if (e instanceof ArrayAccess aa) {
+            element(aa);
+        } else {
+            throw new IllegalStateException("not an array: " + e.getClass().getSimpleName());
+        }
+    }
+
+    private void arrayRef(Binding b, String globalName) {
+        if (b == null) {
+            TypeRef t = globals.get(globalName);
+            code.op2(GETSTATIC, cf.field(cf.name(), global(globalName), desc(t)), 1);
+            pushInt(0);
+            return;
+        }
+        Slot s = slots.get(b);
+        code.local(ALOAD, s.index(), 1);
+        if (s.kind() == Kind.VIEW) {
+            code.local(ILOAD, s.index() + 1, 1);
+        } else {
+            pushInt(0);
+        }
+    }
+
+    /** Pushes the storage array and the flat index of an element or sub-array access. */
+    private void element(ArrayAccess aa) {
+        List<Expr> indices = new ArrayList<>();
+        Expr cur = aa;
+        while (cur instanceof ArrayAccess a) {
+            indices.addAll(0, a.indices());
+            cur = a.base();
+        }
+        String name = ((Var) cur).name();
+        Binding b = fv.resolve(routine, name);
+        Slot slot = b == null ? null : slots.get(b);
+        if (b == null) {
+            code.op2(GETSTATIC, cf.field(cf.name(), global(name), desc(globals.get(name))), 1);
+        } else {
+            code.local(ALOAD, slot.index(), 1);
+        }
+
+        ArrayLayout layout = ArrayLayout.of(b == null ? globals.get(name) : b.type());
+
+        boolean any = false;
+        int constant = 0;
+        for (int k = 0; k < indices.size(); k++) {
+            Expr ix = indices.get(k);
+            if (ix instanceof IntLit lit) {
+                constant += lit.value() * layout.stride(k);
+                continue;
+            }
+            expr(ix);
+            if (layout.stride(k) != 1) {
+                pushInt(layout.stride(k));
+                code.op(IMUL, -1);
+            }
+            if (any) {
+                code.op(IADD, -1);
+            }
+            any = true;
+        }
+        if (slot != null && slot.kind() == Kind.VIEW) {
+            code.local(ILOAD, slot.index() + 1, 1);
+            if (any) {
+                code.op(IADD, -1);
+            }
+            any = true;
+        }
+        if (constant != 0 || !any) {
+            pushInt(constant);
+            if (any) {
+                code.op(IADD, -1);
+            }
+        }
+    }
+
+    /* ---------- variables ---------- */
+
+    private TypeRef typeOfName(String name) {
+        Binding b = fv.resolve(routine, name);
+        return b != null ? b.type() : globals.get(name);
+    }
+
+    private void loadVar(String name) {
+        Binding b = fv.resolve(routine, name);
+        Type t = (Type) typeOfName(name);
+        if (b == null) {
+            code.op2(GETSTATIC, cf.field(cf.name(), global(name), desc(t)), size(t));
+            return;
+        }
+        Slot s = slots.get(b);
+        if (s.kind() == Kind.CELL) {
+            code.local(ALOAD, s.index(), 1);
+            code.op(ICONST_0, 1);
+            code.op(arrayLoad(t), size(t) - 2);
+        } else {
+            code.local(loadOp(t), s.index(), size(t));
+        }
+    }
+
+    /** First half of a scalar store: pushes the cell and index when the variable lives in a cell. */
+    private void storePrefix(String name) {
+        Binding b = fv.resolve(routine, name);
+        if (b != null && slots.get(b).kind() == Kind.CELL) {
+            code.local(ALOAD, slots.get(b).index(), 1);
+            code.op(ICONST_0, 1);
+        }
+    }
+
+    private void storeSuffix(String name) {
+        Binding b = fv.resolve(routine, name);
+        Type t = (Type) typeOfName(name);
+        if (b == null) {
+            code.op2(PUTSTATIC, cf.field(cf.name(), global(name), desc(t)), -size(t));
+            return;
+        }
+        Slot s = slots.get(b);
+        if (s.kind() == Kind.CELL) {
+            code.op(arrayStore(t), -2 - size(t));
+        } else {
+            code.local(storeOp(t), s.index(), -size(t));
+        }
+    }
+
+    /* ---------- constants and allocation ---------- */
+
+    private void pushInt(int v) {
+        if (v >= -1 && v <= 5) {
+            code.op(ICONST_0 + v, 1);
+        } else if (v == (byte) v) {
+            code.op1(BIPUSH, v & 0xFF, 1);
+        } else if (v == (short) v) {
+            code.op2(SIPUSH, v & 0xFFFF, 1);
+        } else {
+            code.op2(LDC_W, cf.integer(v), 1);
+        }
+    }
+
+    private void pushReal(double v) {
+        if (Double.doubleToRawLongBits(v) == 0L) {
+            code.op(DCONST_0, 2);
+        } else if (v == 1.0) {
+            code.op(DCONST_1, 2);
+        } else {
+            code.op2(LDC2_W, cf.dbl(v), 2);
+        }
+    }
+
+    private void zero(Type t) {
+        switch (t) {
+            case REAL ->
+                code.op(DCONST_0, 2);
+            case STRING ->
+                code.op(ACONST_NULL, 1);
+            default ->
+                code.op(ICONST_0, 1);
+        }
+    }
+
+    /** Allocates the flat storage of an array type, or (for a scalar) an array of the length on the stack. */
+    private void newArray(TypeRef t) {
+        if (t instanceof ArrayType) {
+            pushInt(ArrayLayout.of(t).size());
+        }
+        switch (elementOf(t)) {
+            case INTEGER ->
+                code.op1(NEWARRAY, T_INT, 0);
+            case REAL ->
+                code.op1(NEWARRAY, T_DOUBLE, 0);
+            case BOOLEAN ->
+                code.op1(NEWARRAY, T_BOOLEAN, 0);
+            case STRING ->
+                code.op2(ANEWARRAY, cf.classRef("java/lang/String"), 0);
+        }
+    }
+
+    /* ---------- types ---------- */
+
+    private TypeRef typeOf(Expr e) {
+        if (e instanceof IntLit) {
+            return Type.INTEGER;
+        }
+        if (e instanceof RealLit) {
+            return Type.REAL;
+        }
+        if (e instanceof BoolLit) {
+            return Type.BOOLEAN;
+        }
+        if (e instanceof StringLit) {
+            return Type.STRING;
+        }
+        if (e instanceof Var v) {
+            return typeOfName(v.name());
+        }
+        if (e instanceof Paren p) {
+            return typeOf(p.inner());
+        }
+        if (e instanceof Unary u) {
+            return u.op() == UnOp.NOT ? Type.BOOLEAN : typeOf(u.value());
+        }
+        if (e instanceof Binary b) {
+            return switch (b.op()) {
+                case EQ, NE, LT, LE, GT, GE, AND, OR ->
+                    Type.BOOLEAN;
+                default ->
+                    typeOf(b.left());
+            };
+        }
+        if (e instanceof CallExpr c) {
+            return ((FuncDecl) fv.resolveRoutine(routine, c.name())).retType();
+        }
+        if (e instanceof ArrayAccess aa) {
+            int used = 0;
+            Expr cur = aa;
+            while (cur instanceof ArrayAccess a) {
+                used += a.indices().size();
+                cur = a.base();
+            }
+            TypeRef t = typeOf(cur);
+            List<Integer> dims = dims(t);
+            Type elem = elementOf(t);
+            return used >= dims.size() ? elem : new ArrayType(elem, dims.subList(used, dims.size()));
+        }
+        throw new IllegalStateException("unknown expression " + e.getClass().getSimpleName());
+    }
+
+    private static List<Integer> dims(TypeRef t) {
+        List<Integer> all = new ArrayList<>();
+        while (t instanceof ArrayType a) {
+            all.addAll(a.dimensions());
+            t = a.elementType();
+        }
+        return all;
+    }
+
+    private static Type elementOf(TypeRef t) {
+        while (t instanceof ArrayType a) {
+            t = a.elementType();
+        }
+        return (Type) t;
+    }
+
+    private static String desc(TypeRef t) {
+        if (t instanceof ArrayType) {
+            return "[" + desc(elementOf(t));
+        }
+        return switch ((Type) t) {
+            case INTEGER ->
+                "I";
+            case REAL ->
+                "D";
+            case BOOLEAN ->
+                "Z";
+            case STRING ->
+                "Ljava/lang/String;";
+        };
+    }
+
+    private static int size(TypeRef t) {
+        return t == Type.REAL ? 2 : 1;
+    }
+
+    private static int loadOp(Type t) {
+        return t == Type.REAL ? DLOAD : t == Type.STRING ? ALOAD : ILOAD;
+    }
+
+    private static int storeOp(Type t) {
+        return t == Type.REAL ? DSTORE : t == Type.STRING ? ASTORE : ISTORE;
+    }
+
+    private static int returnOp(Type t) {
+        return t == Type.REAL ? DRETURN : t == Type.STRING ? ARETURN : IRETURN;
+    }
+
+    private static int arrayLoad(Type t) {
+        return switch (t) {
+            case INTEGER ->
+                IALOAD;
+            case REAL ->
+                DALOAD;
+            case BOOLEAN ->
+                BALOAD;
+            case STRING ->
+                AALOAD;
+        };
+    }
+
+    private static int arrayStore(Type t) {
+        return switch (t) {
+            case INTEGER ->
+                IASTORE;
+            case REAL ->
+                DASTORE;
+            case BOOLEAN ->
+                BASTORE;
+            case STRING ->
+                AASTORE;
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package app.backend.jvm;
+
+import app.runtime.Console;
+import app.runtime.RuntimeFault;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Loads a class produced by {@link JvmCodegen} as a hidden class and runs its module body.
+ *
+ * Hidden classes are not registered with any class loader, so a long-running process (the compile
+ * server) can run many modules and the classes are unloaded once unreachable.
+ */
+public final class JvmRunner {
+
+    /** Oberon-0 recursion should not be limited by the default thread stack. */
+    private static final long STACK_SIZE = 512L << 20;
+
+    private JvmRunner() {
+    }
+
+    public static void run(byte[] classBytes, Console io) {
+        MethodHandle main;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            Class<?> c = lookup.lookupClass();
+            lookup.findStaticSetter(c, "$io", Console.class).invoke(io);
+            main = lookup.findStatic(c, "run", MethodType.methodType(void.class));
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("cannot load generated class", ex);
+        }
+
+        Throwable[] failure = new Throwable[1];
+        Thread t = new Thread(null, () -> {
+            try {
+                main.invokeExact();
+            } catch (Throwable ex) {
+                failure[0] = ex;
+            }
+        }, "ob0-main", STACK_SIZE);
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeFault("interrupted");
+        } finally {
+            io.flush();
+        }
+
+        Throwable ex = failure[0];
+        if (ex == null) {
+            return;
+        }
+        if (ex instanceof ArithmeticException) {
+            throw new RuntimeFault("integer division by zero");
+        }
+        if (ex instanceof ArrayIndexOutOfBoundsException) {
+            throw new RuntimeFault("array index out of range: " + ex.getMessage());
+        }
+        if (ex instanceof StackOverflowError) {
+            throw new RuntimeFault("stack overflow");
+        }
+        if (ex instanceof RuntimeException re) {
+            throw re;
+        }
+        if (ex instanceof Error err) {
+            throw err;
+        }
+        throw new IllegalStateException(ex);
+    }
+}
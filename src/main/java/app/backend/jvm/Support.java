@@ -0,0 +1,35 @@
+package app.backend.jvm;
+
+import app.runtime.Console;
+
+/** Static helpers called from generated classes. */
+public final class Support {
+
+    private Support() {
+    }
+
+    /** String ordering with C-like handling of the uninitialised (null) string. */
+    public static int compare(String x, String y) {
+        if (x == null || y == null) {
+            return Boolean.compare(x != null, y != null);
+        }
+        return x.compareTo(y);
+    }
+
+    // read(x) leaves x unchanged when nothing could be read, like scanf
+
+    public static int readInt(int old, Console io) {
+        Integer v = io.readInt();
+        return v != null ? v : old;
+    }
+
+    public static double readReal(double old, Console io) {
+        Double v = io.readReal();
+        return v != null ? v : old;
+    }
+
+    public static boolean readBool(boolean old, Console io) {
+        Boolean v = io.readBool();
+        return v != null ? v : old;
+    }
+}
@@ -13,11 +13,16 @@ import org.antlr.v4.runtime.tree.TerminalNode;
 public class AstBuilder extends Oberon0BaseVisitor<Object> {
 
     private final SourceMap smap;
+    private final Names names = new Names();
 
     public AstBuilder(SourceMap smap) {
         this.smap = smap;
     }
 
+    private String name(TerminalNode id) {
+        return names.intern(id.getText());
+    }
+
     private <T> T mark(TerminalNode tn, T node) {
         smap.put(node, tn.getSymbol());
         return node;
@@ -86,7 +91,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
             var ids = vlist.idlist(i).ID();
             var tref = mapTypeRef(vlist.vartype(i));
             for (var idTok : ids) {
-                list.add(mark(idTok, new VarDecl(idTok.getText(), tref)));
+                list.add(mark(idTok, new VarDecl(name(idTok), tref)));
             }
         }
         return list;
@@ -140,7 +145,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
         List<Decl> nested = body.procdecl_list() != null ? (List<Decl>) visit(body.procdecl_list()) : List.of();
         List<Stmt> stmts = body.statements() != null ? (List<Stmt>) visit(body.statements()) : List.of();
 
-        String name = header.ID().getText();
+        String name = name(header.ID());
         if (header.PROCEDURE() != null) {
             return mark(ctx, new ProcDecl(name, params, locals, nested, stmts));
         } else {
@@ -171,7 +176,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
         List<Param> ps = new ArrayList<>();
         TypeRef t = mapTypeRef(ctx.vartype());   
         for (var idTok : ctx.idlist().ID()) {
-            ps.add(mark(idTok, new Param(idTok.getText(), t)));
+            ps.add(mark(idTok, new Param(name(idTok), t)));
         }
         return ps;
     }
@@ -220,7 +225,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
 
     @Override
     public Object visitProccall(Oberon0Parser.ProccallContext ctx) {
-        String name = ctx.ID().getText();
+        String name = name(ctx.ID());
         List<Expr> args = List.of();
         if (ctx.actualpar() != null && ctx.actualpar().expression_list() != null) {
             @SuppressWarnings("unchecked")
@@ -242,23 +247,31 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
     @Override
     public Object visitConditional(Oberon0Parser.ConditionalContext ctx) {
         Expr cond = (Expr) visit(ctx.expression(0));
-        List<Stmt> thenPart = ctx.statements(0) != null ? (List<Stmt>) visit(ctx.statements(0)) : List.of();
+        List<Stmt> thenPart = blockAfter(ctx, ctx.THEN(0));
 
         List<ElseIf> elsifs = new ArrayList<>();
         int k = ctx.ELSEIF().size();
         for (int i = 0; i < k; i++) {
             Expr c = (Expr) visit(ctx.expression(i + 1));
-            List<Stmt> b = ctx.statements(i + 1) != null ? (List<Stmt>) visit(ctx.statements(i + 1)) : List.of();
-            elsifs.add(new ElseIf(c, b));
-        }
-        List<Stmt> elsePart = List.of();
-        if (ctx.ELSE() != null) {
-            var lastStmts = ctx.statements(k + 1);
-            elsePart = lastStmts != null ? (List<Stmt>) visit(lastStmts) : List.of();
+            elsifs.add(new ElseIf(c, blockAfter(ctx, ctx.THEN(i + 1))));
         }
+        List<Stmt> elsePart = ctx.ELSE() != null ? blockAfter(ctx, ctx.ELSE()) : List.of();
         return mark(ctx, new If(cond, thenPart, elsifs, elsePart));
     }
 
+    /**
+     * The statements right after {@code kw}. Each branch's statements are optional, so
+     * {@code ctx.statements(i)} does not tell which branch they belong to.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Stmt> blockAfter(ParserRuleContext ctx, TerminalNode kw) {
+        int i = ctx.children.indexOf(kw) + 1;
+        if (i < ctx.getChildCount() && ctx.getChild(i) instanceof Oberon0Parser.StatementsContext st) {
+            return (List<Stmt>) visit(st);
+        }
+        return List.of();
+    }
+
     @Override
     public Object visitRepetition(Oberon0Parser.RepetitionContext ctx) {
         if (ctx.WHILE() != null) {
@@ -272,7 +285,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
         } else {
             @SuppressWarnings("unchecked")
             List<Stmt> body = ctx.statements() != null ? (List<Stmt>) visit(ctx.statements()) : List.of();
-            return mark(ctx, new For(ctx.ID().getText(),
+            return mark(ctx, new For(name(ctx.ID()),
                     (Expr) visit(ctx.expression(0)),
                     (Expr) visit(ctx.expression(1)),
                     body));
@@ -431,7 +444,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
 
     @Override
     public Object visitVariable(Oberon0Parser.VariableContext v) {
-        Expr cur = new Var(v.ID().getText());
+        Expr cur = new Var(name(v.ID()));
 
         for (Oberon0Parser.Expression_listContext el : v.expression_list()) {
             @SuppressWarnings("unchecked")
@@ -443,7 +456,7 @@ public class AstBuilder extends Oberon0BaseVisitor<Object> {
     }
 
     private Expr buildVariable(Oberon0Parser.VariableContext v) {
-        Expr cur = new Var(v.ID().getText());
+        Expr cur = new Var(name(v.ID()));
         for (Oberon0Parser.Expression_listContext el : v.expression_list()) {
             @SuppressWarnings("unchecked")
             List<Expr> idx = (List<Expr>) visit(el);
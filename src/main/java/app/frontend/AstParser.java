@@ -0,0 +1,527 @@
+package app.frontend;
+
+import app.ast.*;
+import app.sem.SourceMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import static app.parser.Oberon0Lexer.*;
+
+/**
+ * Recursive-descent parser for Oberon0.g4 that builds the AST while it reads tokens, so
+ * neither a parse tree nor the token list is ever held in memory. It produces the same nodes
+ * and source positions as parsing with ANTLR and running {@link AstBuilder}.
+ *
+ * It only handles well-formed modules. On anything else (syntax or lexer error, END name
+ * mismatch, an out-of-range literal) it gives up and the caller parses again with ANTLR,
+ * which reports the problem with its usual message.
+ */
+public final class AstParser {
+
+    private static final class GiveUp extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        GiveUp() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final GiveUp GIVE_UP = new GiveUp();
+
+    private final TokenSource src;
+    private final SourceMap smap;
+    private final Names names = new Names();
+    private Token cur;
+    private Token next;
+
+    private AstParser(TokenSource src, SourceMap smap) {
+        this.src = src;
+        this.smap = smap;
+        this.cur = src.nextToken();
+        this.next = src.nextToken();
+    }
+
+    /** The module read from {@code src}, or null if it must be parsed with ANTLR instead. */
+    public static Program parse(TokenSource src, SourceMap smap) {
+        try {
+            return new AstParser(src, smap).module();
+        } catch (GiveUp | ParseCancellationException | NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private <T> T mark(Token tok, T node) {
+        smap.put(node, tok);
+        return node;
+    }
+
+    private String name(Token id) {
+        return names.intern(id.getText());
+    }
+
+    /* ---------- tokens ---------- */
+
+    private int la() {
+        return cur.getType();
+    }
+
+    private Token consume() {
+        Token t = cur;
+        cur = next;
+        next = src.nextToken();
+        return t;
+    }
+
+    private Token expect(int type) {
+        if (cur.getType() != type) {
+            throw GIVE_UP;
+        }
+        return consume();
+    }
+
+    private boolean accept(int type) {
+        if (cur.getType() != type) {
+            return false;
+        }
+        consume();
+        return true;
+    }
+
+    private static boolean startsStatement(int t) {
+        return switch (t) {
+            case ID, IF, WHILE, REPEAT, FOR, WRITE, WRITELN, READ, CONTINUE, BREAK, RETURN ->
+                true;
+            default ->
+                false;
+        };
+    }
+
+    private static boolean startsExpression(int t) {
+        return switch (t) {
+            case ID, LPAREN, PLUS, MINUS, NOT, BOOLEAN_LITERAL, INTEGER_LITERAL, REAL_LITERAL, STRING_LITERAL ->
+                true;
+            default ->
+                false;
+        };
+    }
+
+    /* ---------- declarations ---------- */
+
+    private Program module() {
+        Token start = expect(MODULE);
+        String name = name(expect(ID));
+        expect(SEMI);
+        List<Decl> decls = new ArrayList<>();
+        while (la() == VAR) {
+            decls.addAll(vardecl());
+        }
+        if (la() == PROCEDURE || la() == FUNCTION) {
+            decls.addAll(procdeclList());
+        }
+        expect(BEGIN);
+        List<Stmt> body = new ArrayList<>();
+        if (startsStatement(la())) {
+            body.addAll(statements());
+        }
+        expect(END);
+        if (!expect(ID).getText().equals(name)) {
+            throw GIVE_UP;
+        }
+        expect(DOT);
+        expect(EOF);
+        return mark(start, new Program(name, decls, body));
+    }
+
+    private List<Decl> vardecl() {
+        expect(VAR);
+        List<Decl> list = new ArrayList<>();
+        do {
+            List<Token> ids = idlist();
+            expect(COLON);
+            TypeRef t = vartype();
+            expect(SEMI);
+            for (Token id : ids) {
+                list.add(mark(id, new VarDecl(name(id), t)));
+            }
+        } while (la() == ID);
+        return list;
+    }
+
+    private List<Token> idlist() {
+        List<Token> ids = new ArrayList<>();
+        ids.add(expect(ID));
+        while (accept(COMMA)) {
+            ids.add(expect(ID));
+        }
+        return ids;
+    }
+
+    private TypeRef vartype() {
+        switch (la()) {
+            case BOOLEAN -> {
+                consume();
+                return Type.BOOLEAN;
+            }
+            case INTEGER -> {
+                consume();
+                return Type.INTEGER;
+            }
+            case REAL -> {
+                consume();
+                return Type.REAL;
+            }
+            case STRING -> {
+                consume();
+                return Type.STRING;
+            }
+            default -> {
+                expect(ARRAY);
+                expect(LBRACK);
+                List<Integer> dims = new ArrayList<>();
+                do {
+                    dims.add(Integer.parseInt(expect(INTEGER_LITERAL).getText()));
+                } while (accept(COMMA));
+                expect(RBRACK);
+                expect(OF);
+                return new ArrayType(vartype(), dims);
+            }
+        }
+    }
+
+    private List<Decl> procdeclList() {
+        List<Decl> list = new ArrayList<>();
+        do {
+            list.add(procdecl());
+        } while (la() == PROCEDURE || la() == FUNCTION);
+        return list;
+    }
+
+    private Decl procdecl() {
+        Token start = consume();
+        String name = name(expect(ID));
+        List<Param> params = formalpars();
+        Type ret = null;
+        if (start.getType() == FUNCTION) {
+            expect(COLON);
+            // an array result type is rejected by AstBuilder; leave that to it
+            if (!(vartype() instanceof Type t)) {
+                throw GIVE_UP;
+            }
+            ret = t;
+        }
+        expect(SEMI);
+
+        List<Decl> locals = la() == VAR ? vardecl() : List.of();
+        List<Decl> nested = la() == PROCEDURE || la() == FUNCTION ? procdeclList() : List.of();
+        expect(BEGIN);
+        List<Stmt> body = statementsOpt();
+        expect(END);
+        expect(ID);
+        expect(SEMI);
+
+        if (ret == null) {
+            return mark(start, new ProcDecl(name, params, locals, nested, body));
+        }
+        return mark(start, new FuncDecl(name, params, ret, locals, nested, body));
+    }
+
+    private List<Param> formalpars() {
+        expect(LPAREN);
+        if (accept(RPAREN)) {
+            return List.of();
+        }
+        List<Param> ps = new ArrayList<>();
+        do {
+            List<Token> ids = idlist();
+            expect(COLON);
+            TypeRef t = vartype();
+            for (Token id : ids) {
+                ps.add(mark(id, new Param(name(id), t)));
+            }
+        } while (accept(SEMI));
+        expect(RPAREN);
+        return ps;
+    }
+
+    /* ---------- statements ---------- */
+
+    private List<Stmt> statementsOpt() {
+        return startsStatement(la()) ? statements() : List.of();
+    }
+
+    private List<Stmt> statements() {
+        List<Stmt> list = new ArrayList<>();
+        list.add(statement());
+        while (accept(SEMI)) {
+            if (!startsStatement(la())) {
+                break;
+            }
+            list.add(statement());
+        }
+        return list;
+    }
+
+    private Stmt statement() {
+        Token start = cur;
+        switch (la()) {
+            case ID -> {
+                if (next.getType() == LPAREN) {
+                    consume();
+                    return mark(start, new CallStmt(name(start), actualpar()));
+                }
+                Expr lhs = variable();
+                expect(ASSIGN);
+                Expr rhs = expression();
+                if (lhs instanceof ArrayAccess acc) {
+                    return mark(start, new AssignIndex(acc, rhs));
+                }
+                return mark(start, new Assign(((Var) lhs).name(), rhs));
+            }
+            case IF -> {
+                return conditional();
+            }
+            case WHILE -> {
+                consume();
+                Expr cond = expression();
+                expect(DO);
+                List<Stmt> body = statementsOpt();
+                expect(END);
+                return mark(start, new While(cond, body));
+            }
+            case REPEAT -> {
+                consume();
+                List<Stmt> body = statementsOpt();
+                expect(UNTIL);
+                return mark(start, new Repeat(body, expression()));
+            }
+            case FOR -> {
+                consume();
+                String var = name(expect(ID));
+                expect(ASSIGN);
+                Expr from = expression();
+                expect(TO);
+                Expr to = expression();
+                expect(DO);
+                List<Stmt> body = statementsOpt();
+                expect(END);
+                return mark(start, new For(var, from, to, body));
+            }
+            case WRITE, READ -> {
+                consume();
+                expect(LPAREN);
+                return mark(start, new CallStmt(name(start), ioArgs()));
+            }
+            case WRITELN -> {
+                consume();
+                List<Expr> args = accept(LPAREN) ? ioArgs() : new ArrayList<>();
+                return mark(start, new CallStmt("writeln", args));
+            }
+            case CONTINUE -> {
+                consume();
+                return mark(start, new Continue());
+            }
+            case BREAK -> {
+                consume();
+                return mark(start, new Break());
+            }
+            case RETURN -> {
+                consume();
+                if (startsExpression(la())) {
+                    return mark(start, new Return(expression()));
+                }
+                return mark(start, new ReturnVoid());
+            }
+            default ->
+                throw GIVE_UP;
+        }
+    }
+
+    /** The rest of an I/O statement after its '('. */
+    private List<Expr> ioArgs() {
+        List<Expr> args = la() == RPAREN ? new ArrayList<>() : expressionList();
+        expect(RPAREN);
+        return args;
+    }
+
+    private Stmt conditional() {
+        Token start = expect(IF);
+        Expr cond = expression();
+        expect(THEN);
+        List<Stmt> thenPart = statementsOpt();
+        List<ElseIf> elseIfs = new ArrayList<>();
+        while (accept(ELSEIF)) {
+            Expr c = expression();
+            expect(THEN);
+            elseIfs.add(new ElseIf(c, statementsOpt()));
+        }
+        List<Stmt> elsePart = accept(ELSE) ? statementsOpt() : List.of();
+        expect(END);
+        return mark(start, new If(cond, thenPart, elseIfs, elsePart));
+    }
+
+    /* ---------- expressions ---------- */
+
+    private List<Expr> expressionList() {
+        List<Expr> list = new ArrayList<>();
+        list.add(expression());
+        while (accept(COMMA)) {
+            list.add(expression());
+        }
+        return list;
+    }
+
+    /** The arguments of a call, from its '(' on. */
+    private List<Expr> actualpar() {
+        expect(LPAREN);
+        if (accept(RPAREN)) {
+            return List.of();
+        }
+        List<Expr> args = expressionList();
+        expect(RPAREN);
+        return args;
+    }
+
+    // every Binary of a chain gets the position of the chain's first token, as in AstBuilder
+    private Expr expression() {
+        Token start = cur;
+        Expr e = logicAnd();
+        while (accept(OR)) {
+            e = mark(start, new Binary(BinOp.OR, e, logicAnd()));
+        }
+        return e;
+    }
+
+    private Expr logicAnd() {
+        Token start = cur;
+        Expr e = relation();
+        while (accept(AND)) {
+            e = mark(start, new Binary(BinOp.AND, e, relation()));
+        }
+        return e;
+    }
+
+    private Expr relation() {
+        Token start = cur;
+        Expr left = additive();
+        BinOp op = switch (la()) {
+            case EQ ->
+                BinOp.EQ;
+            case NE ->
+                BinOp.NE;
+            case LT ->
+                BinOp.LT;
+            case LE ->
+                BinOp.LE;
+            case GT ->
+                BinOp.GT;
+            case GE ->
+                BinOp.GE;
+            default ->
+                null;
+        };
+        if (op == null) {
+            return left;
+        }
+        consume();
+        return mark(start, new Binary(op, left, additive()));
+    }
+
+    private Expr additive() {
+        Token start = cur;
+        Expr e = multiplicative();
+        while (la() == PLUS || la() == MINUS) {
+            BinOp op = consume().getType() == PLUS ? BinOp.ADD : BinOp.SUB;
+            e = mark(start, new Binary(op, e, multiplicative()));
+        }
+        return e;
+    }
+
+    private Expr multiplicative() {
+        Token start = cur;
+        Expr e = unary();
+        while (la() == STAR || la() == SLASH || la() == MOD) {
+            BinOp op = switch (consume().getType()) {
+                case STAR ->
+                    BinOp.MUL;
+                case SLASH ->
+                    BinOp.DIV;
+                default ->
+                    BinOp.MOD;
+            };
+            e = mark(start, new Binary(op, e, unary()));
+        }
+        return e;
+    }
+
+    private Expr unary() {
+        UnOp op = switch (la()) {
+            case PLUS ->
+                UnOp.POS;
+            case MINUS ->
+                UnOp.NEG;
+            case NOT ->
+                UnOp.NOT;
+            default ->
+                null;
+        };
+        if (op == null) {
+            return primary();
+        }
+        Token start = consume();
+        return mark(start, new Unary(op, primary()));
+    }
+
+    private Expr primary() {
+        Token start = cur;
+        switch (la()) {
+            case LPAREN -> {
+                consume();
+                Expr inner = expression();
+                expect(RPAREN);
+                return mark(start, new Paren(inner));
+            }
+            case ID -> {
+                if (next.getType() == LPAREN) {
+                    consume();
+                    return mark(start, new CallExpr(name(start), actualpar()));
+                }
+                return variable();
+            }
+            case BOOLEAN_LITERAL -> {
+                consume();
+                return mark(start, new BoolLit(start.getText().equals("TRUE")));
+            }
+            case INTEGER_LITERAL -> {
+                consume();
+                return mark(start, new IntLit(Integer.parseInt(start.getText())));
+            }
+            case REAL_LITERAL -> {
+                consume();
+                return mark(start, new RealLit(Double.parseDouble(start.getText())));
+            }
+            case STRING_LITERAL -> {
+                consume();
+                String raw = start.getText();
+                return mark(start, new StringLit(raw.substring(1, raw.length() - 1)));
+            }
+            default ->
+                throw GIVE_UP;
+        }
+    }
+
+    /** ID ('[' expression_list ']')*; only the outermost node gets a position. */
+    private Expr variable() {
+        Token start = expect(ID);
+        Expr e = new Var(name(start));
+        while (accept(LBRACK)) {
+            e = new ArrayAccess(e, expressionList());
+            expect(RBRACK);
+        }
+        return mark(start, e);
+    }
+}
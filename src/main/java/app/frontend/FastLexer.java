@@ -0,0 +1,348 @@
+package app.frontend;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import app.parser.Oberon0Lexer;
+
+/**
+ * Hand-written scanner for the lexer rules of Oberon0.g4. It produces exactly the tokens of
+ * the generated {@link Oberon0Lexer} (types, offsets, lines, columns) and reports the same
+ * "token recognition error" messages, but scans with plain character tests instead of
+ * simulating the ATN. Token text is not copied; it is cut from the input on demand.
+ *
+ * Keywords are found with a perfect hash over the first, second and last character and the
+ * length, so an identifier costs one table probe and at most one string comparison.
+ */
+public final class FastLexer implements TokenSource {
+
+    private static final String[] KEYWORDS = new String[128];
+    private static final int[] KEYWORD_TYPES = new int[128];
+
+    static {
+        String[] words = {"module", "begin", "end", "procedure", "function", "var", "boolean", "integer",
+            "real", "string", "array", "of", "and", "or", "not", "mod", "continue", "break", "return",
+            "if", "then", "elseif", "else", "while", "do", "repeat", "until", "for", "to", "write",
+            "writeln", "read"};
+        for (int i = 0; i < words.length; i++) {
+            keyword(words[i], Oberon0Lexer.MODULE + i);
+        }
+        keyword("TRUE", Oberon0Lexer.BOOLEAN_LITERAL);
+        keyword("FALSE", Oberon0Lexer.BOOLEAN_LITERAL);
+    }
+
+    private static void keyword(String w, int type) {
+        int h = hash(w.charAt(0), w.charAt(1), w.charAt(w.length() - 1), w.length());
+        if (KEYWORDS[h] != null) {
+            throw new IllegalStateException("keyword hash collision: " + w + " / " + KEYWORDS[h]);
+        }
+        KEYWORDS[h] = w;
+        KEYWORD_TYPES[h] = type;
+    }
+
+    // constants found by search: collision-free for the 34 keywords of the grammar
+    private static int hash(int first, int second, int last, int length) {
+        return (first + 3 * second + 8 * last + length) & 127;
+    }
+
+    private final CharStream input;
+    private final ANTLRErrorListener listener;
+    private final Pair<TokenSource, CharStream> source;
+    private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+
+    // an identifier's first characters, enough for the longest keyword
+    private final char[] word = new char["procedure".length()];
+    private int line = 1;
+    private int column;
+
+    public FastLexer(CharStream input, ANTLRErrorListener listener) {
+        this.input = input;
+        this.listener = listener;
+        this.source = new Pair<>(this, input);
+    }
+
+    @Override
+    public Token nextToken() {
+        while (true) {
+            skipBlanks();
+            int start = input.index();
+            int startLine = line;
+            int startColumn = column;
+            int c = input.LA(1);
+            if (c == IntStream.EOF) {
+                return factory.create(source, Token.EOF, null, Token.DEFAULT_CHANNEL, start, start - 1, line, column);
+            }
+            int type = scan(c);
+            if (type == Token.INVALID_TYPE) {
+                recognitionError(start, startLine, startColumn);
+                continue;
+            }
+            if (type == Oberon0Lexer.COMMENT) {
+                continue;
+            }
+            return factory.create(source, type, null, Token.DEFAULT_CHANNEL, start, input.index() - 1,
+                    startLine, startColumn);
+        }
+    }
+
+    private void skipBlanks() {
+        int c = input.LA(1);
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            consume();
+            c = input.LA(1);
+        }
+    }
+
+    /** Consumes one token starting with {@code c} and returns its type, or INVALID_TYPE. */
+    private int scan(int c) {
+        if (isLetter(c) || c == '_') {
+            return identifier();
+        }
+        if (isDigit(c)) {
+            return number();
+        }
+        switch (c) {
+            case '"' -> {
+                return string();
+            }
+            case '.' -> {
+                if (isDigit(input.LA(2))) {
+                    consume();
+                    digits();
+                    exponent();
+                    return Oberon0Lexer.REAL_LITERAL;
+                }
+                return single(Oberon0Lexer.DOT);
+            }
+            case '(' -> {
+                return input.LA(2) == '*' && comment() ? Oberon0Lexer.COMMENT : single(Oberon0Lexer.LPAREN);
+            }
+            case ':' -> {
+                return input.LA(2) == '=' ? pair(Oberon0Lexer.ASSIGN) : single(Oberon0Lexer.COLON);
+            }
+            case '<' -> {
+                return input.LA(2) == '=' ? pair(Oberon0Lexer.LE) : single(Oberon0Lexer.LT);
+            }
+            case '>' -> {
+                return input.LA(2) == '=' ? pair(Oberon0Lexer.GE) : single(Oberon0Lexer.GT);
+            }
+            case ';' -> {
+                return single(Oberon0Lexer.SEMI);
+            }
+            case ',' -> {
+                return single(Oberon0Lexer.COMMA);
+            }
+            case '+' -> {
+                return single(Oberon0Lexer.PLUS);
+            }
+            case '-' -> {
+                return single(Oberon0Lexer.MINUS);
+            }
+            case '*' -> {
+                return single(Oberon0Lexer.STAR);
+            }
+            case '/' -> {
+                return single(Oberon0Lexer.SLASH);
+            }
+            case '=' -> {
+                return single(Oberon0Lexer.EQ);
+            }
+            case '#' -> {
+                return single(Oberon0Lexer.NE);
+            }
+            case ')' -> {
+                return single(Oberon0Lexer.RPAREN);
+            }
+            case '[' -> {
+                return single(Oberon0Lexer.LBRACK);
+            }
+            case ']' -> {
+                return single(Oberon0Lexer.RBRACK);
+            }
+            default -> {
+                return Token.INVALID_TYPE;
+            }
+        }
+    }
+
+    private int single(int type) {
+        consume();
+        return type;
+    }
+
+    private int pair(int type) {
+        consume();
+        consume();
+        return type;
+    }
+
+    private int identifier() {
+        int length = 0;
+        for (int c = input.LA(1); isLetter(c) || isDigit(c) || c == '_'; c = input.LA(1)) {
+            if (length < word.length) {
+                word[length] = (char) c;
+            }
+            length++;
+            consume();
+        }
+        if (length < 2 || length > word.length) {
+            return Oberon0Lexer.ID;
+        }
+        int h = hash(word[0], word[1], word[length - 1], length);
+        String k = KEYWORDS[h];
+        if (k == null || k.length() != length) {
+            return Oberon0Lexer.ID;
+        }
+        for (int i = 0; i < length; i++) {
+            if (k.charAt(i) != word[i]) {
+                return Oberon0Lexer.ID;
+            }
+        }
+        return KEYWORD_TYPES[h];
+    }
+
+    /** DIGIT+ ('.' DIGIT+)? EXP?, where each optional part needs at least one digit. */
+    private int number() {
+        digits();
+        int type = Oberon0Lexer.INTEGER_LITERAL;
+        if (input.LA(1) == '.' && isDigit(input.LA(2))) {
+            consume();
+            digits();
+            type = Oberon0Lexer.REAL_LITERAL;
+        }
+        return exponent() ? Oberon0Lexer.REAL_LITERAL : type;
+    }
+
+    private void digits() {
+        while (isDigit(input.LA(1))) {
+            consume();
+        }
+    }
+
+    private boolean exponent() {
+        int c = input.LA(1);
+        if (c != 'e' && c != 'E') {
+            return false;
+        }
+        int sign = input.LA(2);
+        int digitAt = sign == '+' || sign == '-' ? 3 : 2;
+        if (!isDigit(input.LA(digitAt))) {
+            return false;
+        }
+        for (int i = 1; i < digitAt; i++) {
+            consume();
+        }
+        digits();
+        return true;
+    }
+
+    /** '"' ~["\r\n]* '"'; stops in front of the offending character when unterminated. */
+    private int string() {
+        consume();
+        while (true) {
+            int c = input.LA(1);
+            if (c == '"') {
+                consume();
+                return Oberon0Lexer.STRING_LITERAL;
+            }
+            if (c == '\r' || c == '\n' || c == IntStream.EOF) {
+                return Token.INVALID_TYPE;
+            }
+            consume();
+        }
+    }
+
+    /**
+     * '(*' .*? '*)'. Without the closing '*)' nothing is consumed and the caller falls back to
+     * LPAREN, which is what the longest-match ANTLR lexer does as well.
+     */
+    private boolean comment() {
+        int i = 3;
+        while (true) {
+            int c = input.LA(i);
+            if (c == IntStream.EOF) {
+                return false;
+            }
+            if (c == '*' && input.LA(i + 1) == ')') {
+                for (int k = 0; k < i + 1; k++) {
+                    consume();
+                }
+                return true;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Same report and recovery as ANTLR: the text runs from the token start to the character
+     * that could not be matched (inclusive), and that character is skipped.
+     */
+    private void recognitionError(int start, int startLine, int startColumn) {
+        String text = input.getText(Interval.of(start, input.index()));
+        StringBuilder shown = new StringBuilder();
+        text.codePoints().forEach(cp -> shown.append(switch (cp) {
+            case '\n' ->
+                "\\n";
+            case '\t' ->
+                "\\t";
+            case '\r' ->
+                "\\r";
+            default ->
+                new String(Character.toChars(cp));
+        }));
+        listener.syntaxError(null, null, startLine, startColumn,
+                "token recognition error at: '" + shown + "'", null);
+        if (input.LA(1) != IntStream.EOF) {
+            consume();
+        }
+    }
+
+    private void consume() {
+        if (input.LA(1) == '\n') {
+            line++;
+            column = 0;
+        } else {
+            column++;
+        }
+        input.consume();
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return column;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public String getSourceName() {
+        return input.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return factory;
+    }
+}
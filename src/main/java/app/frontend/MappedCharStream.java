@@ -0,0 +1,159 @@
+package app.frontend;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CodePointBuffer;
+import org.antlr.v4.runtime.CodePointCharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lexer input read straight from a memory-mapped source file, without building a String.
+ *
+ * Sources are almost always plain ASCII; then the lexer reads the mapped bytes themselves
+ * and the file costs no heap at all. Any other file is decoded as UTF-8 into ANTLR's
+ * {@link CodePointBuffer}, which still skips the String and its UTF-16 copy.
+ */
+public final class MappedCharStream implements CharStream {
+
+    private final ByteBuffer bytes;
+    private final int size;
+    private final String name;
+    private int position;
+
+    private MappedCharStream(ByteBuffer bytes, String name) {
+        this.bytes = bytes;
+        this.size = bytes.limit();
+        this.name = name;
+    }
+
+    /** Maps {@code file}; malformed UTF-8 is an error, as with {@code Files.readString}. */
+    public static CharStream open(Path file) throws IOException {
+        String name = file.toString();
+        MappedByteBuffer mapped;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("source file too large: " + file);
+            }
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (isAscii(mapped)) {
+            return new MappedCharStream(mapped, name);
+        }
+        return CodePointCharStream.fromBuffer(decode(mapped), name);
+    }
+
+    private static boolean isAscii(ByteBuffer b) {
+        int n = b.limit();
+        int i = 0;
+        for (; i + 8 <= n; i += 8) {
+            if ((b.getLong(i) & 0x8080808080808080L) != 0) {
+                return false;
+            }
+        }
+        for (; i < n; i++) {
+            if (b.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static CodePointBuffer decode(ByteBuffer in) throws CharacterCodingException {
+        CharsetDecoder dec = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CodePointBuffer.Builder out = CodePointBuffer.builder(in.remaining());
+        CharBuffer chunk = CharBuffer.allocate(1 << 16);
+        CoderResult r;
+        do {
+            r = dec.decode(in, chunk, true);
+            if (r.isError()) {
+                r.throwException();
+            }
+            chunk.flip();
+            out.append(chunk);
+            chunk.compact();
+        } while (r.isOverflow());
+        dec.flush(chunk);
+        chunk.flip();
+        out.append(chunk);
+        return out.build();
+    }
+
+    @Override
+    public void consume() {
+        if (position >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i > 0) {
+            int at = position + i - 1;
+            return at < size ? bytes.get(at) : IntStream.EOF;
+        }
+        if (i < 0) {
+            int at = position + i;
+            return at >= 0 ? bytes.get(at) : IntStream.EOF;
+        }
+        return 0;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = Math.min(index, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return name;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.min(interval.a, size);
+        int len = Math.min(interval.b - interval.a + 1, size - start);
+        byte[] b = new byte[Math.max(len, 0)];
+        bytes.get(start, b);
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
@@ -0,0 +1,19 @@
+package app.frontend;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identifier interner for one parse. Every occurrence of a name in the AST is the same String
+ * instance, so a large module keeps one copy of each identifier instead of one per use, and
+ * name comparisons in later passes mostly stop at the reference check.
+ */
+public final class Names {
+
+    private final Map<String, String> table = new HashMap<>();
+
+    public String intern(String name) {
+        String known = table.putIfAbsent(name, name);
+        return known != null ? known : name;
+    }
+}
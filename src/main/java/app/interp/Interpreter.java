@@ -0,0 +1,423 @@
+package app.interp;
+
+import app.ast.*;
+import app.runtime.Console;
+import app.runtime.RuntimeFault;
+
+import java.util.*;
+
+/**
+ * Tree-walking interpreter over a type-checked {@link Program}.
+ *
+ * Semantics follow the C backend: scalars are passed by value and arrays by reference,
+ * nested routines see the locals of their enclosing activations (static link), {@code for}
+ * evaluates its upper bound once, after the start value, and {@code and}/{@code or} short-circuit.
+ */
+public final class Interpreter {
+
+    private enum Flow {
+        NORMAL, BREAK, CONTINUE, RETURN
+    }
+
+    private static final class Frame {
+
+        final Frame parent;
+        final Map<String, Object> vars = new HashMap<>();
+        final Map<String, Decl> routines = new HashMap<>();
+
+        Frame(Frame parent) {
+            this.parent = parent;
+        }
+    }
+
+    private final Console io;
+    private Object retVal;
+
+    public Interpreter(Console io) {
+        this.io = io;
+    }
+
+    public void run(Program p) {
+        Frame global = new Frame(null);
+        declare(global, p.decls());
+        try {
+            execBlock(p.body(), global);
+        } catch (ArithmeticException ex) {
+            throw new RuntimeFault("integer division by zero");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new RuntimeFault("array index out of range: " + ex.getMessage());
+        } catch (StackOverflowError ex) {
+            throw new RuntimeFault("stack overflow");
+        } finally {
+            io.flush();
+        }
+    }
+
+    private void declare(Frame f, List<Decl> decls) {
+        for (Decl d : decls) {
+            if (d instanceof VarDecl v) {
+                f.vars.put(v.name(), initial(v.type()));
+            } else if (d instanceof ProcDecl p) {
+                f.routines.put(p.name(), p);
+            } else if (d instanceof FuncDecl fn) {
+                f.routines.put(fn.name(), fn);
+            }
+        }
+    }
+
+    private Object initial(TypeRef t) {
+        if (t instanceof ArrayType) {
+            List<Integer> dims = new ArrayList<>();
+            TypeRef cur = t;
+            while (cur instanceof ArrayType a) {
+                dims.addAll(a.dimensions());
+                cur = a.elementType();
+            }
+            return alloc(dims, 0, (Type) cur);
+        }
+        return switch ((Type) t) {
+            case INTEGER ->
+                0;
+            case REAL ->
+                0.0;
+            case BOOLEAN ->
+                false;
+            case STRING ->
+                null;
+        };
+    }
+
+    private Object[] alloc(List<Integer> dims, int k, Type elem) {
+        Object[] a = new Object[dims.get(k)];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (k + 1 < dims.size()) ? alloc(dims, k + 1, elem) : initial(elem);
+        }
+        return a;
+    }
+
+    private Flow execBlock(List<Stmt> stmts, Frame f) {
+        for (Stmt s : stmts) {
+            Flow fl = exec(s, f);
+            if (fl != Flow.NORMAL) {
+                return fl;
+            }
+        }
+        return Flow.NORMAL;
+    }
+
+    private Flow exec(Stmt s, Frame f) {
+        if (s instanceof Assign a) {
+            store(f, a.name(), eval(a.value(), f));
+            return Flow.NORMAL;
+        }
+        if (s instanceof AssignIndex ai) {
+            Object v = eval(ai.value(), f);
+            setElement(ai.target(), v, f);
+            return Flow.NORMAL;
+        }
+        if (s instanceof CallStmt c) {
+            switch (c.name()) {
+                case "write" -> {
+                    for (Expr x : c.args()) {
+                        write(eval(x, f));
+                    }
+                }
+                case "writeln" -> {
+                    for (Expr x : c.args()) {
+                        write(eval(x, f));
+                    }
+                    io.newline();
+                }
+                case "read" -> {
+                    if (!c.args().isEmpty()) {
+                        read(c.args().get(0), f);
+                    }
+                }
+                default ->
+                    call(c.name(), c.args(), f);
+            }
+            return Flow.NORMAL;
+        }
+        if (s instanceof If iff) {
+            if (truth(iff.cond(), f)) {
+                return execBlock(iff.thenPart(), f);
+            }
+            for (ElseIf e : iff.elseIfs()) {
+                if (truth(e.cond(), f)) {
+                    return execBlock(e.body(), f);
+                }
+            }
+            return execBlock(iff.elsePart(), f);
+        }
+        if (s instanceof While w) {
+            while (truth(w.cond(), f)) {
+                Flow fl = execBlock(w.body(), f);
+                if (fl == Flow.BREAK) {
+                    break;
+                }
+                if (fl == Flow.RETURN) {
+                    return fl;
+                }
+            }
+            return Flow.NORMAL;
+        }
+        if (s instanceof Repeat r) {
+            do {
+                Flow fl = execBlock(r.body(), f);
+                if (fl == Flow.BREAK) {
+                    break;
+                }
+                if (fl == Flow.RETURN) {
+                    return fl;
+                }
+            } while (!truth(r.cond(), f));
+            return Flow.NORMAL;
+        }
+        if (s instanceof For fo) {
+            Frame owner = owner(f, fo.var());
+            owner.vars.put(fo.var(), eval(fo.from(), f));
+            int limit = (Integer) eval(fo.to(), f);
+            while ((Integer) owner.vars.get(fo.var()) <= limit) {
+                Flow fl = execBlock(fo.body(), f);
+                if (fl == Flow.BREAK) {
+                    break;
+                }
+                if (fl == Flow.RETURN) {
+                    return fl;
+                }
+                owner.vars.put(fo.var(), (Integer) owner.vars.get(fo.var()) + 1);
+            }
+            return Flow.NORMAL;
+        }
+        if (s instanceof Return r) {
+            retVal = eval(r.value(), f);
+            return Flow.RETURN;
+        }
+        if (s instanceof ReturnVoid) {
+            retVal = null;
+            return Flow.RETURN;
+        }
+        if (s instanceof Break) {
+            return Flow.BREAK;
+        }
+        if (s instanceof Continue) {
+            return Flow.CONTINUE;
+        }
+        throw new IllegalStateException("unknown statement " + s.getClass().getSimpleName());
+    }
+
+    private boolean truth(Expr e, Frame f) {
+        return (Boolean) eval(e, f);
+    }
+
+    private Object eval(Expr e, Frame f) {
+        if (e instanceof IntLit i) {
+            return i.value();
+        }
+        if (e instanceof RealLit r) {
+            return r.value();
+        }
+        if (e instanceof BoolLit b) {
+            return b.value();
+        }
+        if (e instanceof StringLit s) {
+            return Console.cString(s.value());
+        }
+        if (e instanceof Var v) {
+            return owner(f, v.name()).vars.get(v.name());
+        }
+        if (e instanceof Paren p) {
+            return eval(p.inner(), f);
+        }
+        if (e instanceof ArrayAccess a) {
+            Object cur = eval(a.base(), f);
+            for (Expr idx : a.indices()) {
+                cur = ((Object[]) cur)[(Integer) eval(idx, f)];
+            }
+            return cur;
+        }
+        if (e instanceof Unary u) {
+            Object v = eval(u.value(), f);
+            return switch (u.op()) {
+                case POS ->
+                    v;
+                case NEG ->
+                    (v instanceof Integer iv) ? (Object) (-iv) : (Object) (-(Double) v);
+                case NOT ->
+                    !(Boolean) v;
+            };
+        }
+        if (e instanceof Binary b) {
+            return binary(b, f);
+        }
+        if (e instanceof CallExpr c) {
+            return call(c.name(), c.args(), f);
+        }
+        throw new IllegalStateException("unknown expression " + e.getClass().getSimpleName());
+    }
+
+    private Object binary(Binary b, Frame f) {
+        if (b.op() == BinOp.AND) {
+            return truth(b.left(), f) && truth(b.right(), f);
+        }
+        if (b.op() == BinOp.OR) {
+            return truth(b.left(), f) || truth(b.right(), f);
+        }
+        Object l = eval(b.left(), f);
+        Object r = eval(b.right(), f);
+        if (l instanceof Integer x && r instanceof Integer y) {
+            return switch (b.op()) {
+                case ADD -> x + y;
+                case SUB -> x - y;
+                case MUL -> x * y;
+                case DIV -> x / y;
+                case MOD -> x % y;
+                default -> compare(b.op(), Integer.compare(x, y));
+            };
+        }
+        if (l instanceof Double x && r instanceof Double y) {
+            return switch (b.op()) {
+                case ADD -> x + y;
+                case SUB -> x - y;
+                case MUL -> x * y;
+                case DIV -> x / y;
+                default -> compareReal(b.op(), x, y);
+            };
+        }
+        if (l instanceof Boolean x && r instanceof Boolean y) {
+            return compare(b.op(), Boolean.compare(x, y));
+        }
+        String x = (String) l;
+        String y = (String) r;
+        int c = (x == null || y == null) ? Boolean.compare(x != null, y != null) : x.compareTo(y);
+        return compare(b.op(), c);
+    }
+
+    private static boolean compare(BinOp op, int c) {
+        return switch (op) {
+            case EQ -> c == 0;
+            case NE -> c != 0;
+            case LT -> c < 0;
+            case LE -> c <= 0;
+            case GT -> c > 0;
+            case GE -> c >= 0;
+            default -> throw new IllegalStateException("not a comparison: " + op);
+        };
+    }
+
+    // NaN must compare like C: every ordered comparison is false, != is true
+    private static boolean compareReal(BinOp op, double x, double y) {
+        return switch (op) {
+            case EQ -> x == y;
+            case NE -> x != y;
+            case LT -> x < y;
+            case LE -> x <= y;
+            case GT -> x > y;
+            case GE -> x >= y;
+            default -> throw new IllegalStateException("not a comparison: " + op);
+        };
+    }
+
+    private Object call(String name, List<Expr> args, Frame f) {
+        Frame declaredIn = f;
+        Decl d = null;
+        while (declaredIn != null && (d = declaredIn.routines.get(name)) == null) {
+            declaredIn = declaredIn.parent;
+        }
+        if (d == null) {
+            throw new IllegalStateException("unknown routine " + name);
+        }
+
+        List<Param> params;
+        List<Decl> locals;
+        List<Decl> nested;
+        List<Stmt> body;
+        Type ret = null;
+        if (d instanceof ProcDecl p) {
+            params = p.params();
+            locals = p.locals();
+            nested = p.nested();
+            body = p.body();
+        } else {
+            FuncDecl fn = (FuncDecl) d;
+            params = fn.params();
+            locals = fn.locals();
+            nested = fn.nested();
+            body = fn.body();
+            ret = fn.retType();
+        }
+
+        Frame callee = new Frame(declaredIn);
+        for (int i = 0; i < params.size(); i++) {
+            callee.vars.put(params.get(i).name(), eval(args.get(i), f));
+        }
+        declare(callee, locals);
+        declare(callee, nested);
+
+        retVal = null;
+        execBlock(body, callee);
+        Object result = retVal;
+        retVal = null;
+        if (ret != null && result == null) {
+            // falling off the end of a function: the C backend yields garbage, use the zero value
+            result = initial(ret);
+        }
+        return result;
+    }
+
+    private Frame owner(Frame f, String name) {
+        for (Frame c = f; c != null; c = c.parent) {
+            if (c.vars.containsKey(name)) {
+                return c;
+            }
+        }
+        throw new IllegalStateException("unbound variable " + name);
+    }
+
+    private void store(Frame f, String name, Object v) {
+        owner(f, name).vars.put(name, v);
+    }
+
+    private void setElement(ArrayAccess target, Object v, Frame f) {
+        Object[] arr = (Object[]) eval(target.base(), f);
+        List<Expr> idx = target.indices();
+        for (int i = 0; i < idx.size() - 1; i++) {
+            arr = (Object[]) arr[(Integer) eval(idx.get(i), f)];
+        }
+        arr[(Integer) eval(idx.get(idx.size() - 1), f)] = v;
+    }
+
+    private void write(Object v) {
+        if (v instanceof Integer i) {
+            io.writeInt(i);
+        } else if (v instanceof Double d) {
+            io.writeReal(d);
+        } else if (v instanceof Boolean b) {
+            io.writeBool(b);
+        } else if (!(v instanceof Object[])) {
+            io.writeString((String) v);
+        }
+    }
+
+    private void read(Expr target, Frame f) {
+        Object cur = eval(target, f);
+        Object v;
+        if (cur instanceof Integer) {
+            v = io.readInt();
+        } else if (cur instanceof Double) {
+            v = io.readReal();
+        } else if (cur instanceof Boolean) {
+            v = io.readBool();
+        } else {
+            return; // read(string) is not supported by the C backend either
+        }
+        if (v == null) {
+            return;
+        }
+        if (target instanceof Var var) {
+            store(f, var.name(), v);
+        } else if (target instanceof ArrayAccess aa) {
+            setElement(aa, v, f);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package app.opt;
+
+import app.ast.*;
+import app.backend.FreeVariables;
+import app.backend.FreeVariables.Binding;
+import app.sem.ErrorReporter;
+import app.sem.SourceMap;
+
+import java.util.*;
+
+import static app.opt.Trees.*;
+
+/**
+ * Constant folding and propagation over a type-checked {@link Program}.
+ *
+ * Operators whose operands are literals are evaluated with the typing rules of
+ * {@code TypeUtil.resultOfBinary} and C semantics (truncating integer DIV/MOD, wrap-around
+ * arithmetic); real results that are not finite are left for run time. Scalars assigned a
+ * literal are propagated through straight-line code. What is known is intersected where branches
+ * join, dropped for everything a loop assigns, and dropped across user calls for every variable
+ * a callee could write. Branches and loop bodies that provably never run are left as they are.
+ *
+ * Integer division or modulo by a constant zero is reported as an error only where it is
+ * certain to happen: at the top level of the module body, before anything that may end it. Anywhere
+ * else, such as behind a guard like {@code if d # 0}, the expression is left unfolded and fails
+ * at run time if it is ever reached.
+ *
+ * Rebuilt nodes take over the source position of the node they replace.
+ */
+public final class ConstantFolder {
+
+    private final ErrorReporter er;
+    private final SourceMap smap;
+
+    private FreeVariables fv;
+    /** Variables of the current routine that no call can write: its uncaptured params and locals. */
+    private Set<String> safe = Set.of();
+    private Map<String, Expr> known = new HashMap<>();
+    /** True while folding code that runs whenever the module body does. */
+    private boolean always;
+
+    public ConstantFolder(ErrorReporter er, SourceMap smap) {
+        this.er = er;
+        this.smap = smap;
+    }
+
+    public Program fold(Program p) {
+        fv = FreeVariables.of(p);
+        List<Decl> decls = decls(p.decls());
+        enter(null);
+        always = true;
+        List<Stmt> body = block(p.body());
+        always = false;
+        return mark(p, new Program(p.name(), decls, body));
+    }
+
+    private List<Decl> decls(List<Decl> decls) {
+        List<Decl> out = new ArrayList<>(decls.size());
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                List<Decl> nested = decls(q.nested());
+                enter(d);
+                out.add(mark(d, new ProcDecl(q.name(), q.params(), q.locals(), nested, block(q.body()))));
+            } else if (d instanceof FuncDecl f) {
+                List<Decl> nested = decls(f.nested());
+                enter(d);
+                out.add(mark(d, new FuncDecl(f.name(), f.params(), f.retType(), f.locals(), nested,
+                        block(f.body()))));
+            } else {
+                out.add(d);
+            }
+        }
+        return out;
+    }
+
+    private void enter(Decl routine) {
+        known = new HashMap<>();
+        safe = new HashSet<>();
+        if (routine != null) {
+            for (Binding b : fv.locals(routine).values()) {
+                if (!fv.captured(b)) {
+                    safe.add(b.name());
+                }
+            }
+        }
+    }
+
+    /* ---------- statements ---------- */
+
+    private List<Stmt> block(List<Stmt> stmts) {
+        boolean outer = always;
+        List<Stmt> out = new ArrayList<>(stmts.size());
+        for (Stmt s : stmts) {
+            out.add(stmt(s));
+            if (always && mayReturn(s)) {
+                always = false; // the rest of the body may not run
+            }
+        }
+        always = outer;
+        return out;
+    }
+
+    /** Folds code that may or may not run. */
+    private List<Stmt> maybe(List<Stmt> stmts) {
+        boolean outer = always;
+        always = false;
+        List<Stmt> out = block(stmts);
+        always = outer;
+        return out;
+    }
+
+    private static boolean mayReturn(Stmt s) {
+        boolean[] found = {false};
+        visit(List.of(s), x -> found[0] |= x instanceof Return || x instanceof ReturnVoid, e -> {
+        });
+        return found[0];
+    }
+
+    private Stmt stmt(Stmt s) {
+        if (s instanceof Assign a) {
+            Expr v = rhs(a.value());
+            learn(a.name(), v);
+            return v == a.value() ? s : mark(s, new Assign(a.name(), v));
+        }
+        if (s instanceof AssignIndex ai) {
+            boolean calls = hasCall(ai.target()) || hasCall(ai.value());
+            Map<String, Expr> before = calls ? enterCall() : null;
+            ArrayAccess t = (ArrayAccess) expr(ai.target());
+            Expr v = expr(ai.value());
+            if (calls) {
+                leaveCall(before);
+            }
+            return t == ai.target() && v == ai.value() ? s : mark(s, new AssignIndex(t, v));
+        }
+        if (s instanceof CallStmt c) {
+            return call(c);
+        }
+        if (s instanceof If iff) {
+            return ifStmt(iff);
+        }
+        if (s instanceof While w) {
+            loopHead(w.body(), hasCall(w.cond()));
+            Map<String, Expr> head = new HashMap<>(known);
+            Expr cond = expr(w.cond());
+            List<Stmt> body = isFalse(cond) ? w.body() : maybe(w.body());
+            known = head;
+            return mark(s, new While(cond, body));
+        }
+        if (s instanceof Repeat r) {
+            loopHead(r.body(), hasCall(r.cond()));
+            Map<String, Expr> head = new HashMap<>(known);
+            List<Stmt> body = maybe(r.body());
+            known = new HashMap<>(head);
+            Expr cond = expr(r.cond());
+            known = head;
+            return mark(s, new Repeat(body, cond));
+        }
+        if (s instanceof For f) {
+            Expr from = rhs(f.from());
+            known.remove(f.var());
+            loopHead(f.body(), hasCall(f.to()));
+            Map<String, Expr> head = new HashMap<>(known);
+            Expr to = expr(f.to());
+            boolean never = from instanceof IntLit lo && to instanceof IntLit hi && lo.value() > hi.value();
+            List<Stmt> body = never ? f.body() : maybe(f.body());
+            known = head;
+            return mark(s, new For(f.var(), from, to, body));
+        }
+        if (s instanceof Return r) {
+            Expr v = rhs(r.value());
+            return v == r.value() ? s : mark(s, new Return(v));
+        }
+        return s;
+    }
+
+    private Stmt call(CallStmt c) {
+        if (c.name().equals("read")) {
+            if (c.args().isEmpty()) {
+                return c;
+            }
+            Expr target = c.args().get(0);
+            if (target instanceof Var v) {
+                known.remove(v.name());
+                return c;
+            }
+            Expr t = rhs(target);
+            return t == target ? c : mark(c, new CallStmt(c.name(), List.of(t)));
+        }
+        boolean user = !isBuiltin(c.name());
+        boolean calls = user || c.args().stream().anyMatch(Trees::hasCall);
+        Map<String, Expr> before = calls ? enterCall() : null;
+        List<Expr> args = exprs(c.args());
+        if (calls) {
+            leaveCall(before);
+        }
+        return args == c.args() ? c : mark(c, new CallStmt(c.name(), args));
+    }
+
+    private Stmt ifStmt(If iff) {
+        List<Map<String, Expr>> joins = new ArrayList<>();
+        boolean outer = always;
+        Expr cond = rhs(iff.cond());
+        // a condition after the first is evaluated only if the ones before are false
+        always = false;
+        Map<String, Expr> path = new HashMap<>(known);
+        List<Stmt> thenPart = branch(iff.thenPart(), isFalse(cond), path, joins);
+        boolean taken = cond instanceof BoolLit b && b.value();
+
+        List<ElseIf> elseIfs = new ArrayList<>(iff.elseIfs().size());
+        for (ElseIf e : iff.elseIfs()) {
+            if (taken) {
+                elseIfs.add(e); // an earlier arm is always taken
+                continue;
+            }
+            known = new HashMap<>(path);
+            Expr c = rhs(e.cond());
+            path = new HashMap<>(known);
+            elseIfs.add(new ElseIf(c, branch(e.body(), isFalse(c), path, joins)));
+            taken = c instanceof BoolLit b && b.value();
+        }
+
+        List<Stmt> elsePart = branch(iff.elsePart(), taken, path, joins);
+        always = outer;
+
+        known = joins.isEmpty() ? new HashMap<>() : joins.get(0);
+        for (int i = 1; i < joins.size(); i++) {
+            known.entrySet().retainAll(joins.get(i).entrySet());
+        }
+        return mark(iff, new If(cond, thenPart, elseIfs, elsePart));
+    }
+
+    /** Folds one arm of an if; an arm that never runs is kept as it is and does not join. */
+    private List<Stmt> branch(List<Stmt> body, boolean dead, Map<String, Expr> entry,
+            List<Map<String, Expr>> joins) {
+        if (dead) {
+            return body;
+        }
+        known = new HashMap<>(entry);
+        List<Stmt> out = maybe(body);
+        if (!jumpsAway(out)) {
+            joins.add(known);
+        }
+        return out;
+    }
+
+    /** Forgets what a loop may change before its first iteration, so the facts hold on every one. */
+    private void loopHead(List<Stmt> body, boolean condCalls) {
+        known.keySet().removeAll(assigned(body));
+        if (condCalls || hasCall(body)) {
+            known.keySet().retainAll(safe);
+        }
+    }
+
+    private static boolean isFalse(Expr cond) {
+        return cond instanceof BoolLit b && !b.value();
+    }
+
+    private void learn(String name, Expr value) {
+        if (isLiteral(value)) {
+            known.put(name, value);
+        } else {
+            known.remove(name);
+        }
+    }
+
+    /* ---------- expressions ---------- */
+
+    /** Folds an expression evaluated once, accounting for the calls it makes. */
+    private Expr rhs(Expr e) {
+        if (!hasCall(e)) {
+            return expr(e);
+        }
+        Map<String, Expr> before = enterCall();
+        Expr out = expr(e);
+        leaveCall(before);
+        return out;
+    }
+
+    // C leaves the order of operand evaluation open, so within an expression that calls
+    // something only facts no callee can invalidate are used
+
+    private Map<String, Expr> enterCall() {
+        Map<String, Expr> before = known;
+        known = new HashMap<>(before);
+        known.keySet().retainAll(safe);
+        return before;
+    }
+
+    private void leaveCall(Map<String, Expr> before) {
+        known = before;
+        known.keySet().retainAll(safe);
+    }
+
+    private List<Expr> exprs(List<Expr> in) {
+        List<Expr> out = null;
+        for (int i = 0; i < in.size(); i++) {
+            Expr e = expr(in.get(i));
+            if (e != in.get(i) && out == null) {
+                out = new ArrayList<>(in.subList(0, i));
+            }
+            if (out != null) {
+                out.add(e);
+            }
+        }
+        return out == null ? in : out;
+    }
+
+    private Expr expr(Expr e) {
+        if (e instanceof Var v) {
+            Expr k = known.get(v.name());
+            return k == null ? e : literal(v, k);
+        }
+        if (e instanceof Paren p) {
+            Expr in = expr(p.inner());
+            if (isLiteral(in)) {
+                return in;
+            }
+            return in == p.inner() ? e : mark(e, new Paren(in));
+        }
+        if (e instanceof Unary u) {
+            Expr a = expr(u.value());
+            Expr r = unary(u, a);
+            if (r != null) {
+                return r;
+            }
+            return a == u.value() ? e : mark(e, new Unary(u.op(), a));
+        }
+        if (e instanceof Binary b) {
+            return binary(b);
+        }
+        if (e instanceof CallExpr c) {
+            List<Expr> args = exprs(c.args());
+            return args == c.args() ? e : mark(e, new CallExpr(c.name(), args));
+        }
+        if (e instanceof ArrayAccess a) {
+            Expr base = expr(a.base());
+            List<Expr> idx = exprs(a.indices());
+            return base == a.base() && idx == a.indices() ? e : mark(e, new ArrayAccess(base, idx));
+        }
+        return e;
+    }
+
+    private Expr unary(Unary u, Expr a) {
+        switch (u.op()) {
+            case POS:
+                return isLiteral(a) ? a : null;
+            case NEG:
+                if (a instanceof IntLit i) {
+                    return mark(u, new IntLit(-i.value()));
+                }
+                if (a instanceof RealLit r) {
+                    return mark(u, new RealLit(-r.value()));
+                }
+                return null;
+            default:
+                return a instanceof BoolLit b ? mark(u, new BoolLit(!b.value())) : null;
+        }
+    }
+
+    private Expr binary(Binary b) {
+        Expr l = expr(b.left());
+        if (l instanceof BoolLit lb && (b.op() == BinOp.AND || b.op() == BinOp.OR)) {
+            // short circuit: the right operand is either skipped or is the whole result
+            boolean decides = (b.op() == BinOp.AND) != lb.value();
+            return decides ? l : expr(b.right());
+        }
+        boolean outer = always;
+        if (b.op() == BinOp.AND || b.op() == BinOp.OR) {
+            always = false; // the right operand may be skipped
+        }
+        Expr r = expr(b.right());
+        always = outer;
+        Expr folded = null;
+        if (l instanceof IntLit x && r instanceof IntLit y) {
+            folded = ints(b, x.value(), y.value());
+        } else if (l instanceof RealLit x && r instanceof RealLit y) {
+            folded = reals(b, x.value(), y.value());
+        } else if (l instanceof BoolLit x && r instanceof BoolLit y) {
+            folded = compare(b, Boolean.compare(x.value(), y.value()));
+            if (folded == null) {
+                folded = mark(b, new BoolLit(b.op() == BinOp.AND
+                        ? x.value() && y.value() : x.value() || y.value()));
+            }
+        }
+        if (folded != null) {
+            return folded;
+        }
+        return l == b.left() && r == b.right() ? b : mark(b, new Binary(b.op(), l, r));
+    }
+
+    private Expr ints(Binary b, int x, int y) {
+        switch (b.op()) {
+            case ADD:
+                return mark(b, new IntLit(x + y));
+            case SUB:
+                return mark(b, new IntLit(x - y));
+            case MUL:
+                return mark(b, new IntLit(x * y));
+            case DIV:
+            case MOD:
+                if (y == 0) {
+                    if (always) {
+                        er.error(smap.get(b), "%s by zero", b.op() == BinOp.DIV ? "division" : "modulo");
+                    }
+                    return null;
+                }
+                return mark(b, new IntLit(b.op() == BinOp.DIV ? x / y : x % y));
+            default:
+                return compare(b, Integer.compare(x, y));
+        }
+    }
+
+    private Expr reals(Binary b, double x, double y) {
+        double v;
+        switch (b.op()) {
+            case ADD:
+                v = x + y;
+                break;
+            case SUB:
+                v = x - y;
+                break;
+            case MUL:
+                v = x * y;
+                break;
+            case DIV:
+                v = x / y;
+                break;
+            case EQ:
+                return mark(b, new BoolLit(x == y));
+            case NE:
+                return mark(b, new BoolLit(x != y));
+            case LT:
+                return mark(b, new BoolLit(x < y));
+            case LE:
+                return mark(b, new BoolLit(x <= y));
+            case GT:
+                return mark(b, new BoolLit(x > y));
+            case GE:
+                return mark(b, new BoolLit(x >= y));
+            default:
+                return null;
+        }
+        // an infinite or NaN result has no literal form in the C backend
+        return Double.isFinite(v) ? mark(b, new RealLit(v)) : null;
+    }
+
+    private Expr compare(Binary b, int c) {
+        boolean v;
+        switch (b.op()) {
+            case EQ:
+                v = c == 0;
+                break;
+            case NE:
+                v = c != 0;
+                break;
+            case LT:
+                v = c < 0;
+                break;
+            case LE:
+                v = c <= 0;
+                break;
+            case GT:
+                v = c > 0;
+                break;
+            case GE:
+                v = c >= 0;
+                break;
+            default:
+                return null;
+        }
+        return mark(b, new BoolLit(v));
+    }
+
+    private Expr literal(Var at, Expr value) {
+        if (value instanceof IntLit i) {
+            return mark(at, new IntLit(i.value()));
+        }
+        if (value instanceof RealLit r) {
+            return mark(at, new RealLit(r.value()));
+        }
+        return mark(at, new BoolLit(((BoolLit) value).value()));
+    }
+
+    private <T> T mark(Object from, T to) {
+        smap.copy(from, to);
+        return to;
+    }
+}
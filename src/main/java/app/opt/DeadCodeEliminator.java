@@ -0,0 +1,246 @@
+package app.opt;
+
+import app.ast.*;
+import app.backend.FreeVariables;
+import app.backend.FreeVariables.Binding;
+import app.sem.SourceMap;
+
+import java.util.*;
+
+import static app.opt.Trees.*;
+
+/**
+ * Dead and unreachable code elimination; meant to run after {@link ConstantFolder}.
+ *
+ * Removes statements after return/break/continue, resolves ifs and elsifs with constant
+ * conditions, loops that never run, routines that are never called (transitively from the
+ * module body) and locals that nothing references.
+ */
+public final class DeadCodeEliminator {
+
+    private final SourceMap smap;
+
+    public DeadCodeEliminator(SourceMap smap) {
+        this.smap = smap;
+    }
+
+    public Program eliminate(Program p) {
+        Program pruned = mark(p, new Program(p.name(), prune(p.decls()), block(p.body())));
+
+        Set<Decl> live = live(pruned);
+        Program reachable = mark(p, new Program(p.name(), keep(pruned.decls(), live), pruned.body()));
+
+        FreeVariables fv = FreeVariables.of(reachable);
+        return mark(p, new Program(p.name(), unusedLocals(reachable.decls(), fv), reachable.body()));
+    }
+
+    /* ---------- statements ---------- */
+
+    private List<Decl> prune(List<Decl> decls) {
+        List<Decl> out = new ArrayList<>(decls.size());
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                out.add(mark(d, new ProcDecl(q.name(), q.params(), q.locals(), prune(q.nested()),
+                        block(q.body()))));
+            } else if (d instanceof FuncDecl f) {
+                out.add(mark(d, new FuncDecl(f.name(), f.params(), f.retType(), f.locals(),
+                        prune(f.nested()), block(f.body()))));
+            } else {
+                out.add(d);
+            }
+        }
+        return out;
+    }
+
+    private List<Stmt> block(List<Stmt> stmts) {
+        List<Stmt> out = new ArrayList<>(stmts.size());
+        for (Stmt s : stmts) {
+            stmt(s, out);
+            if (jumpsAway(out)) {
+                break; // the rest of the block is unreachable
+            }
+        }
+        return out;
+    }
+
+    private void stmt(Stmt s, List<Stmt> out) {
+        if (s instanceof If iff) {
+            ifStmt(iff, out);
+        } else if (s instanceof While w) {
+            if (!(w.cond() instanceof BoolLit b && !b.value())) {
+                out.add(mark(s, new While(w.cond(), block(w.body()))));
+            }
+        } else if (s instanceof Repeat r) {
+            List<Stmt> body = block(r.body());
+            if (r.cond() instanceof BoolLit b && b.value() && !exitsLoop(body)) {
+                out.addAll(body); // runs exactly once
+            } else {
+                out.add(mark(s, new Repeat(body, r.cond())));
+            }
+        } else if (s instanceof For f) {
+            if (f.from() instanceof IntLit lo && f.to() instanceof IntLit hi && lo.value() > hi.value()) {
+                // the body never runs but the control variable is still initialised
+                out.add(mark(s, new Assign(f.var(), f.from())));
+            } else {
+                out.add(mark(s, new For(f.var(), f.from(), f.to(), block(f.body()))));
+            }
+        } else {
+            out.add(s);
+        }
+    }
+
+    private void ifStmt(If iff, List<Stmt> out) {
+        List<Expr> conds = new ArrayList<>();
+        List<List<Stmt>> bodies = new ArrayList<>();
+        List<Stmt> elsePart = null;
+
+        conds.add(iff.cond());
+        bodies.add(iff.thenPart());
+        for (ElseIf e : iff.elseIfs()) {
+            conds.add(e.cond());
+            bodies.add(e.body());
+        }
+        List<Expr> liveConds = new ArrayList<>();
+        List<List<Stmt>> liveBodies = new ArrayList<>();
+        for (int i = 0; i < conds.size(); i++) {
+            Expr c = conds.get(i);
+            if (c instanceof BoolLit b) {
+                if (b.value()) {
+                    elsePart = bodies.get(i); // always taken: later arms and the else are dead
+                    break;
+                }
+                continue;
+            }
+            liveConds.add(c);
+            liveBodies.add(bodies.get(i));
+        }
+        if (elsePart == null) {
+            elsePart = iff.elsePart();
+        }
+        elsePart = block(elsePart);
+
+        if (liveConds.isEmpty()) {
+            out.addAll(elsePart);
+            return;
+        }
+        List<Stmt> thenPart = block(liveBodies.get(0));
+        if (liveConds.size() == 1 && thenPart.isEmpty() && elsePart.isEmpty() && !hasCall(liveConds.get(0))) {
+            return;
+        }
+        List<ElseIf> elseIfs = new ArrayList<>();
+        for (int i = 1; i < liveConds.size(); i++) {
+            elseIfs.add(new ElseIf(liveConds.get(i), block(liveBodies.get(i))));
+        }
+        out.add(mark(iff, new If(liveConds.get(0), thenPart, elseIfs, elsePart)));
+    }
+
+    /** True if a break or continue in {@code stmts} belongs to the enclosing loop. */
+    private static boolean exitsLoop(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            if (s instanceof Break || s instanceof Continue) {
+                return true;
+            }
+            if (s instanceof If iff) {
+                if (exitsLoop(iff.thenPart()) || exitsLoop(iff.elsePart())) {
+                    return true;
+                }
+                for (ElseIf e : iff.elseIfs()) {
+                    if (exitsLoop(e.body())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /* ---------- routines ---------- */
+
+    /** Routines reachable through calls from the module body. */
+    private static Set<Decl> live(Program p) {
+        FreeVariables fv = FreeVariables.of(p);
+        Set<Decl> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Decl> work = new ArrayDeque<>();
+        calls(p.body(), null, fv, live, work);
+        while (!work.isEmpty()) {
+            Decl d = work.pop();
+            calls(d instanceof ProcDecl q ? q.body() : ((FuncDecl) d).body(), d, fv, live, work);
+        }
+        return live;
+    }
+
+    private static void calls(List<Stmt> body, Decl from, FreeVariables fv, Set<Decl> live, Deque<Decl> work) {
+        List<String> names = new ArrayList<>();
+        visit(body, s -> {
+            if (s instanceof CallStmt c && !isBuiltin(c.name())) {
+                names.add(c.name());
+            }
+        }, e -> {
+            if (e instanceof CallExpr c) {
+                names.add(c.name());
+            }
+        });
+        for (String n : names) {
+            Decl d = fv.resolveRoutine(from, n);
+            if (live.add(d)) {
+                work.push(d);
+            }
+        }
+    }
+
+    private List<Decl> keep(List<Decl> decls, Set<Decl> live) {
+        List<Decl> out = new ArrayList<>(decls.size());
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                if (live.contains(d)) {
+                    out.add(mark(d, new ProcDecl(q.name(), q.params(), q.locals(), keep(q.nested(), live),
+                            q.body())));
+                }
+            } else if (d instanceof FuncDecl f) {
+                if (live.contains(d)) {
+                    out.add(mark(d, new FuncDecl(f.name(), f.params(), f.retType(), f.locals(),
+                            keep(f.nested(), live), f.body())));
+                }
+            } else {
+                out.add(d);
+            }
+        }
+        return out;
+    }
+
+    private List<Decl> unusedLocals(List<Decl> decls, FreeVariables fv) {
+        List<Decl> out = new ArrayList<>(decls.size());
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                out.add(mark(d, new ProcDecl(q.name(), q.params(), used(d, q.locals(), q.body(), fv),
+                        unusedLocals(q.nested(), fv), q.body())));
+            } else if (d instanceof FuncDecl f) {
+                out.add(mark(d, new FuncDecl(f.name(), f.params(), f.retType(), used(d, f.locals(), f.body(), fv),
+                        unusedLocals(f.nested(), fv), f.body())));
+            } else {
+                out.add(d);
+            }
+        }
+        return out;
+    }
+
+    private static List<Decl> used(Decl routine, List<Decl> locals, List<Stmt> body, FreeVariables fv) {
+        Set<String> names = names(body);
+        List<Decl> out = new ArrayList<>(locals.size());
+        for (Decl d : locals) {
+            if (d instanceof VarDecl v) {
+                Binding b = fv.locals(routine).get(v.name());
+                if (!names.contains(v.name()) && !fv.captured(b)) {
+                    continue;
+                }
+            }
+            out.add(d);
+        }
+        return out;
+    }
+
+    private <T> T mark(Object from, T to) {
+        smap.copy(from, to);
+        return to;
+    }
+}
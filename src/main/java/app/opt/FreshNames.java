@@ -0,0 +1,48 @@
+package app.opt;
+
+import app.ast.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Supplies identifiers that occur nowhere in a program, so a pass can introduce variables
+ * without shadowing or being shadowed by any existing declaration.
+ */
+final class FreshNames {
+
+    private final Set<String> used = new HashSet<>();
+
+    FreshNames(Program p) {
+        used.add(p.name());
+        collect(p.decls());
+    }
+
+    private void collect(List<Decl> decls) {
+        for (Decl d : decls) {
+            if (d instanceof VarDecl v) {
+                used.add(v.name());
+            } else if (d instanceof ProcDecl q) {
+                used.add(q.name());
+                q.params().forEach(pa -> used.add(pa.name()));
+                collect(q.locals());
+                collect(q.nested());
+            } else if (d instanceof FuncDecl f) {
+                used.add(f.name());
+                f.params().forEach(pa -> used.add(pa.name()));
+                collect(f.locals());
+                collect(f.nested());
+            }
+        }
+    }
+
+    String fresh(String base) {
+        for (int n = 1;; n++) {
+            String name = base + "_" + n;
+            if (used.add(name)) {
+                return name;
+            }
+        }
+    }
+}
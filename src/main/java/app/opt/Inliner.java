@@ -0,0 +1,566 @@
+package app.opt;
+
+import app.ast.*;
+import app.backend.FreeVariables;
+import app.sem.SourceMap;
+
+import java.util.*;
+
+import static app.opt.Trees.*;
+
+/**
+ * Inlines small non-recursive procedures and functions.
+ *
+ * A function whose body is a single call-free {@code return e} is substituted into the calling
+ * expression. Other small routines are expanded at call statements and where a call is the
+ * whole right-hand side of an assignment, a return or a write: scalar parameters and locals
+ * become fresh variables of the caller (so nothing in the caller can capture them), array
+ * parameters are replaced by the array argument (arrays are passed by reference).
+ *
+ * A routine is never inlined if it is recursive (it can reach itself in the call graph), has
+ * nested routines, or uses a variable or routine that means something else at the call site.
+ */
+public final class Inliner {
+
+    /** Largest routine body, in AST nodes, expanded at a call statement. */
+    private static final int MAX_BODY = 40;
+    /** Largest expression substituted for a call inside an expression. */
+    private static final int MAX_EXPR = 16;
+
+    private final SourceMap smap;
+
+    private FreeVariables fv;
+    private FreshNames names;
+    private final Set<Decl> recursive = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private Decl caller;
+    private List<Decl> fresh;
+    private int count;
+
+    public Inliner(SourceMap smap) {
+        this.smap = smap;
+    }
+
+    /** Number of call sites inlined by the last {@link #inline} run. */
+    public int inlined() {
+        return count;
+    }
+
+    public Program inline(Program p) {
+        fv = FreeVariables.of(p);
+        names = new FreshNames(p);
+        count = 0;
+        findRecursion(p.decls());
+
+        List<Decl> decls = routines(p.decls());
+        enter(null);
+        List<Stmt> body = block(p.body());
+
+        // variables introduced in the module body become globals, declared after the existing ones
+        List<Decl> all = new ArrayList<>(decls.size() + fresh.size());
+        int at = 0;
+        for (Decl d : decls) {
+            if (d instanceof VarDecl) {
+                at = all.size() + 1;
+            }
+            all.add(d);
+        }
+        all.addAll(at, fresh);
+        return mark(p, new Program(p.name(), all, body));
+    }
+
+    private void enter(Decl routine) {
+        caller = routine;
+        fresh = new ArrayList<>();
+    }
+
+    private List<Decl> routines(List<Decl> decls) {
+        List<Decl> out = new ArrayList<>(decls.size());
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                List<Decl> nested = routines(q.nested());
+                enter(d);
+                List<Stmt> body = block(q.body());
+                out.add(mark(d, new ProcDecl(q.name(), q.params(), concat(q.locals(), fresh), nested, body)));
+            } else if (d instanceof FuncDecl f) {
+                List<Decl> nested = routines(f.nested());
+                enter(d);
+                List<Stmt> body = block(f.body());
+                out.add(mark(d, new FuncDecl(f.name(), f.params(), f.retType(), concat(f.locals(), fresh),
+                        nested, body)));
+            } else {
+                out.add(d);
+            }
+        }
+        return out;
+    }
+
+    private static <T> List<T> concat(List<T> a, List<? extends T> b) {
+        if (b.isEmpty()) {
+            return a;
+        }
+        List<T> out = new ArrayList<>(a);
+        out.addAll(b);
+        return out;
+    }
+
+    /* ---------- call graph ---------- */
+
+    private void findRecursion(List<Decl> top) {
+        Map<Decl, Set<Decl>> graph = new IdentityHashMap<>();
+        collect(top, graph);
+        for (Decl d : graph.keySet()) {
+            Set<Decl> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<Decl> work = new ArrayDeque<>(graph.get(d));
+            while (!work.isEmpty()) {
+                Decl x = work.pop();
+                if (x == d) {
+                    recursive.add(d);
+                    break;
+                }
+                if (seen.add(x)) {
+                    work.addAll(graph.get(x));
+                }
+            }
+        }
+    }
+
+    private void collect(List<Decl> decls, Map<Decl, Set<Decl>> graph) {
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl || d instanceof FuncDecl) {
+                Set<Decl> callees = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (String n : calledNames(body(d))) {
+                    callees.add(fv.resolveRoutine(d, n));
+                }
+                graph.put(d, callees);
+                collect(nested(d), graph);
+            }
+        }
+    }
+
+    private static Set<String> calledNames(List<Stmt> body) {
+        Set<String> out = new HashSet<>();
+        visit(body, s -> {
+            if (s instanceof CallStmt c && !isBuiltin(c.name())) {
+                out.add(c.name());
+            }
+        }, e -> {
+            if (e instanceof CallExpr c) {
+                out.add(c.name());
+            }
+        });
+        return out;
+    }
+
+    /* ---------- call sites ---------- */
+
+    private List<Stmt> block(List<Stmt> stmts) {
+        List<Stmt> out = new ArrayList<>(stmts.size());
+        for (Stmt s : stmts) {
+            if (s instanceof CallStmt c && !isBuiltin(c.name())) {
+                List<Expr> args = exprs(c.args());
+                Decl q = fv.resolveRoutine(caller, c.name());
+                if (expandable(q, args)) {
+                    out.addAll(expand(q, args, null));
+                } else {
+                    out.add(args == c.args() ? s : mark(s, new CallStmt(c.name(), args)));
+                }
+            } else if (s instanceof Assign a) {
+                Expr v = expr(a.value());
+                Expr[] result = new Expr[1];
+                if (expandResult(v, out, result)) {
+                    out.add(mark(s, new Assign(a.name(), result[0])));
+                } else {
+                    out.add(v == a.value() ? s : mark(s, new Assign(a.name(), v)));
+                }
+            } else if (s instanceof Return r) {
+                Expr v = expr(r.value());
+                Expr[] result = new Expr[1];
+                if (expandResult(v, out, result)) {
+                    out.add(mark(s, new Return(result[0])));
+                } else {
+                    out.add(v == r.value() ? s : mark(s, new Return(v)));
+                }
+            } else if (s instanceof CallStmt c && !c.name().equals("read") && c.args().size() == 1) {
+                Expr v = expr(c.args().get(0));
+                Expr[] result = new Expr[1];
+                if (expandResult(v, out, result)) {
+                    out.add(mark(s, new CallStmt(c.name(), List.of(result[0]))));
+                } else {
+                    out.add(v == c.args().get(0) ? s : mark(s, new CallStmt(c.name(), List.of(v))));
+                }
+            } else {
+                out.add(stmt(s));
+            }
+        }
+        return out;
+    }
+
+    /** Expands {@code v} into {@code out} if it is a call of an expandable function. */
+    private boolean expandResult(Expr v, List<Stmt> out, Expr[] result) {
+        if (!(v instanceof CallExpr c)) {
+            return false;
+        }
+        Decl q = fv.resolveRoutine(caller, c.name());
+        if (!expandable(q, c.args())) {
+            return false;
+        }
+        out.addAll(expand(q, c.args(), result));
+        return true;
+    }
+
+    private Stmt stmt(Stmt s) {
+        if (s instanceof AssignIndex ai) {
+            return mark(s, new AssignIndex((ArrayAccess) expr(ai.target()), expr(ai.value())));
+        }
+        if (s instanceof CallStmt c) {
+            return mark(s, new CallStmt(c.name(), exprs(c.args())));
+        }
+        if (s instanceof If iff) {
+            List<ElseIf> elseIfs = new ArrayList<>();
+            for (ElseIf e : iff.elseIfs()) {
+                elseIfs.add(new ElseIf(expr(e.cond()), block(e.body())));
+            }
+            return mark(s, new If(expr(iff.cond()), block(iff.thenPart()), elseIfs, block(iff.elsePart())));
+        }
+        if (s instanceof While w) {
+            return mark(s, new While(expr(w.cond()), block(w.body())));
+        }
+        if (s instanceof Repeat r) {
+            return mark(s, new Repeat(block(r.body()), expr(r.cond())));
+        }
+        if (s instanceof For f) {
+            return mark(s, new For(f.var(), expr(f.from()), expr(f.to()), block(f.body())));
+        }
+        return s;
+    }
+
+    private List<Expr> exprs(List<Expr> in) {
+        List<Expr> out = new ArrayList<>(in.size());
+        boolean changed = false;
+        for (Expr e : in) {
+            Expr x = expr(e);
+            changed |= x != e;
+            out.add(x);
+        }
+        return changed ? out : in;
+    }
+
+    private Expr expr(Expr e) {
+        if (e instanceof Paren p) {
+            Expr in = expr(p.inner());
+            return in == p.inner() ? e : mark(e, new Paren(in));
+        }
+        if (e instanceof Unary u) {
+            Expr in = expr(u.value());
+            return in == u.value() ? e : mark(e, new Unary(u.op(), in));
+        }
+        if (e instanceof Binary b) {
+            Expr l = expr(b.left());
+            Expr r = expr(b.right());
+            return l == b.left() && r == b.right() ? e : mark(e, new Binary(b.op(), l, r));
+        }
+        if (e instanceof ArrayAccess a) {
+            List<Expr> idx = exprs(a.indices());
+            return idx == a.indices() ? e : mark(e, new ArrayAccess(a.base(), idx));
+        }
+        if (e instanceof CallExpr c) {
+            List<Expr> args = exprs(c.args());
+            Decl q = fv.resolveRoutine(caller, c.name());
+            if (substitutable(q, args)) {
+                count++;
+                Map<String, Expr> env = new HashMap<>();
+                List<Param> params = params(q);
+                for (int i = 0; i < params.size(); i++) {
+                    env.put(params.get(i).name(), args.get(i));
+                }
+                return copy(((Return) body(q).get(0)).value(), env, Map.of());
+            }
+            return args == c.args() ? e : mark(e, new CallExpr(c.name(), args));
+        }
+        return e;
+    }
+
+    /* ---------- legality and cost ---------- */
+
+    private boolean substitutable(Decl q, List<Expr> args) {
+        if (!(q instanceof FuncDecl f) || recursive.contains(q) || !f.locals().isEmpty() || !f.nested().isEmpty()
+                || f.body().size() != 1 || !(f.body().get(0) instanceof Return r)) {
+            return false;
+        }
+        if (hasCall(r.value()) || cost(r.value()) > MAX_EXPR || !sameMeaning(q)) {
+            return false;
+        }
+        for (int i = 0; i < args.size(); i++) {
+            Param pa = f.params().get(i);
+            Expr a = args.get(i);
+            if (pa.type() instanceof ArrayType) {
+                if (!arrayArgument(a)) {
+                    return false;
+                }
+            } else if (!isLiteral(a) && !(a instanceof Var) && (hasCall(a) || uses(r.value(), pa.name()) != 1)) {
+                // a computed argument is substituted only where it is evaluated exactly once
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean expandable(Decl q, List<Expr> args) {
+        if (recursive.contains(q) || !nested(q).isEmpty() || cost(body(q)) > MAX_BODY || !sameMeaning(q)) {
+            return false;
+        }
+        for (Decl d : locals(q)) {
+            // the temporaries are re-initialised per call; strings and arrays have no literal to do that with
+            if (!(d instanceof VarDecl v) || !(v.type() instanceof Type t) || t == Type.STRING) {
+                return false;
+            }
+        }
+        List<Stmt> body = body(q);
+        int returns = returns(body);
+        if (q instanceof FuncDecl) {
+            if (returns != 1 || !(body.get(body.size() - 1) instanceof Return)) {
+                return false;
+            }
+        } else if (returns > 1 || (returns == 1 && !(body.get(body.size() - 1) instanceof ReturnVoid))) {
+            return false;
+        }
+        Set<String> assigned = assigned(body);
+        List<Param> params = params(q);
+        for (int i = 0; i < params.size(); i++) {
+            if (params.get(i).type() == Type.STRING) {
+                return false;
+            }
+            if (params.get(i).type() instanceof ArrayType) {
+                Expr a = args.get(i);
+                if (!arrayArgument(a) || (assigned.contains(params.get(i).name()) && !(a instanceof Var))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Whole arrays and constant slices can stand in for an array parameter. */
+    private static boolean arrayArgument(Expr a) {
+        while (a instanceof ArrayAccess aa) {
+            if (!aa.indices().stream().allMatch(x -> x instanceof IntLit)) {
+                return false;
+            }
+            a = aa.base();
+        }
+        return a instanceof Var;
+    }
+
+    /** True if every variable and routine {@code q} uses from outside is the same one at the call site. */
+    private boolean sameMeaning(Decl q) {
+        Map<String, FreeVariables.Binding> own = fv.locals(q);
+        for (String n : Trees.names(body(q))) {
+            if (!own.containsKey(n) && fv.resolve(q, n) != fv.resolve(caller, n)) {
+                return false;
+            }
+        }
+        for (String n : calledNames(body(q))) {
+            if (fv.resolveRoutine(q, n) != fv.resolveRoutine(caller, n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int cost(List<Stmt> body) {
+        int[] n = {0};
+        visit(body, s -> n[0]++, e -> n[0]++);
+        return n[0];
+    }
+
+    private static int cost(Expr e) {
+        int[] n = {0};
+        visit(e, x -> n[0]++);
+        return n[0];
+    }
+
+    private static int uses(Expr e, String name) {
+        int[] n = {0};
+        visit(e, x -> {
+            if (x instanceof Var v && v.name().equals(name)) {
+                n[0]++;
+            }
+        });
+        return n[0];
+    }
+
+    private static int returns(List<Stmt> body) {
+        int[] n = {0};
+        visit(body, s -> {
+            if (s instanceof Return || s instanceof ReturnVoid) {
+                n[0]++;
+            }
+        }, e -> {
+        });
+        return n[0];
+    }
+
+    /* ---------- expansion ---------- */
+
+    private List<Stmt> expand(Decl q, List<Expr> args, Expr[] result) {
+        count++;
+        List<Stmt> out = new ArrayList<>();
+        Map<String, Expr> env = new HashMap<>();
+        Map<String, String> rename = new HashMap<>();
+        List<Stmt> body = body(q);
+        Set<String> assigned = assigned(body);
+
+        List<Param> params = params(q);
+        for (int i = 0; i < params.size(); i++) {
+            Param pa = params.get(i);
+            Expr a = args.get(i);
+            if (pa.type() instanceof ArrayType) {
+                if (a instanceof Var v) {
+                    rename.put(pa.name(), v.name());
+                } else {
+                    env.put(pa.name(), a);
+                }
+            } else if (isLiteral(a) && !assigned.contains(pa.name())) {
+                env.put(pa.name(), a);
+            } else {
+                String t = names.fresh(pa.name());
+                fresh.add(new VarDecl(t, pa.type()));
+                rename.put(pa.name(), t);
+                out.add(mark(a, new Assign(t, a)));
+            }
+        }
+        for (Decl d : locals(q)) {
+            VarDecl v = (VarDecl) d;
+            String t = names.fresh(v.name());
+            fresh.add(mark(d, new VarDecl(t, v.type())));
+            rename.put(v.name(), t);
+            out.add(mark(d, new Assign(t, zero((Type) v.type()))));
+        }
+
+        int n = body.size();
+        Stmt last = n > 0 ? body.get(n - 1) : null;
+        if (last instanceof Return || last instanceof ReturnVoid) {
+            n--;
+        }
+        for (int i = 0; i < n; i++) {
+            out.add(copy(body.get(i), env, rename));
+        }
+        if (result != null) {
+            result[0] = copy(((Return) last).value(), env, rename);
+        }
+        return out;
+    }
+
+    private static Expr zero(Type t) {
+        return switch (t) {
+            case REAL ->
+                new RealLit(0.0);
+            case BOOLEAN ->
+                new BoolLit(false);
+            default ->
+                new IntLit(0);
+        };
+    }
+
+    private List<Stmt> copy(List<Stmt> stmts, Map<String, Expr> env, Map<String, String> rename) {
+        List<Stmt> out = new ArrayList<>(stmts.size());
+        for (Stmt s : stmts) {
+            out.add(copy(s, env, rename));
+        }
+        return out;
+    }
+
+    private Stmt copy(Stmt s, Map<String, Expr> env, Map<String, String> rename) {
+        if (s instanceof Assign a) {
+            return mark(s, new Assign(rename.getOrDefault(a.name(), a.name()), copy(a.value(), env, rename)));
+        }
+        if (s instanceof AssignIndex ai) {
+            return mark(s, new AssignIndex((ArrayAccess) copy(ai.target(), env, rename),
+                    copy(ai.value(), env, rename)));
+        }
+        if (s instanceof CallStmt c) {
+            return mark(s, new CallStmt(c.name(), copyAll(c.args(), env, rename)));
+        }
+        if (s instanceof If iff) {
+            List<ElseIf> elseIfs = new ArrayList<>();
+            for (ElseIf e : iff.elseIfs()) {
+                elseIfs.add(new ElseIf(copy(e.cond(), env, rename), copy(e.body(), env, rename)));
+            }
+            return mark(s, new If(copy(iff.cond(), env, rename), copy(iff.thenPart(), env, rename), elseIfs,
+                    copy(iff.elsePart(), env, rename)));
+        }
+        if (s instanceof While w) {
+            return mark(s, new While(copy(w.cond(), env, rename), copy(w.body(), env, rename)));
+        }
+        if (s instanceof Repeat r) {
+            return mark(s, new Repeat(copy(r.body(), env, rename), copy(r.cond(), env, rename)));
+        }
+        if (s instanceof For f) {
+            return mark(s, new For(rename.getOrDefault(f.var(), f.var()), copy(f.from(), env, rename),
+                    copy(f.to(), env, rename), copy(f.body(), env, rename)));
+        }
+        if (s instanceof Return r) {
+            return mark(s, new Return(copy(r.value(), env, rename)));
+        }
+        return s;
+    }
+
+    private List<Expr> copyAll(List<Expr> in, Map<String, Expr> env, Map<String, String> rename) {
+        List<Expr> out = new ArrayList<>(in.size());
+        for (Expr e : in) {
+            out.add(copy(e, env, rename));
+        }
+        return out;
+    }
+
+    private Expr copy(Expr e, Map<String, Expr> env, Map<String, String> rename) {
+        if (e instanceof Var v) {
+            Expr sub = env.get(v.name());
+            if (sub != null) {
+                return sub;
+            }
+            String n = rename.get(v.name());
+            return n == null ? e : mark(e, new Var(n));
+        }
+        if (e instanceof Paren p) {
+            return mark(e, new Paren(copy(p.inner(), env, rename)));
+        }
+        if (e instanceof Unary u) {
+            return mark(e, new Unary(u.op(), copy(u.value(), env, rename)));
+        }
+        if (e instanceof Binary b) {
+            return mark(e, new Binary(b.op(), copy(b.left(), env, rename), copy(b.right(), env, rename)));
+        }
+        if (e instanceof CallExpr c) {
+            return mark(e, new CallExpr(c.name(), copyAll(c.args(), env, rename)));
+        }
+        if (e instanceof ArrayAccess a) {
+            return mark(e, new ArrayAccess(copy(a.base(), env, rename), copyAll(a.indices(), env, rename)));
+        }
+        return e;
+    }
+
+    /* ---------- declarations ---------- */
+
+    private static List<Param> params(Decl d) {
+        return d instanceof ProcDecl q ? q.params() : ((FuncDecl) d).params();
+    }
+
+    private static List<Decl> locals(Decl d) {
+        return d instanceof ProcDecl q ? q.locals() : ((FuncDecl) d).locals();
+    }
+
+    private static List<Decl> nested(Decl d) {
+        return d instanceof ProcDecl q ? q.nested() : ((FuncDecl) d).nested();
+    }
+
+    private static List<Stmt> body(Decl d) {
+        return d instanceof ProcDecl q ? q.body() : ((FuncDecl) d).body();
+    }
+
+    private <T> T mark(Object from, T to) {
+        smap.copy(from, to);
+        return to;
+    }
+}
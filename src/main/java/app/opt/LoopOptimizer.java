@@ -0,0 +1,432 @@
+package app.opt;
+
+import app.ast.*;
+import app.backend.FreeVariables;
+import app.sem.SourceMap;
+import app.sem.TypeUtil;
+
+import java.util.*;
+
+import static app.opt.Trees.*;
+
+/**
+ * Loop-invariant code motion.
+ *
+ * In a loop that calls no user routine, an expression that reads only variables the loop does
+ * not assign has the same value in every iteration. The largest such subexpressions (anything
+ * beyond a variable or a literal) are computed once, into a fresh variable assigned right
+ * before the loop, and the loop reads that variable. Equal expressions share one variable.
+ *
+ * The hoisted value is computed even if the loop body never runs, so only expressions that
+ * cannot fail or have effects are moved: no calls, no array elements (the index may be out of
+ * range), no strings, and {@code /} and {@code mod} only by a positive constant. A value hoisted
+ * out of an inner loop moves on out of the enclosing loops for as long as it stays invariant.
+ *
+ * {@link #inductions} names the variables that step by a constant per iteration; the C backend's
+ * range analysis uses it to bound the counters of WHILE loops.
+ */
+public final class LoopOptimizer {
+
+    /** A variable a loop changes by {@code step} once per iteration. */
+    public record Induction(String var, int step) {
+    }
+
+    private final SourceMap smap;
+
+    private FreeVariables fv;
+    private FreshNames names;
+    private final Map<String, TypeRef> globals = new HashMap<>();
+    /** Assignments this pass placed before a loop; an enclosing loop may move them further out. */
+    private final Set<Stmt> hoisted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private Decl routine;
+    private List<Decl> fresh;
+    private int count;
+
+    public LoopOptimizer(SourceMap smap) {
+        this.smap = smap;
+    }
+
+    /** Number of expressions hoisted by the last {@link #optimize} run. */
+    public int hoisted() {
+        return count;
+    }
+
+    public Program optimize(Program p) {
+        fv = FreeVariables.of(p);
+        names = new FreshNames(p);
+        count = 0;
+        for (Decl d : p.decls()) {
+            if (d instanceof VarDecl v) {
+                globals.put(v.name(), v.type());
+            }
+        }
+
+        List<Decl> decls = routines(p.decls());
+        enter(null);
+        List<Stmt> body = block(p.body());
+
+        // temporaries of the module body become globals, declared after the existing ones
+        List<Decl> all = new ArrayList<>(decls.size() + fresh.size());
+        int at = 0;
+        for (Decl d : decls) {
+            if (d instanceof VarDecl) {
+                at = all.size() + 1;
+            }
+            all.add(d);
+        }
+        all.addAll(at, fresh);
+        return mark(p, new Program(p.name(), all, body));
+    }
+
+    private void enter(Decl r) {
+        routine = r;
+        fresh = new ArrayList<>();
+    }
+
+    private List<Decl> routines(List<Decl> decls) {
+        List<Decl> out = new ArrayList<>(decls.size());
+        for (Decl d : decls) {
+            if (d instanceof ProcDecl q) {
+                List<Decl> nested = routines(q.nested());
+                enter(d);
+                List<Stmt> body = block(q.body());
+                out.add(mark(d, new ProcDecl(q.name(), q.params(), concat(q.locals(), fresh), nested, body)));
+            } else if (d instanceof FuncDecl f) {
+                List<Decl> nested = routines(f.nested());
+                enter(d);
+                List<Stmt> body = block(f.body());
+                out.add(mark(d, new FuncDecl(f.name(), f.params(), f.retType(), concat(f.locals(), fresh),
+                        nested, body)));
+            } else {
+                out.add(d);
+            }
+        }
+        return out;
+    }
+
+    private static <T> List<T> concat(List<T> a, List<? extends T> b) {
+        if (b.isEmpty()) {
+            return a;
+        }
+        List<T> out = new ArrayList<>(a);
+        out.addAll(b);
+        return out;
+    }
+
+    /* ---------- statements ---------- */
+
+    private List<Stmt> block(List<Stmt> stmts) {
+        List<Stmt> out = new ArrayList<>(stmts.size());
+        for (Stmt s : stmts) {
+            if (s instanceof While w) {
+                loop(mark(s, new While(w.cond(), block(w.body()))), out);
+            } else if (s instanceof Repeat r) {
+                loop(mark(s, new Repeat(block(r.body()), r.cond())), out);
+            } else if (s instanceof For f) {
+                loop(mark(s, new For(f.var(), f.from(), f.to(), block(f.body()))), out);
+            } else if (s instanceof If iff) {
+                List<ElseIf> elseIfs = new ArrayList<>();
+                for (ElseIf e : iff.elseIfs()) {
+                    elseIfs.add(new ElseIf(e.cond(), block(e.body())));
+                }
+                out.add(mark(s, new If(iff.cond(), block(iff.thenPart()), elseIfs, block(iff.elsePart()))));
+            } else {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+
+    /** Adds {@code loop} to {@code out}, preceded by the values hoisted out of it. */
+    private void loop(Stmt loop, List<Stmt> out) {
+        if (hasCall(loop)) {
+            // a call may assign any global or captured variable
+            out.add(loop);
+            return;
+        }
+        Set<String> variant = assigned(List.of(loop));
+
+        // assignments hoisted out of inner loops go further out if their value is invariant here too
+        List<Stmt> body = new ArrayList<>();
+        for (Stmt s : body(loop)) {
+            if (hoisted.contains(s) && s instanceof Assign a && invariant(a.value(), variant)) {
+                out.add(s);
+                variant.remove(a.name());
+            } else {
+                body.add(s);
+            }
+        }
+
+        Map<Expr, String> temps = new LinkedHashMap<>();
+        Rewriter rw = new Rewriter(variant, temps);
+        Stmt moved;
+        if (loop instanceof While w) {
+            moved = new While(rw.expr(w.cond()), rw.block(body));
+        } else if (loop instanceof Repeat r) {
+            moved = new Repeat(rw.block(body), rw.expr(r.cond()));
+        } else {
+            For f = (For) loop;
+            moved = new For(f.var(), f.from(), f.to(), rw.block(body));
+        }
+        for (Map.Entry<Expr, String> t : temps.entrySet()) {
+            fresh.add(new VarDecl(t.getValue(), typeOf(t.getKey())));
+            Stmt a = mark(t.getKey(), new Assign(t.getValue(), t.getKey()));
+            hoisted.add(a);
+            out.add(a);
+        }
+        count += temps.size();
+        out.add(mark(loop, moved));
+    }
+
+    private static List<Stmt> body(Stmt loop) {
+        if (loop instanceof While w) {
+            return w.body();
+        }
+        if (loop instanceof Repeat r) {
+            return r.body();
+        }
+        return ((For) loop).body();
+    }
+
+    /** Replaces the invariant subexpressions of one loop by temporaries. */
+    private final class Rewriter {
+
+        private final Set<String> variant;
+        private final Map<Expr, String> temps;
+
+        Rewriter(Set<String> variant, Map<Expr, String> temps) {
+            this.variant = variant;
+            this.temps = temps;
+        }
+
+        List<Stmt> block(List<Stmt> stmts) {
+            List<Stmt> out = new ArrayList<>(stmts.size());
+            for (Stmt s : stmts) {
+                out.add(stmt(s));
+            }
+            return out;
+        }
+
+        private Stmt stmt(Stmt s) {
+            if (s instanceof Assign a) {
+                Expr v = expr(a.value());
+                return v == a.value() ? s : mark(s, new Assign(a.name(), v));
+            }
+            if (s instanceof AssignIndex ai) {
+                Expr t = expr(ai.target());
+                Expr v = expr(ai.value());
+                return t == ai.target() && v == ai.value() ? s : mark(s, new AssignIndex((ArrayAccess) t, v));
+            }
+            if (s instanceof CallStmt c) {
+                List<Expr> args = exprs(c.args());
+                return args == c.args() ? s : mark(s, new CallStmt(c.name(), args));
+            }
+            if (s instanceof If iff) {
+                List<ElseIf> elseIfs = new ArrayList<>();
+                for (ElseIf e : iff.elseIfs()) {
+                    elseIfs.add(new ElseIf(expr(e.cond()), block(e.body())));
+                }
+                return mark(s, new If(expr(iff.cond()), block(iff.thenPart()), elseIfs, block(iff.elsePart())));
+            }
+            if (s instanceof While w) {
+                return mark(s, new While(expr(w.cond()), block(w.body())));
+            }
+            if (s instanceof Repeat r) {
+                return mark(s, new Repeat(block(r.body()), expr(r.cond())));
+            }
+            if (s instanceof For f) {
+                return mark(s, new For(f.var(), expr(f.from()), expr(f.to()), block(f.body())));
+            }
+            if (s instanceof Return r && r.value() != null) {
+                Expr v = expr(r.value());
+                return v == r.value() ? s : mark(s, new Return(v));
+            }
+            return s;
+        }
+
+        private List<Expr> exprs(List<Expr> in) {
+            List<Expr> out = new ArrayList<>(in.size());
+            boolean changed = false;
+            for (Expr e : in) {
+                Expr x = expr(e);
+                changed |= x != e;
+                out.add(x);
+            }
+            return changed ? out : in;
+        }
+
+        Expr expr(Expr e) {
+            if (worthHoisting(e) && invariant(e, variant)) {
+                Expr key = strip(e);
+                String t = temps.computeIfAbsent(key, k -> names.fresh("inv"));
+                return mark(e, new Var(t));
+            }
+            if (e instanceof Paren p) {
+                Expr in = expr(p.inner());
+                return in == p.inner() ? e : mark(e, new Paren(in));
+            }
+            if (e instanceof Unary u) {
+                Expr in = expr(u.value());
+                return in == u.value() ? e : mark(e, new Unary(u.op(), in));
+            }
+            if (e instanceof Binary b) {
+                Expr l = expr(b.left());
+                Expr r = expr(b.right());
+                return l == b.left() && r == b.right() ? e : mark(e, new Binary(b.op(), l, r));
+            }
+            if (e instanceof ArrayAccess a) {
+                List<Expr> idx = exprs(a.indices());
+                return idx == a.indices() ? e : mark(e, new ArrayAccess(a.base(), idx));
+            }
+            return e;
+        }
+    }
+
+    /* ---------- invariance ---------- */
+
+    /** Operations, not just a variable or a literal. */
+    private static boolean worthHoisting(Expr e) {
+        e = strip(e);
+        return e instanceof Binary || e instanceof Unary u && !isLiteral(strip(u.value()));
+    }
+
+    private static Expr strip(Expr e) {
+        while (e instanceof Paren p) {
+            e = p.inner();
+        }
+        return e;
+    }
+
+    /** True if {@code e} has the same value all through the loop and may be evaluated before it. */
+    private boolean invariant(Expr e, Set<String> variant) {
+        return safe(e, variant) && typeOf(e) instanceof Type t && t != Type.STRING;
+    }
+
+    private boolean safe(Expr e, Set<String> variant) {
+        if (isLiteral(e)) {
+            return true;
+        }
+        if (e instanceof Var v) {
+            return !variant.contains(v.name()) && typeOfVar(v.name()) instanceof Type t && t != Type.STRING;
+        }
+        if (e instanceof Paren p) {
+            return safe(p.inner(), variant);
+        }
+        if (e instanceof Unary u) {
+            return safe(u.value(), variant);
+        }
+        if (e instanceof Binary b) {
+            if (b.op() == BinOp.DIV || b.op() == BinOp.MOD) {
+                // x / -1 traps for the smallest integer as x / 0 does for any
+                Expr d = strip(b.right());
+                boolean nonZero = d instanceof IntLit i && i.value() > 0 || d instanceof RealLit r && r.value() != 0;
+                if (!nonZero) {
+                    return false;
+                }
+            }
+            return safe(b.left(), variant) && safe(b.right(), variant);
+        }
+        return false;
+    }
+
+    private TypeRef typeOf(Expr e) {
+        if (e instanceof IntLit) {
+            return Type.INTEGER;
+        }
+        if (e instanceof RealLit) {
+            return Type.REAL;
+        }
+        if (e instanceof BoolLit) {
+            return Type.BOOLEAN;
+        }
+        if (e instanceof Var v) {
+            return typeOfVar(v.name());
+        }
+        if (e instanceof Paren p) {
+            return typeOf(p.inner());
+        }
+        if (e instanceof Unary u) {
+            return TypeUtil.resultOfUnary(u.op(), typeOf(u.value()));
+        }
+        if (e instanceof Binary b) {
+            return TypeUtil.resultOfBinary(b.op(), typeOf(b.left()), typeOf(b.right()));
+        }
+        return null;
+    }
+
+    private TypeRef typeOfVar(String name) {
+        FreeVariables.Binding b = fv.resolve(routine, name);
+        return b != null ? b.type() : globals.get(name);
+    }
+
+    /* ---------- induction variables ---------- */
+
+    /**
+     * The basic induction variables of {@code loop}: the control variable of a FOR loop that
+     * its body leaves alone, and variables the body changes only by one {@code v := v + c} or
+     * {@code v := v - c} with a literal {@code c} at its top level, in a body without
+     * {@code continue}. Assignments made by called routines are not seen.
+     */
+    public static List<Induction> inductions(Stmt loop) {
+        List<Stmt> body = body(loop);
+        Map<String, Integer> writes = new HashMap<>();
+        boolean[] skips = {false};
+        countWrites(body, writes, skips);
+
+        List<Induction> out = new ArrayList<>();
+        if (loop instanceof For f && !writes.containsKey(f.var())) {
+            out.add(new Induction(f.var(), 1));
+        }
+        if (skips[0]) {
+            return out;
+        }
+        for (Stmt s : body) {
+            if (s instanceof Assign a && writes.get(a.name()) == 1) {
+                Integer step = step(a.name(), strip(a.value()));
+                if (step != null) {
+                    out.add(new Induction(a.name(), step));
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Counts the assignments per variable in {@code stmts}; notes a {@code continue} of this loop. */
+    private static void countWrites(List<Stmt> stmts, Map<String, Integer> writes, boolean[] skips) {
+        for (Stmt s : stmts) {
+            if (s instanceof Continue) {
+                skips[0] = true;
+            } else if (s instanceof If iff) {
+                countWrites(iff.thenPart(), writes, skips);
+                iff.elseIfs().forEach(e -> countWrites(e.body(), writes, skips));
+                countWrites(iff.elsePart(), writes, skips);
+            } else {
+                // an inner loop's continue is its own, only its writes count
+                for (String n : assigned(List.of(s))) {
+                    writes.merge(n, s instanceof Assign ? 1 : 2, Integer::sum);
+                }
+            }
+        }
+    }
+
+    private static Integer step(String var, Expr value) {
+        if (!(value instanceof Binary b) || b.op() != BinOp.ADD && b.op() != BinOp.SUB) {
+            return null;
+        }
+        Expr l = strip(b.left());
+        Expr r = strip(b.right());
+        if (l instanceof Var v && v.name().equals(var) && r instanceof IntLit c) {
+            return b.op() == BinOp.ADD ? c.value() : -c.value();
+        }
+        if (b.op() == BinOp.ADD && r instanceof Var v && v.name().equals(var) && l instanceof IntLit c) {
+            return c.value();
+        }
+        return null;
+    }
+
+    private <T> T mark(Object from, T to) {
+        smap.copy(from, to);
+        return to;
+    }
+}
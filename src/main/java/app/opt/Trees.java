@@ -0,0 +1,195 @@
+package app.opt;
+
+import app.ast.*;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** Read-only queries over statement and expression trees shared by the optimization passes. */
+final class Trees {
+
+    private Trees() {
+    }
+
+    static boolean isBuiltin(String name) {
+        return name.equals("write") || name.equals("writeln") || name.equals("read");
+    }
+
+    static boolean isLiteral(Expr e) {
+        return e instanceof IntLit || e instanceof RealLit || e instanceof BoolLit;
+    }
+
+    /** True if evaluating {@code e} calls a user function. */
+    static boolean hasCall(Expr e) {
+        if (e instanceof CallExpr) {
+            return true;
+        }
+        if (e instanceof Paren p) {
+            return hasCall(p.inner());
+        }
+        if (e instanceof Unary u) {
+            return hasCall(u.value());
+        }
+        if (e instanceof Binary b) {
+            return hasCall(b.left()) || hasCall(b.right());
+        }
+        if (e instanceof ArrayAccess a) {
+            return hasCall(a.base()) || a.indices().stream().anyMatch(Trees::hasCall);
+        }
+        return false;
+    }
+
+    /** True if executing {@code stmts} may call a user procedure or function. */
+    static boolean hasCall(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            if (hasCall(s)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean hasCall(Stmt s) {
+        if (s instanceof Assign a) {
+            return hasCall(a.value());
+        }
+        if (s instanceof AssignIndex ai) {
+            return hasCall(ai.target()) || hasCall(ai.value());
+        }
+        if (s instanceof CallStmt c) {
+            return !isBuiltin(c.name()) || c.args().stream().anyMatch(Trees::hasCall);
+        }
+        if (s instanceof If iff) {
+            if (hasCall(iff.cond()) || hasCall(iff.thenPart()) || hasCall(iff.elsePart())) {
+                return true;
+            }
+            for (ElseIf e : iff.elseIfs()) {
+                if (hasCall(e.cond()) || hasCall(e.body())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (s instanceof While w) {
+            return hasCall(w.cond()) || hasCall(w.body());
+        }
+        if (s instanceof Repeat r) {
+            return hasCall(r.cond()) || hasCall(r.body());
+        }
+        if (s instanceof For f) {
+            return hasCall(f.from()) || hasCall(f.to()) || hasCall(f.body());
+        }
+        if (s instanceof Return r) {
+            return hasCall(r.value());
+        }
+        return false;
+    }
+
+    /** Names of the scalar variables {@code stmts} may assign directly (not through calls). */
+    static Set<String> assigned(List<Stmt> stmts) {
+        Set<String> out = new HashSet<>();
+        assigned(stmts, out);
+        return out;
+    }
+
+    private static void assigned(List<Stmt> stmts, Set<String> out) {
+        for (Stmt s : stmts) {
+            if (s instanceof Assign a) {
+                out.add(a.name());
+            } else if (s instanceof CallStmt c && c.name().equals("read")
+                    && !c.args().isEmpty() && c.args().get(0) instanceof Var v) {
+                out.add(v.name());
+            } else if (s instanceof If iff) {
+                assigned(iff.thenPart(), out);
+                iff.elseIfs().forEach(e -> assigned(e.body(), out));
+                assigned(iff.elsePart(), out);
+            } else if (s instanceof While w) {
+                assigned(w.body(), out);
+            } else if (s instanceof Repeat r) {
+                assigned(r.body(), out);
+            } else if (s instanceof For f) {
+                out.add(f.var());
+                assigned(f.body(), out);
+            }
+        }
+    }
+
+    /** True if control never falls off the end of {@code stmts}. */
+    static boolean jumpsAway(List<Stmt> stmts) {
+        if (stmts.isEmpty()) {
+            return false;
+        }
+        Stmt last = stmts.get(stmts.size() - 1);
+        return last instanceof Return || last instanceof ReturnVoid
+                || last instanceof Break || last instanceof Continue;
+    }
+
+    /** Calls {@code onStmt} for every statement and {@code onExpr} for every expression, outermost first. */
+    static void visit(List<Stmt> stmts, Consumer<Stmt> onStmt, Consumer<Expr> onExpr) {
+        for (Stmt s : stmts) {
+            onStmt.accept(s);
+            if (s instanceof Assign a) {
+                visit(a.value(), onExpr);
+            } else if (s instanceof AssignIndex ai) {
+                visit(ai.target(), onExpr);
+                visit(ai.value(), onExpr);
+            } else if (s instanceof CallStmt c) {
+                c.args().forEach(x -> visit(x, onExpr));
+            } else if (s instanceof If iff) {
+                visit(iff.cond(), onExpr);
+                visit(iff.thenPart(), onStmt, onExpr);
+                for (ElseIf e : iff.elseIfs()) {
+                    visit(e.cond(), onExpr);
+                    visit(e.body(), onStmt, onExpr);
+                }
+                visit(iff.elsePart(), onStmt, onExpr);
+            } else if (s instanceof While w) {
+                visit(w.cond(), onExpr);
+                visit(w.body(), onStmt, onExpr);
+            } else if (s instanceof Repeat r) {
+                visit(r.body(), onStmt, onExpr);
+                visit(r.cond(), onExpr);
+            } else if (s instanceof For f) {
+                visit(f.from(), onExpr);
+                visit(f.to(), onExpr);
+                visit(f.body(), onStmt, onExpr);
+            } else if (s instanceof Return r) {
+                visit(r.value(), onExpr);
+            }
+        }
+    }
+
+    static void visit(Expr e, Consumer<Expr> onExpr) {
+        onExpr.accept(e);
+        if (e instanceof Paren p) {
+            visit(p.inner(), onExpr);
+        } else if (e instanceof Unary u) {
+            visit(u.value(), onExpr);
+        } else if (e instanceof Binary b) {
+            visit(b.left(), onExpr);
+            visit(b.right(), onExpr);
+        } else if (e instanceof CallExpr c) {
+            c.args().forEach(x -> visit(x, onExpr));
+        } else if (e instanceof ArrayAccess a) {
+            visit(a.base(), onExpr);
+            a.indices().forEach(x -> visit(x, onExpr));
+        }
+    }
+
+    /** Names of all variables {@code stmts} mention: read, assigned or used as a loop variable. */
+    static Set<String> names(List<Stmt> stmts) {
+        Set<String> out = new HashSet<>();
+        visit(stmts, s -> {
+            if (s instanceof Assign a) {
+                out.add(a.name());
+            } else if (s instanceof For f) {
+                out.add(f.var());
+            }
+        }, e -> {
+            if (e instanceof Var v) {
+                out.add(v.name());
+            }
+        });
+        return out;
+    }
+}
@@ -0,0 +1,278 @@
+package app.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * I/O for the in-process backends, byte-for-byte compatible with what the C backend emits:
+ * integers as printf("%d"), reals as printf("%g"), booleans as TRUE/FALSE, and reads with the
+ * same skipping/failure behaviour as scanf("%d"), scanf("%lf") and __read_bool.
+ *
+ * Strings are byte strings, one char per byte (see {@link #cString}), and output is written as
+ * those bytes rather than through the platform charset, so it matches C under any locale.
+ */
+public final class Console {
+
+    private static final MathContext G_PRECISION = new MathContext(6, RoundingMode.HALF_EVEN);
+
+    private final InputStream in;
+    private final PrintStream out;
+    private final StringBuilder buf = new StringBuilder(8192);
+    private byte[] bytes = new byte[8192];
+    private int peeked = -2;
+
+    public Console(InputStream in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public void writeInt(int v) {
+        buf.append(v);
+        flushIfFull();
+    }
+
+    public void writeReal(double v) {
+        buf.append(formatReal(v));
+        flushIfFull();
+    }
+
+    public void writeBool(boolean v) {
+        buf.append(v ? "TRUE" : "FALSE");
+        flushIfFull();
+    }
+
+    public void writeString(String s) {
+        buf.append(s == null ? "(null)" : s);
+        flushIfFull();
+    }
+
+    public void newline() {
+        buf.append('\n');
+        flushIfFull();
+    }
+
+    public void flush() {
+        int n = buf.length();
+        if (n > 0) {
+            if (bytes.length < n) {
+                bytes = new byte[n];
+            }
+            for (int i = 0; i < n; i++) {
+                bytes[i] = (byte) buf.charAt(i);
+            }
+            out.write(bytes, 0, n);
+            buf.setLength(0);
+        }
+        out.flush();
+    }
+
+    private void flushIfFull() {
+        if (buf.length() >= 8192) {
+            flush();
+        }
+    }
+
+    /** scanf("%d"); returns null when no integer could be read (target stays unchanged). */
+    public Integer readInt() {
+        flush();
+        int c = skipSpace();
+        boolean neg = false;
+        if (c == '+' || c == '-') {
+            neg = c == '-';
+            next();
+            c = peek();
+        }
+        if (c < '0' || c > '9') {
+            return null;
+        }
+        long v = 0;
+        while (c >= '0' && c <= '9') {
+            v = Math.min(v * 10 + (c - '0'), (long) Integer.MAX_VALUE + 1);
+            next();
+            c = peek();
+        }
+        return (int) (neg ? -v : v);
+    }
+
+    /** scanf("%lf"); returns null when no number could be read. */
+    public Double readReal() {
+        flush();
+        int c = skipSpace();
+        StringBuilder sb = new StringBuilder();
+        if (c == '+' || c == '-') {
+            sb.append((char) next());
+            c = peek();
+        }
+        int digits = 0;
+        while (c >= '0' && c <= '9') {
+            sb.append((char) next());
+            c = peek();
+            digits++;
+        }
+        if (c == '.') {
+            sb.append((char) next());
+            c = peek();
+            while (c >= '0' && c <= '9') {
+                sb.append((char) next());
+                c = peek();
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        if (c == 'e' || c == 'E') {
+            StringBuilder exp = new StringBuilder().append((char) next());
+            c = peek();
+            if (c == '+' || c == '-') {
+                exp.append((char) next());
+                c = peek();
+            }
+            if (c >= '0' && c <= '9') {
+                while (c >= '0' && c <= '9') {
+                    exp.append((char) next());
+                    c = peek();
+                }
+                sb.append(exp);
+            }
+        }
+        return Double.parseDouble(sb.toString());
+    }
+
+    /** __read_bool: scanf("%7s") and compare with "TRUE"; null when nothing was read. */
+    public Boolean readBool() {
+        flush();
+        int c = skipSpace();
+        if (c < 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(7);
+        while (c >= 0 && !Character.isWhitespace(c) && sb.length() < 7) {
+            sb.append((char) next());
+            c = peek();
+        }
+        return sb.toString().equals("TRUE");
+    }
+
+    private int skipSpace() {
+        int c = peek();
+        while (c >= 0 && Character.isWhitespace(c)) {
+            next();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() {
+        if (peeked == -2) {
+            try {
+                peeked = in.read();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return peeked;
+    }
+
+    private int next() {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+
+    /** printf("%g", v) as glibc prints it. */
+    public static String formatReal(double v) {
+        if (Double.isNaN(v)) {
+            return (Double.doubleToRawLongBits(v) < 0) ? "-nan" : "nan";
+        }
+        if (Double.isInfinite(v)) {
+            return v > 0 ? "inf" : "-inf";
+        }
+        if (v == 0) {
+            return (1 / v < 0) ? "-0" : "0";
+        }
+        BigDecimal bd = new BigDecimal(v).round(G_PRECISION);
+        int exp = bd.precision() - bd.scale() - 1;
+        if (exp < -4 || exp >= 6) {
+            String digits = bd.unscaledValue().abs().toString().replaceFirst("0+$", "");
+            StringBuilder sb = new StringBuilder();
+            if (bd.signum() < 0) {
+                sb.append('-');
+            }
+            sb.append(digits.charAt(0));
+            if (digits.length() > 1) {
+                sb.append('.').append(digits, 1, digits.length());
+            }
+            sb.append('e').append(exp < 0 ? '-' : '+');
+            int ax = Math.abs(exp);
+            if (ax < 10) {
+                sb.append('0');
+            }
+            return sb.append(ax).toString();
+        }
+        return bd.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The runtime value of a string literal once a C compiler has processed its escapes, as the
+     * bytes the C program holds: other characters in their UTF-8 encoding (the generated C file is
+     * UTF-8), escapes as the byte they denote, each byte as one char.
+     */
+    public static String cString(String literal) {
+        if (literal.chars().allMatch(c -> c < 0x80 && c != '\\')) {
+            return literal;
+        }
+        StringBuilder sb = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c >= 0x80) {
+                int cp = literal.codePointAt(i);
+                for (byte b : Character.toString(cp).getBytes(StandardCharsets.UTF_8)) {
+                    sb.append((char) (b & 0xFF));
+                }
+                i += Character.charCount(cp) - 1;
+                continue;
+            }
+            if (c != '\\' || i + 1 == literal.length()) {
+                sb.append(c);
+                continue;
+            }
+            char e = literal.charAt(++i);
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r' -> sb.append('\r');
+                case 'a' -> sb.append('\u0007');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'v' -> sb.append('\u000B');
+                case 'x' -> {
+                    int v = 0;
+                    while (i + 1 < literal.length() && Character.digit(literal.charAt(i + 1), 16) >= 0) {
+                        v = v * 16 + Character.digit(literal.charAt(++i), 16);
+                    }
+                    sb.append((char) (v & 0xFF));
+                }
+                default -> {
+                    if (e >= '0' && e <= '7') {
+                        int v = e - '0';
+                        for (int k = 0; k < 2 && i + 1 < literal.length()
+                                && literal.charAt(i + 1) >= '0' && literal.charAt(i + 1) <= '7'; k++) {
+                            v = v * 8 + (literal.charAt(++i) - '0');
+                        }
+                        sb.append((char) (v & 0xFF));
+                    } else {
+                        sb.append(e);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
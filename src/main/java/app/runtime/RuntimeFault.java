@@ -0,0 +1,11 @@
+package app.runtime;
+
+/** A fault the compiled C program would crash on (integer division by zero, bad index, ...). */
+public final class RuntimeFault extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RuntimeFault(String msg) {
+        super(msg);
+    }
+}
@@ -2,32 +2,46 @@ package app.sem;
 
 import java.util.*;
 
+/**
+ * Nested scopes. Each name maps to the chain of symbols it currently denotes, innermost
+ * first, so a lookup is one hash probe however deep the nesting; pop() unlinks the names
+ * its scope declared.
+ */
 public final class Env {
-    private final Deque<Map<String, Symbol>> stack = new ArrayDeque<>();
+    private record Entry(Symbol symbol, int depth, Entry shadowed) {}
 
-    public Env() { push(); } 
+    private final Map<String, Entry> visible = new HashMap<>();
+    private final Deque<List<String>> scopes = new ArrayDeque<>();
 
-    public void push() { stack.push(new HashMap<>()); }
-    public void pop()  { 
-        if (stack.isEmpty()) throw new IllegalStateException("Env.pop(): empty stack");
-        stack.pop(); 
+    public Env() { push(); }
+
+    public void push() { scopes.push(new ArrayList<>()); }
+    public void pop()  {
+        if (scopes.isEmpty()) throw new IllegalStateException("Env.pop(): empty stack");
+        for (String name : scopes.pop()) {
+            Entry e = visible.get(name);
+            if (e.shadowed() == null) visible.remove(name);
+            else visible.put(name, e.shadowed());
+        }
     }
 
     public boolean declare(Symbol s) {
-        if (stack.isEmpty()) throw new IllegalStateException("Env.declare(): no scope");
-        return stack.peek().putIfAbsent(s.name(), s) == null;
+        if (scopes.isEmpty()) throw new IllegalStateException("Env.declare(): no scope");
+        Entry e = visible.get(s.name());
+        if (e != null && e.depth() == scopes.size()) return false;
+        visible.put(s.name(), new Entry(s, scopes.size(), e));
+        scopes.peek().add(s.name());
+        return true;
     }
 
     public Symbol lookup(String name) {
-        for (var scope : stack) {
-            var s = scope.get(name);
-            if (s != null) return s;
-        }
-        return null;
+        Entry e = visible.get(name);
+        return e != null ? e.symbol() : null;
     }
 
     public boolean isDeclaredHere(String name) {
-        if (stack.isEmpty()) throw new IllegalStateException("Env.isDeclaredHere(): no scope");
-        return stack.peek().containsKey(name);
+        if (scopes.isEmpty()) throw new IllegalStateException("Env.isDeclaredHere(): no scope");
+        Entry e = visible.get(name);
+        return e != null && e.depth() == scopes.size();
     }
 }
@@ -1,5 +1,6 @@
 package app.sem;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,12 +15,16 @@ public final class ErrorReporter {
     public boolean hasErrors() { return !errors.isEmpty(); }
 
     public void dump() {
+        dump(System.err);
+    }
+
+    public void dump(PrintStream err) {
         if (errors.isEmpty()) return;
         if (!headerPrinted) {
-            System.err.println("=== SEMANTIC ERRORS ===");
+            err.println("=== SEMANTIC ERRORS ===");
             headerPrinted = true;
         }
-        errors.forEach(System.err::println);
+        errors.forEach(err::println);
     }
 
     public List<String> all() { return errors; }
@@ -1,17 +1,30 @@
 package app.sem;
 
 import org.antlr.v4.runtime.ParserRuleContext;
-import java.util.IdentityHashMap;
-import java.util.Map;
 import org.antlr.v4.runtime.Token;
 
+/**
+ * Source position of each AST node, keyed by node identity (equal records at different
+ * places keep their own positions).
+ *
+ * Built for modules with millions of nodes: an open-addressing table over two parallel
+ * arrays, the nodes and their line/column packed into one {@code long}. The file name is
+ * stored once and a {@link Span} is only created when a position is asked for, which
+ * happens on the error paths.
+ */
 public final class SourceMap {
 
+    private static final int INITIAL_CAPACITY = 256;
+
     private final String file;
-    private final Map<Object, Span> map = new IdentityHashMap<>();
+    private final Span unknown;
+    private Object[] nodes = new Object[INITIAL_CAPACITY];
+    private long[] positions = new long[INITIAL_CAPACITY];
+    private int size;
 
     public SourceMap(String file) {
-        this.file = file;
+        this.file = file != null ? file : "unknown";
+        this.unknown = new Span(this.file, 1, 1);
     }
 
     public SourceMap() {
@@ -19,18 +32,67 @@ public final class SourceMap {
     }
 
     public void put(Object astNode, ParserRuleContext ctx) {
-        Token t = ctx.getStart();
-        map.put(astNode, new Span(file != null ? file : "unknown",
-                t.getLine(), t.getCharPositionInLine() + 1));
+        put(astNode, ctx.getStart());
     }
 
     public void put(Object astNode, Token tok) {
-        map.put(astNode, new Span(file != null ? file : "unknown",
-                tok.getLine(), tok.getCharPositionInLine() + 1));
+        put(astNode, pack(tok.getLine(), tok.getCharPositionInLine() + 1));
+    }
+
+    /** Gives a node built by a rewriting pass the position of the node it replaces. */
+    public void copy(Object from, Object to) {
+        int i = slot(from);
+        if (nodes[i] != null) {
+            put(to, positions[i]);
+        }
     }
 
     public Span get(Object astNode) {
-        return map.getOrDefault(astNode,
-                new Span(file != null ? file : "unknown", 1, 1));
+        int i = slot(astNode);
+        if (nodes[i] == null) {
+            return unknown;
+        }
+        long p = positions[i];
+        return new Span(file, (int) (p >>> 32), (int) p);
+    }
+
+    private static long pack(int line, int col) {
+        return (long) line << 32 | (col & 0xffffffffL);
+    }
+
+    private void put(Object node, long position) {
+        int i = slot(node);
+        positions[i] = position;
+        if (nodes[i] == null) {
+            nodes[i] = node;
+            if (++size * 3 > nodes.length * 2) {
+                grow();
+            }
+        }
+    }
+
+    /** Index of {@code node}, or of the empty slot where it would go. */
+    private int slot(Object node) {
+        int mask = nodes.length - 1;
+        int h = System.identityHashCode(node);
+        int i = (h ^ h >>> 16) & mask;
+        while (nodes[i] != null && nodes[i] != node) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        Object[] oldNodes = nodes;
+        long[] oldPositions = positions;
+        nodes = new Object[oldNodes.length * 2];
+        positions = new long[oldNodes.length * 2];
+        for (int j = 0; j < oldNodes.length; j++) {
+            if (oldNodes[j] != null) {
+                int i = slot(oldNodes[j]);
+                nodes[i] = oldNodes[j];
+                positions[i] = oldPositions[j];
+            }
+        }
     }
 }
@@ -0,0 +1,103 @@
+package app.server;
+
+import app.CompilerDriver;
+import app.PhaseStats;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for {@link CompileServer}. Prints the server's diagnostics, runs the returned
+ * executable locally and exits with the same codes as the plain CLI (2/3/4/5 or the program's
+ * own exit code). Without a running server it falls back to an in-process compile, and so it
+ * does for programs run by the interpreter, the VM or the JVM backend, which execute inside the
+ * compiler and need this process's stdin and stdout.
+ */
+public final class CompileClient {
+
+    private CompileClient() {
+    }
+
+    public static int run(String[] args) throws Exception {
+        Path socket = Protocol.defaultSocket();
+        boolean stop = false;
+        boolean clear = false;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                socket = Path.of(args[++i]);
+            } else if (args[i].equals("--stop")) {
+                stop = true;
+            } else if (args[i].equals("--clear-cache")) {
+                clear = true;
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        Path cwd = Path.of("").toAbsolutePath();
+        if (!stop && !clear && Protocol.runsInProcess(rest)) {
+            return compileHere(cwd, rest);
+        }
+
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+            ch.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException ex) {
+            if (stop || clear) {
+                System.err.println("No compile server at " + socket);
+                return CompilerDriver.EXIT_USAGE;
+            }
+            return compileHere(cwd, rest);
+        }
+
+        int rc;
+        String exe;
+        try (ch;
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch)))) {
+            out.writeInt(Protocol.MAGIC);
+            if (stop || clear) {
+                out.writeInt(stop ? Protocol.STOP : Protocol.CLEAR);
+                out.flush();
+                return in.readInt();
+            }
+            out.writeInt(Protocol.COMPILE);
+            Protocol.writeString(out, cwd.toString());
+            out.writeInt(rest.size());
+            for (String a : rest) {
+                Protocol.writeString(out, a);
+            }
+            out.flush();
+
+            rc = in.readInt();
+            System.out.write(Protocol.readBytes(in));
+            System.out.flush();
+            System.err.write(Protocol.readBytes(in));
+            System.err.flush();
+            exe = Protocol.readString(in);
+        }
+
+        if (exe.isEmpty()) {
+            return rc;
+        }
+        Path exePath = Path.of(exe);
+        try {
+            return CompilerDriver.INHERIT_IO.launch(exePath, new PhaseStats());
+        } finally {
+            Files.deleteIfExists(exePath);
+        }
+    }
+
+    private static int compileHere(Path cwd, List<String> args) throws Exception {
+        return new CompilerDriver(cwd, System.in, System.out, System.err, CompilerDriver.INHERIT_IO)
+                .run(args.toArray(String[]::new));
+    }
+}
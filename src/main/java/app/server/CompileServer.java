@@ -0,0 +1,252 @@
+package app.server;
+
+import app.CompilerDriver;
+import app.ParserCache;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running compile daemon listening on a Unix-domain socket.
+ *
+ * The JVM, the ANTLR ATN/DFA state and the JIT-compiled pipeline stay resident between
+ * requests, so a compile costs only the work for the module itself. Executables are not run
+ * here: they are copied into a private directory and handed back to the client, which runs
+ * them with its own stdio. Requests that would run the program inside this JVM (interpreter,
+ * VM, JVM backend) are refused; the client handles those itself.
+ *
+ * {@code --warm-up} fills the parser's DFA cache before the first request is accepted;
+ * {@code --dfa-limit N} empties it after any compile that leaves more than N states in it.
+ *
+ * A server refuses to start while another one answers on its socket; a socket file nothing
+ * listens on, left by a server that died, is replaced.
+ */
+public final class CompileServer {
+
+    private final Path socket;
+    private final Path runDir;
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ob0-compile");
+        t.setDaemon(true);
+        return t;
+    });
+    private final int dfaLimit;
+    private volatile ServerSocketChannel server;
+
+    public CompileServer(Path socket, int dfaLimit) throws IOException {
+        this.socket = socket;
+        this.dfaLimit = dfaLimit;
+        this.runDir = Files.createTempDirectory("ob0_daemon_");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rc = run(args);
+        if (rc != 0) {
+            System.exit(rc);
+        }
+    }
+
+    /** Serves until stopped; returns the process exit code. */
+    public static int run(String[] args) throws Exception {
+        Path socket = Protocol.defaultSocket();
+        boolean warmUp = false;
+        int dfaLimit = Integer.MAX_VALUE;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                socket = Path.of(args[++i]);
+            } else if (args[i].equals("--warm-up")) {
+                warmUp = true;
+            } else if (args[i].equals("--dfa-limit") && i + 1 < args.length) {
+                dfaLimit = Integer.parseInt(args[++i]);
+            }
+        }
+        if (warmUp) {
+            ParserCache.warmUp();
+        }
+        return new CompileServer(socket, dfaLimit).serve();
+    }
+
+    public int serve() throws IOException {
+        ServerSocketChannel ch;
+        try {
+            ch = listen();
+        } catch (IOException ex) {
+            System.err.println("Cannot listen on " + socket + ": " + ex.getMessage());
+            deleteRunDir();
+            return CompilerDriver.EXIT_USAGE;
+        }
+        if (ch == null) {
+            System.err.println("A compile server is already listening on " + socket);
+            deleteRunDir();
+            return CompilerDriver.EXIT_USAGE;
+        }
+        // from here on the socket file is ours, to delete when we stop
+        try (ch) {
+            server = ch;
+            System.err.println("Oberon-0 compile server listening on " + socket);
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = ch.accept();
+                } catch (AsynchronousCloseException closed) {
+                    break;
+                }
+                pool.execute(() -> handle(client));
+            }
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(socket);
+            deleteRunDir();
+        }
+        return 0;
+    }
+
+    /** A channel bound to the socket, or null if another server answers there. */
+    private ServerSocketChannel listen() throws IOException {
+        if (!claim()) {
+            return null;
+        }
+        ServerSocketChannel ch = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            ch.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException ex) {
+            ch.close();
+            throw ex;
+        }
+        return ch;
+    }
+
+    /**
+     * Makes the socket path free to bind: false if a server answers there. A socket nothing
+     * listens on is deleted; anything else at the path is left alone, and binding then fails.
+     */
+    private boolean claim() throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ex) {
+            return true;
+        }
+        if (!attrs.isOther()) {
+            return true;
+        }
+        try (SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ch.connect(UnixDomainSocketAddress.of(socket));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(ch));
+            out.writeInt(Protocol.MAGIC);
+            out.writeInt(Protocol.PING);
+            out.flush();
+            new DataInputStream(Channels.newInputStream(ch)).readInt();
+            return false;
+        } catch (ConnectException stale) {
+            Files.deleteIfExists(socket);
+            return true;
+        } catch (IOException ex) {
+            // something accepted the connection: not ours to take over
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)))) {
+            if (in.readInt() != Protocol.MAGIC) {
+                return;
+            }
+            int kind = in.readInt();
+            if (kind == Protocol.STOP) {
+                reply(out, 0, new byte[0], new byte[0], "");
+                server.close();
+                return;
+            }
+            if (kind == Protocol.PING) {
+                reply(out, 0, new byte[0], new byte[0], "");
+                return;
+            }
+            if (kind == Protocol.CLEAR) {
+                ParserCache.clear();
+                reply(out, 0, new byte[0], new byte[0], "");
+                return;
+            }
+            Path cwd = Path.of(Protocol.readString(in));
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = Protocol.readString(in);
+            }
+            compile(cwd, args, out);
+        } catch (IOException ex) {
+            System.err.println("compile server: " + ex.getMessage());
+        }
+    }
+
+    private void compile(Path cwd, String[] args, DataOutputStream reply) throws IOException {
+        if (Protocol.runsInProcess(List.of(args))) {
+            byte[] msg = ("--interpret, --vm and --jvm run the program in the client; add --no-run"
+                    + " to only check it here\n").getBytes(StandardCharsets.UTF_8);
+            reply(reply, CompilerDriver.EXIT_USAGE, new byte[0], msg, "");
+            return;
+        }
+        ByteArrayOutputStream outBuf = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBuf = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outBuf, true, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(errBuf, true, StandardCharsets.UTF_8);
+
+        Path[] exe = new Path[1];
+        CompilerDriver.Launcher handOver = (built, stats) -> {
+            Path kept = Files.createTempFile(runDir, built.getFileName().toString() + "_", "");
+            // copy, not move: the executable may live in the shared build cache
+            Files.copy(built, kept, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            exe[0] = kept;
+            return 0;
+        };
+
+        int rc;
+        try {
+            rc = new CompilerDriver(cwd, InputStream.nullInputStream(), out, err, handOver).run(args);
+        } catch (Exception ex) {
+            err.println(ex);
+            rc = CompilerDriver.EXIT_USAGE;
+        }
+        if (ParserCache.states() > dfaLimit) {
+            ParserCache.clear();
+        }
+        out.flush();
+        err.flush();
+        reply(reply, rc, outBuf.toByteArray(), errBuf.toByteArray(), exe[0] == null ? "" : exe[0].toString());
+    }
+
+    private static void reply(DataOutputStream out, int rc, byte[] stdout, byte[] stderr, String exe) throws IOException {
+        out.writeInt(rc);
+        Protocol.writeBytes(out, stdout);
+        Protocol.writeBytes(out, stderr);
+        Protocol.writeString(out, exe);
+        out.flush();
+    }
+
+    private void deleteRunDir() {
+        try (var files = Files.list(runDir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(runDir);
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package app.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Framing used between {@link CompileClient} and {@link CompileServer}.
+ *
+ * request  := MAGIC kind cwd argc arg*   (kind = COMPILE)
+ *           | MAGIC kind                   (kind = STOP | CLEAR | PING)
+ * response := exitCode stdout stderr exe  (exe = "" when there is nothing to run)
+ *
+ * Strings and byte blocks are length-prefixed (int) UTF-8.
+ */
+final class Protocol {
+
+    static final int MAGIC = 0x0B0C0001;
+
+    static final int COMPILE = 1;
+    static final int STOP = 2;
+    static final int CLEAR = 3;
+    static final int PING = 4;
+
+    private Protocol() {
+    }
+
+    static Path defaultSocket() {
+        String user = System.getProperty("user.name", "user").replaceAll("[^A-Za-z0-9_.-]", "_");
+        return Path.of(System.getProperty("java.io.tmpdir"), "oberon0-" + user + ".sock");
+    }
+
+    /**
+     * True if {@code args} run the program inside the compiler's JVM (interpreter, VM, JVM
+     * backend). Such a program needs the client's stdio, so the client runs it itself.
+     */
+    static boolean runsInProcess(List<String> args) {
+        if (args.contains("--no-run")) {
+            return false;
+        }
+        return args.contains("--interpret") || args.contains("--vm") || args.contains("--vm-dump")
+                || args.contains("--jvm");
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            throw new IOException("negative frame length: " + n);
+        }
+        return in.readNBytes(n);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+}
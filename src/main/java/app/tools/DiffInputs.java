@@ -0,0 +1,100 @@
+package app.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Inputs shared by the differential checks: source files, generated modules and random
+ * mutants of them.
+ */
+final class DiffInputs {
+
+    record Source(String name, String text) {
+    }
+
+    private static final String NOISE = "\"()*.eE+-0123456789_:=<>#;\n\r\t ?!{}é😀";
+
+    private static final String[] WORDS = {"begin", "end", "if", "then", "elseif", "else", "while", "do",
+        "repeat", "until", "for", "to", "var", "procedure", "function", "return", "break", "continue",
+        "array", "of", "not", "and", "or", "mod", ";", ",", ":", ":=", "(", ")", "[", "]", ".", "=", "+", "x",
+        "1", "2.5", "\"s\""};
+
+    private DiffInputs() {
+    }
+
+    /** The {@code .ob0} files under {@code paths} followed by {@code seeds} generated modules. */
+    static List<Source> load(List<String> paths, int seeds) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String arg : paths) {
+            Path p = Path.of(arg);
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> walk = Files.walk(p)) {
+                    walk.filter(f -> f.toString().endsWith(".ob0")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(p);
+            }
+        }
+        List<Source> inputs = new ArrayList<>();
+        for (Path f : files) {
+            inputs.add(new Source(f.toString(), Files.readString(f)));
+        }
+        ProgramGenerator.Config d = ProgramGenerator.Config.defaults();
+        for (int seed = 1; seed <= seeds; seed++) {
+            ProgramGenerator.Config c = new ProgramGenerator.Config(seed, d.statements(), d.exprDepth(),
+                    d.procedures(), d.nesting(), d.arrayDims(), d.identifiers(), d.blockDepth());
+            inputs.add(new Source("<generated seed " + seed + ">", ProgramGenerator.generate(c)));
+        }
+        return inputs;
+    }
+
+    /** One to three character edits: delete, insert a noise character, or truncate. */
+    static String mutate(String text, Random rnd) {
+        StringBuilder sb = new StringBuilder(text);
+        int edits = 1 + rnd.nextInt(3);
+        for (int e = 0; e < edits && sb.length() > 0; e++) {
+            int at = rnd.nextInt(sb.length());
+            switch (rnd.nextInt(3)) {
+                case 0 ->
+                    sb.deleteCharAt(at);
+                case 1 -> {
+                    int cp = NOISE.codePointAt(NOISE.offsetByCodePoints(0, rnd.nextInt(NOISE.codePointCount(0, NOISE.length()))));
+                    sb.insert(at, Character.toChars(cp));
+                }
+                default ->
+                    sb.setLength(at);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One or two edits on whole words: delete the word at a random position or insert a
+     * keyword, operator or literal there. These keep the lexer happy and hit the parser.
+     */
+    static String mutateWords(String text, Random rnd) {
+        StringBuilder sb = new StringBuilder(text);
+        int edits = 1 + rnd.nextInt(2);
+        for (int e = 0; e < edits && sb.length() > 0; e++) {
+            int at = rnd.nextInt(sb.length());
+            while (at > 0 && !Character.isWhitespace(sb.charAt(at - 1))) {
+                at--;
+            }
+            if (rnd.nextBoolean()) {
+                int end = at;
+                while (end < sb.length() && !Character.isWhitespace(sb.charAt(end))) {
+                    end++;
+                }
+                sb.delete(at, end);
+            } else {
+                sb.insert(at, WORDS[rnd.nextInt(WORDS.length)] + " ");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,127 @@
+package app.tools;
+
+import org.antlr.v4.runtime.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import app.frontend.FastLexer;
+import app.parser.Oberon0Lexer;
+
+/**
+ * Differential check of {@link FastLexer} against the generated {@link Oberon0Lexer}: both
+ * lex the same inputs and every token (type, channel, offsets, line, column, text) and every
+ * error message must agree.
+ *
+ * Inputs are the given files/directories, {@code --seeds N} generated modules and, for each
+ * of those, {@code --mutants N} copies with random character edits that exercise the error
+ * paths (unterminated strings and comments, stray characters, broken numbers).
+ */
+public final class LexerDiff {
+
+    public static final String USAGE = "Usage: --lexer-diff [--seeds N] [--mutants N] <file|dir>...";
+
+    private record Lexed(List<String> tokens, List<String> errors) {
+    }
+
+    private LexerDiff() {
+    }
+
+    public static int run(String[] args) throws IOException {
+        int seeds = 20;
+        int mutants = 50;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seeds" ->
+                        seeds = Integer.parseInt(args[++i]);
+                    case "--mutants" ->
+                        mutants = Integer.parseInt(args[++i]);
+                    default ->
+                        paths.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            System.err.println(USAGE);
+            return 1;
+        }
+
+        List<DiffInputs.Source> inputs = DiffInputs.load(paths, seeds);
+        Random rnd = new Random(1);
+        int checked = 0;
+        long tokens = 0;
+        int errors = 0;
+        int diffs = 0;
+        for (DiffInputs.Source in : inputs) {
+            for (int m = 0; m <= mutants; m++) {
+                String name = m == 0 ? in.name() : in.name() + " mutant " + m;
+                String text = m == 0 ? in.text() : DiffInputs.mutate(in.text(), rnd);
+                Lexed antlr = antlr(text);
+                Lexed fast = fast(text);
+                checked++;
+                tokens += antlr.tokens().size();
+                errors += antlr.errors().size();
+                String diff = compare(antlr, fast);
+                if (diff != null) {
+                    diffs++;
+                    System.out.println(name + ": " + diff);
+                }
+            }
+        }
+        System.out.printf("Lexer diff: %d inputs, %d tokens, %d lexer errors, %d differences%n",
+                checked, tokens, errors, diffs);
+        return diffs == 0 ? 0 : 1;
+    }
+
+    private static Lexed antlr(String text) {
+        List<String> errors = new ArrayList<>();
+        Oberon0Lexer lexer = new Oberon0Lexer(CharStreams.fromString(text));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(collect(errors));
+        return new Lexed(drain(lexer), errors);
+    }
+
+    private static Lexed fast(String text) {
+        List<String> errors = new ArrayList<>();
+        return new Lexed(drain(new FastLexer(CharStreams.fromString(text), collect(errors))), errors);
+    }
+
+    private static BaseErrorListener collect(List<String> errors) {
+        return new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> r, Object sym, int line, int col, String msg, RecognitionException e) {
+                errors.add(line + ":" + col + " " + msg);
+            }
+        };
+    }
+
+    private static List<String> drain(TokenSource src) {
+        List<String> out = new ArrayList<>();
+        Token t;
+        do {
+            t = src.nextToken();
+            out.add(t.getType() + "/" + t.getChannel() + " " + t.getStartIndex() + ".." + t.getStopIndex()
+                    + " " + t.getLine() + ":" + t.getCharPositionInLine() + " '" + t.getText() + "'");
+        } while (t.getType() != Token.EOF);
+        return out;
+    }
+
+    private static String compare(Lexed a, Lexed b) {
+        int n = Math.min(a.tokens().size(), b.tokens().size());
+        for (int i = 0; i < n; i++) {
+            if (!a.tokens().get(i).equals(b.tokens().get(i))) {
+                return "token " + i + ": antlr " + a.tokens().get(i) + ", fast " + b.tokens().get(i);
+            }
+        }
+        if (a.tokens().size() != b.tokens().size()) {
+            return "token count: antlr " + a.tokens().size() + ", fast " + b.tokens().size();
+        }
+        if (!a.errors().equals(b.errors())) {
+            return "errors: antlr " + a.errors() + ", fast " + b.errors();
+        }
+        return null;
+    }
+}
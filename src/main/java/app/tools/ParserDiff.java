@@ -0,0 +1,135 @@
+package app.tools;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.IOException;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import app.CompilerDriver;
+import app.ast.Program;
+import app.frontend.AstBuilder;
+import app.frontend.AstParser;
+import app.sem.SourceMap;
+
+/**
+ * Differential check of {@link AstParser} against ANTLR plus {@link AstBuilder}. Whenever
+ * the recursive-descent parser accepts an input, ANTLR must accept it too and both ASTs must
+ * be equal, node for node, with the same source position on every node. Inputs it gives up
+ * on are only counted: the driver parses those with ANTLR anyway.
+ *
+ * Inputs are the same as for {@link LexerDiff}; half of the mutants edit whole words instead
+ * of characters, which gets past the lexer and exercises the parser.
+ */
+public final class ParserDiff {
+
+    public static final String USAGE = "Usage: --parser-diff [--seeds N] [--mutants N] <file|dir>...";
+
+    private ParserDiff() {
+    }
+
+    public static int run(String[] args) throws IOException {
+        int seeds = 20;
+        int mutants = 50;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seeds" ->
+                        seeds = Integer.parseInt(args[++i]);
+                    case "--mutants" ->
+                        mutants = Integer.parseInt(args[++i]);
+                    default ->
+                        paths.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            System.err.println(USAGE);
+            return 1;
+        }
+
+        List<DiffInputs.Source> inputs = DiffInputs.load(paths, seeds);
+        Random rnd = new Random(1);
+        int checked = 0;
+        int valid = 0;
+        int gaveUp = 0;
+        int diffs = 0;
+        for (DiffInputs.Source in : inputs) {
+            for (int m = 0; m <= mutants; m++) {
+                String name = m == 0 ? in.name() : in.name() + " mutant " + m;
+                String text = m == 0 ? in.text()
+                        : m % 2 == 0 ? DiffInputs.mutate(in.text(), rnd) : DiffInputs.mutateWords(in.text(), rnd);
+                SourceMap antlrMap = new SourceMap(name);
+                Program antlr = antlr(text, antlrMap);
+                SourceMap rdMap = new SourceMap(name);
+                Program rd = AstParser.parse(CompilerDriver.tokenSource(CharStreams.fromString(text), false), rdMap);
+                checked++;
+                if (antlr != null) {
+                    valid++;
+                }
+                String diff = null;
+                if (rd == null) {
+                    if (antlr != null) {
+                        gaveUp++;
+                    }
+                } else if (antlr == null) {
+                    diff = "accepted, ANTLR rejects it";
+                } else if (!antlr.equals(rd)) {
+                    diff = "different AST";
+                } else {
+                    diff = compareSpans(antlr, antlrMap, rd, rdMap);
+                }
+                if (diff != null) {
+                    diffs++;
+                    System.out.println(name + ": " + diff);
+                }
+            }
+        }
+        System.out.printf("Parser diff: %d inputs, %d valid, %d left to ANTLR, %d differences%n",
+                checked, valid, gaveUp, diffs);
+        return diffs == 0 ? 0 : 1;
+    }
+
+    private static Program antlr(String text, SourceMap smap) {
+        try {
+            return new AstBuilder(smap).build(CompilerDriver.parse(CharStreams.fromString(text)));
+        } catch (IllegalStateException | NumberFormatException ex) {
+            // syntax errors too: ParseCancellationException is an IllegalStateException
+            return null;
+        }
+    }
+
+    private static String compareSpans(Program a, SourceMap aMap, Program b, SourceMap bMap) {
+        List<Object> as = new ArrayList<>();
+        List<Object> bs = new ArrayList<>();
+        nodes(a, as);
+        nodes(b, bs);
+        for (int i = 0; i < as.size(); i++) {
+            if (!aMap.get(as.get(i)).equals(bMap.get(bs.get(i)))) {
+                return "position of " + as.get(i).getClass().getSimpleName() + " " + as.get(i)
+                        + ": antlr " + aMap.get(as.get(i)) + ", rd " + bMap.get(bs.get(i));
+            }
+        }
+        return null;
+    }
+
+    /** All AST records below {@code node}, depth first; equal trees give parallel lists. */
+    private static void nodes(Object node, List<Object> out) {
+        if (node instanceof List<?> list) {
+            for (Object o : list) {
+                nodes(o, out);
+            }
+        } else if (node instanceof Record r) {
+            out.add(r);
+            for (RecordComponent c : r.getClass().getRecordComponents()) {
+                try {
+                    nodes(c.getAccessor().invoke(r), out);
+                } catch (ReflectiveOperationException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }
+    }
+}
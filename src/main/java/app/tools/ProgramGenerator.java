@@ -0,0 +1,647 @@
+package app.tools;
+
+import app.ast.ArrayType;
+import app.ast.Type;
+import app.ast.TypeRef;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Generates random, type-correct Oberon-0 modules for benchmarks and stress tests.
+ *
+ * The output depends only on the {@link Config}, so a seed reproduces a program exactly. Programs
+ * also terminate and run without faults: loops have small constant trip counts, the call graph is
+ * acyclic (a routine only calls routines completed before it), divisors are non-zero literals,
+ * array indices are in range and integer results are kept small with {@code mod}. Functions have
+ * no side effects outside their own frame, so the unspecified operand evaluation order of the C
+ * backend cannot show; every backend must print the same output.
+ *
+ * <pre>
+ * java -cp ... app.Oberon0Compiler --generate --seed 7 --statements 100000 --nesting 4 &gt; big.ob0
+ * </pre>
+ */
+public final class ProgramGenerator {
+
+    /**
+     * @param statements  statements in the whole module (approximately)
+     * @param exprDepth   maximum operator nesting in an expression
+     * @param procedures  top-level procedures and functions
+     * @param nesting     procedure nesting depth (1 = no nested routines)
+     * @param arrayDims   maximum number of array dimensions
+     * @param identifiers global scalar variables; each routine gets a quarter as many locals
+     * @param blockDepth  maximum nesting of if/while/repeat/for
+     */
+    public record Config(long seed, int statements, int exprDepth, int procedures, int nesting,
+            int arrayDims, int identifiers, int blockDepth) {
+
+        public static Config defaults() {
+            return new Config(1, 200, 3, 10, 2, 2, 20, 3);
+        }
+    }
+
+    public static final String USAGE = "Usage: --generate [--seed N] [--statements N] [--expr-depth N] [--procedures N]"
+            + " [--nesting N] [--array-dims N] [--identifiers N] [--block-depth N] [--out FILE]";
+
+    private static final Type[] SCALARS = {Type.INTEGER, Type.REAL, Type.BOOLEAN, Type.STRING};
+    private static final Type[] PARAM_SCALARS = {Type.INTEGER, Type.REAL, Type.BOOLEAN};
+
+    private record Sym(String name, TypeRef type) {
+    }
+
+    /** A completed procedure ({@code ret == null}) or function. */
+    private record Routine(String name, List<TypeRef> params, Type ret) {
+    }
+
+    /** An enclosing for loop whose variable may index arrays of at least {@code max + 1} elements. */
+    private record Counter(String name, int max) {
+    }
+
+    private static final class Scope {
+
+        final Scope parent;
+        final List<Sym> vars = new ArrayList<>();
+        final List<Routine> routines = new ArrayList<>();
+        final List<String> counters = new ArrayList<>();
+        final boolean function;
+        int budget;
+
+        Scope(Scope parent, boolean function) {
+            this.parent = parent;
+            this.function = function;
+        }
+
+        /** Inside a function: no output, no calls and no writes outside the function's frame. */
+        boolean pure() {
+            return function || parent != null && parent.pure();
+        }
+
+        /** Scalars a statement here may assign: those of the enclosing function's frame if pure. */
+        List<Sym> writable() {
+            List<Sym> out = new ArrayList<>();
+            for (Scope x = this; x != null; x = x.function ? null : x.parent) {
+                for (Sym v : x.vars) {
+                    if (v.type() instanceof Type) {
+                        out.add(v);
+                    }
+                }
+            }
+            return out;
+        }
+    }
+
+    private final Config cfg;
+    private final Random rnd;
+    private final StringBuilder out = new StringBuilder();
+    private final List<ArrayType> arrayTypes = new ArrayList<>();
+    private final Set<String> readOnly = new HashSet<>();
+    private final Set<String> counters = new HashSet<>();
+    private final Deque<Counter> forCounters = new ArrayDeque<>();
+    private int ids;
+    private int perBody;
+
+    public ProgramGenerator(Config cfg) {
+        this.cfg = cfg;
+        this.rnd = new Random(cfg.seed());
+    }
+
+    public static String generate(Config cfg) {
+        return new ProgramGenerator(cfg).module();
+    }
+
+    private String module() {
+        int routines = Math.max(0, cfg.procedures()) * Math.max(1, cfg.nesting());
+        perBody = Math.max(1, cfg.statements() / (routines + 1));
+
+        for (int d = 1; d <= Math.max(0, cfg.arrayDims()); d++) {
+            for (Type elem : new Type[]{Type.INTEGER, Type.REAL}) {
+                List<Integer> dims = new ArrayList<>();
+                for (int k = 0; k < d; k++) {
+                    dims.add(2 + rnd.nextInt(4));
+                }
+                arrayTypes.add(new ArrayType(elem, dims));
+            }
+        }
+
+        Scope global = new Scope(null, false);
+        for (int i = 0; i < cfg.identifiers(); i++) {
+            global.vars.add(new Sym("g" + (++ids), pick(SCALARS)));
+        }
+        for (ArrayType t : arrayTypes) {
+            global.vars.add(new Sym("m" + (++ids), t));
+        }
+        addCounters(global);
+
+        out.append("module gen;\n");
+        vars(global.vars, "");
+        out.append('\n');
+        for (int i = 0; i < cfg.procedures(); i++) {
+            routine(global, 1, "");
+        }
+
+        out.append("begin\n");
+        List<String> body = new ArrayList<>();
+        init(global.vars, body, "  ");
+        for (Routine r : global.routines) {
+            if (r.ret() == null) {
+                body.add("  " + call(global, r));
+            }
+        }
+        global.budget = perBody;
+        body.addAll(statements(global, "  ", 0, 0, false));
+        out.append(String.join(";\n", body)).append("\nend gen.\n");
+        return out.toString();
+    }
+
+    private void addCounters(Scope s) {
+        for (int i = 0; i < Math.max(0, cfg.blockDepth()); i++) {
+            String k = "k" + (++ids);
+            s.counters.add(k);
+            counters.add(k);
+            s.vars.add(new Sym(k, Type.INTEGER));
+        }
+    }
+
+    private void vars(List<Sym> vars, String indent) {
+        if (vars.isEmpty()) {
+            return;
+        }
+        out.append(indent).append("var");
+        for (Sym v : vars) {
+            out.append(' ').append(v.name()).append(": ").append(show(v.type())).append(';');
+        }
+        out.append('\n');
+    }
+
+    /** Assigns every variable in {@code vars} a value, so no backend prints uninitialised memory. */
+    private void init(List<Sym> vars, List<String> body, String indent) {
+        for (Sym v : vars) {
+            if (v.type() instanceof Type t) {
+                body.add(indent + v.name() + " := " + literal(t));
+            } else {
+                ArrayType a = (ArrayType) v.type();
+                StringBuilder idx = new StringBuilder();
+                fill(a, 0, v.name(), idx, body, indent);
+            }
+        }
+    }
+
+    private void fill(ArrayType a, int dim, String name, StringBuilder idx, List<String> body, String indent) {
+        if (dim == a.dimensions().size()) {
+            body.add(indent + name + "[" + idx + "] := " + literal((Type) a.elementType()));
+            return;
+        }
+        for (int i = 0; i < a.dimensions().get(dim); i++) {
+            int len = idx.length();
+            idx.append(dim == 0 ? "" : ", ").append(i);
+            fill(a, dim + 1, name, idx, body, indent);
+            idx.setLength(len);
+        }
+    }
+
+    /* ---------- routines ---------- */
+
+    private void routine(Scope parent, int level, String indent) {
+        boolean function = rnd.nextInt(3) == 0;
+        String name = (function ? "f" : "p") + (++ids);
+        Scope s = new Scope(parent, function);
+
+        List<TypeRef> params = new ArrayList<>();
+        List<String> formals = new ArrayList<>();
+        for (int i = rnd.nextInt(4); i > 0; i--) {
+            TypeRef t = !arrayTypes.isEmpty() && rnd.nextInt(5) == 0 ? pick(arrayTypes) : pick(PARAM_SCALARS);
+            String pn = "a" + (++ids);
+            params.add(t);
+            formals.add(pn + ": " + show(t));
+            s.vars.add(new Sym(pn, t));
+        }
+        Type ret = function ? pick(PARAM_SCALARS) : null;
+
+        List<Sym> locals = new ArrayList<>();
+        for (int i = Math.max(1, cfg.identifiers() / 4); i > 0; i--) {
+            locals.add(new Sym("l" + (++ids), pick(SCALARS)));
+        }
+        s.vars.addAll(locals);
+        int before = s.vars.size();
+        addCounters(s);
+        locals.addAll(s.vars.subList(before, s.vars.size()));
+
+        out.append(indent).append(function ? "function " : "procedure ").append(name)
+                .append('(').append(String.join("; ", formals)).append(')');
+        if (function) {
+            out.append(": ").append(show(ret));
+        }
+        out.append(";\n");
+        vars(locals, indent + "  ");
+        if (level < cfg.nesting()) {
+            routine(s, level + 1, indent + "  ");
+        }
+
+        String in = indent + "  ";
+        out.append(indent).append("begin\n");
+        List<String> body = new ArrayList<>();
+        init(locals, body, in);
+        if (!s.pure()) {
+            List<Routine> callable = procedures(s);
+            if (!callable.isEmpty()) {
+                body.add(in + call(s, pick(callable)));
+            }
+        }
+        s.budget = perBody;
+        body.addAll(statements(s, in, 0, 0, false));
+        if (function) {
+            body.add(in + "return " + expr(s, ret, cfg.exprDepth()));
+        }
+        out.append(String.join(";\n", body)).append('\n');
+        out.append(indent).append("end ").append(name).append(";\n\n");
+
+        parent.routines.add(new Routine(name, params, ret));
+    }
+
+    private List<Routine> procedures(Scope s) {
+        List<Routine> out = new ArrayList<>();
+        for (Scope x = s; x != null; x = x.parent) {
+            for (Routine r : x.routines) {
+                if (r.ret() == null) {
+                    out.add(r);
+                }
+            }
+        }
+        return out;
+    }
+
+    private String call(Scope s, Routine r) {
+        List<String> args = new ArrayList<>();
+        for (TypeRef t : r.params()) {
+            args.add(t instanceof Type base ? expr(s, base, cfg.exprDepth() - 1) : pick(vars(s, t)).name());
+        }
+        return r.name() + "(" + String.join(", ", args) + ")";
+    }
+
+    /* ---------- statements ---------- */
+
+    /**
+     * Statements until the scope's budget runs out (at depth 0, the top level of a body) or a short
+     * random run (inside a compound statement). {@code loop} is the nesting of loops in this body;
+     * {@code jumps} allows break/continue, which only appear directly inside a for loop.
+     */
+    private List<String> statements(Scope s, String indent, int depth, int loop, boolean jumps) {
+        List<String> out = new ArrayList<>();
+        int n = depth == 0 ? Integer.MAX_VALUE : 1 + rnd.nextInt(4);
+        while (n-- > 0 && s.budget > 0) {
+            out.add(indent + statement(s, indent, depth, loop, jumps));
+        }
+        if (out.isEmpty()) {
+            out.add(indent + assignment(s));
+        }
+        return out;
+    }
+
+    private String statement(Scope s, String indent, int depth, int loop, boolean jumps) {
+        s.budget--;
+        boolean nest = depth < cfg.blockDepth() && loop < s.counters.size();
+        String in = indent + "  ";
+        switch (rnd.nextInt(12)) {
+            case 0, 1:
+                if (nest) {
+                    StringBuilder sb = new StringBuilder("if ").append(expr(s, Type.BOOLEAN, cfg.exprDepth()))
+                            .append(" then\n").append(block(s, in, depth + 1, loop, jumps));
+                    if (rnd.nextBoolean()) {
+                        sb.append('\n').append(indent).append("elseif ").append(expr(s, Type.BOOLEAN, cfg.exprDepth()))
+                                .append(" then\n").append(block(s, in, depth + 1, loop, jumps));
+                    }
+                    if (rnd.nextBoolean()) {
+                        sb.append('\n').append(indent).append("else\n").append(block(s, in, depth + 1, loop, jumps));
+                    }
+                    return sb.append('\n').append(indent).append("end").toString();
+                }
+                break;
+            case 2:
+                if (nest) {
+                    String k = s.counters.get(loop);
+                    int max = rnd.nextInt(4);
+                    readOnly.add(k);
+                    forCounters.push(new Counter(k, max));
+                    String body = block(s, in, depth + 1, loop + 1, true);
+                    forCounters.pop();
+                    readOnly.remove(k);
+                    return "for " + k + " := 0 to " + max + " do\n" + body + "\n" + indent + "end";
+                }
+                break;
+            case 3:
+                if (nest) {
+                    String k = s.counters.get(loop);
+                    int max = 1 + rnd.nextInt(3);
+                    readOnly.add(k);
+                    String body = block(s, in, depth + 1, loop + 1, false);
+                    readOnly.remove(k);
+                    if (rnd.nextBoolean()) {
+                        return k + " := 0;\n" + indent + "while " + k + " < " + max + " do\n" + body + ";\n"
+                                + in + k + " := " + k + " + 1\n" + indent + "end";
+                    }
+                    return k + " := 0;\n" + indent + "repeat\n" + body + ";\n"
+                            + in + k + " := " + k + " + 1\n" + indent + "until " + k + " >= " + max;
+                }
+                break;
+            case 4:
+                if (!s.pure()) {
+                    return "writeln(" + expr(s, pick(SCALARS), cfg.exprDepth()) + ")";
+                }
+                break;
+            case 5, 6: {
+                List<Sym> arrays = arrays(s);
+                if (!arrays.isEmpty() && !s.pure()) {
+                    Sym a = pick(arrays);
+                    ArrayType t = (ArrayType) a.type();
+                    return element(a.name(), t) + " := " + wrap((Type) t.elementType(),
+                            expr(s, (Type) t.elementType(), cfg.exprDepth()));
+                }
+                break;
+            }
+            case 7:
+                if (jumps) {
+                    return "if " + expr(s, Type.BOOLEAN, 1) + " then " + (rnd.nextBoolean() ? "break" : "continue")
+                            + " end";
+                }
+                break;
+            default:
+                break;
+        }
+        return assignment(s);
+    }
+
+    private String block(Scope s, String indent, int depth, int loop, boolean jumps) {
+        return String.join(";\n", statements(s, indent, depth, loop, jumps));
+    }
+
+    private String assignment(Scope s) {
+        List<Sym> targets = new ArrayList<>();
+        for (Sym v : s.writable()) {
+            // another body's loop counter may be live in a loop that is running this code
+            boolean foreignCounter = counters.contains(v.name()) && !s.counters.contains(v.name());
+            if (v.type() instanceof Type && !readOnly.contains(v.name()) && !foreignCounter) {
+                targets.add(v);
+            }
+        }
+        Sym v = pick(targets);
+        Type t = (Type) v.type();
+        return v.name() + " := " + wrap(t, expr(s, t, cfg.exprDepth()));
+    }
+
+    /** Keeps integers small so repeated assignment in loops cannot overflow. */
+    private static String wrap(Type t, String e) {
+        return t == Type.INTEGER && !isAtom(e) ? "(" + e + ") mod 1000" : e;
+    }
+
+    private static boolean isAtom(String e) {
+        for (int i = 0; i < e.length(); i++) {
+            if (!Character.isLetterOrDigit(e.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* ---------- expressions ---------- */
+
+    private String expr(Scope s, Type t, int depth) {
+        if (depth <= 0 || rnd.nextInt(4) == 0) {
+            return leaf(s, t);
+        }
+        int d = depth - 1;
+        switch (t) {
+            case INTEGER:
+                switch (rnd.nextInt(7)) {
+                    case 0:
+                        return "(" + expr(s, t, d) + " + " + expr(s, t, d) + ")";
+                    case 1:
+                        return "(" + expr(s, t, d) + " - " + expr(s, t, d) + ")";
+                    case 2:
+                        return "((" + expr(s, t, d) + " * " + (1 + rnd.nextInt(9)) + ") mod 1009)";
+                    case 3:
+                        return "(" + expr(s, t, d) + (rnd.nextBoolean() ? " / " : " mod ") + (1 + rnd.nextInt(9)) + ")";
+                    case 4:
+                        return "-(" + expr(s, t, d) + ")";
+                    case 5: {
+                        String c = callExpr(s, t);
+                        if (c != null) {
+                            return c;
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+                return leaf(s, t);
+            case REAL:
+                switch (rnd.nextInt(6)) {
+                    case 0:
+                        return "(" + expr(s, t, d) + " + " + expr(s, t, d) + ")";
+                    case 1:
+                        return "(" + expr(s, t, d) + " - " + expr(s, t, d) + ")";
+                    case 2:
+                        return "(" + expr(s, t, d) + " * 0.5)";
+                    case 3:
+                        return "(" + expr(s, t, d) + " / 4.0)";
+                    case 4: {
+                        String c = callExpr(s, t);
+                        if (c != null) {
+                            return c;
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+                return leaf(s, t);
+            case BOOLEAN:
+                switch (rnd.nextInt(6)) {
+                    case 0:
+                        return "(" + expr(s, t, d) + (rnd.nextBoolean() ? " and " : " or ") + expr(s, t, d) + ")";
+                    case 1:
+                        return "not (" + expr(s, t, d) + ")";
+                    case 2, 3: {
+                        Type operand = rnd.nextBoolean() ? Type.INTEGER : Type.REAL;
+                        String[] ops = {" < ", " <= ", " > ", " >= ", " = ", " # "};
+                        return "(" + expr(s, operand, d) + pick(ops) + expr(s, operand, d) + ")";
+                    }
+                    case 4: {
+                        String c = callExpr(s, t);
+                        if (c != null) {
+                            return c;
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+                return leaf(s, t);
+            default:
+                return leaf(s, t);
+        }
+    }
+
+    /** A call of a visible function returning {@code t}; functions themselves never call. */
+    private String callExpr(Scope s, Type t) {
+        if (s.pure()) {
+            return null;
+        }
+        List<Routine> fs = new ArrayList<>();
+        for (Scope x = s; x != null; x = x.parent) {
+            for (Routine r : x.routines) {
+                if (r.ret() == t) {
+                    fs.add(r);
+                }
+            }
+        }
+        return fs.isEmpty() ? null : call(s, pick(fs));
+    }
+
+    private String leaf(Scope s, Type t) {
+        List<String> choices = new ArrayList<>();
+        for (Sym v : visible(s)) {
+            if (v.type() == t) {
+                choices.add(v.name());
+            } else if (v.type() instanceof ArrayType a && a.elementType() == t && rnd.nextInt(4) == 0) {
+                choices.add(element(v.name(), a));
+            }
+        }
+        if (choices.isEmpty() || rnd.nextInt(3) == 0) {
+            return literal(t);
+        }
+        return pick(choices);
+    }
+
+    private String element(String name, ArrayType t) {
+        StringBuilder sb = new StringBuilder(name).append('[');
+        for (int i = 0; i < t.dimensions().size(); i++) {
+            int dim = t.dimensions().get(i);
+            if (i > 0) {
+                sb.append(", ");
+            }
+            List<String> counters = new ArrayList<>();
+            for (Counter c : forCounters) {
+                if (c.max() < dim) {
+                    counters.add(c.name());
+                }
+            }
+            sb.append(!counters.isEmpty() && rnd.nextBoolean() ? pick(counters) : Integer.toString(rnd.nextInt(dim)));
+        }
+        return sb.append(']').toString();
+    }
+
+    private String literal(Type t) {
+        return switch (t) {
+            case INTEGER ->
+                Integer.toString(rnd.nextInt(100));
+            case REAL ->
+                rnd.nextInt(10) + "." + rnd.nextInt(100);
+            case BOOLEAN ->
+                rnd.nextBoolean() ? "TRUE" : "FALSE";
+            case STRING ->
+                "\"s" + rnd.nextInt(1000) + "\"";
+        };
+    }
+
+    /* ---------- helpers ---------- */
+
+    private static List<Sym> visible(Scope s) {
+        List<Sym> out = new ArrayList<>();
+        for (Scope x = s; x != null; x = x.parent) {
+            out.addAll(x.vars);
+        }
+        return out;
+    }
+
+    private static List<Sym> vars(Scope s, TypeRef t) {
+        List<Sym> out = new ArrayList<>();
+        for (Sym v : visible(s)) {
+            if (v.type().equals(t)) {
+                out.add(v);
+            }
+        }
+        return out;
+    }
+
+    private static List<Sym> arrays(Scope s) {
+        List<Sym> out = new ArrayList<>();
+        for (Sym v : visible(s)) {
+            if (v.type() instanceof ArrayType) {
+                out.add(v);
+            }
+        }
+        return out;
+    }
+
+    private static String show(TypeRef t) {
+        if (t instanceof ArrayType a) {
+            StringBuilder sb = new StringBuilder("array[");
+            for (int i = 0; i < a.dimensions().size(); i++) {
+                sb.append(i == 0 ? "" : ", ").append(a.dimensions().get(i));
+            }
+            return sb.append("] of ").append(show(a.elementType())).toString();
+        }
+        return ((Type) t).name().toLowerCase();
+    }
+
+    private <T> T pick(List<T> xs) {
+        return xs.get(rnd.nextInt(xs.size()));
+    }
+
+    private <T> T pick(T[] xs) {
+        return xs[rnd.nextInt(xs.length)];
+    }
+
+    /* ---------- command line ---------- */
+
+    public static int run(String[] args) throws IOException {
+        Config d = Config.defaults();
+        long seed = d.seed();
+        int statements = d.statements(), exprDepth = d.exprDepth(), procedures = d.procedures();
+        int nesting = d.nesting(), arrayDims = d.arrayDims(), identifiers = d.identifiers();
+        int blockDepth = d.blockDepth();
+        String outFile = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seed" ->
+                        seed = Long.parseLong(args[++i]);
+                    case "--statements" ->
+                        statements = Integer.parseInt(args[++i]);
+                    case "--expr-depth" ->
+                        exprDepth = Integer.parseInt(args[++i]);
+                    case "--procedures" ->
+                        procedures = Integer.parseInt(args[++i]);
+                    case "--nesting" ->
+                        nesting = Integer.parseInt(args[++i]);
+                    case "--array-dims" ->
+                        arrayDims = Integer.parseInt(args[++i]);
+                    case "--identifiers" ->
+                        identifiers = Integer.parseInt(args[++i]);
+                    case "--block-depth" ->
+                        blockDepth = Integer.parseInt(args[++i]);
+                    case "--out" ->
+                        outFile = args[++i];
+                    default -> {
+                        System.err.println("Unknown option: " + args[i]);
+                        System.err.println(USAGE);
+                        return 1;
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            System.err.println(USAGE);
+            return 1;
+        }
+        String src = generate(new Config(seed, statements, exprDepth, procedures, nesting, arrayDims,
+                Math.max(1, identifiers), blockDepth));
+        if (outFile == null) {
+            System.out.print(src);
+        } else {
+            Files.writeString(Path.of(outFile), src);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,37 @@
+package app.vm;
+
+/**
+ * A lowered module: one code array for all routines plus per-routine entry points and frame
+ * sizes. Routine 0 is the module body; its frame (based at slot 0) holds the globals.
+ *
+ * Frame layout: slot 0 is the static link (base of the lexically enclosing frame), then the
+ * parameters, locals and temporaries. Every slot has a scalar half (int/bool/real bits, or an
+ * array offset) and a reference half (array storage or string).
+ */
+public record Chunk(int[] code, long[] reals, String[] strings,
+                    int[] entry, int[] frameSize, String[] names) {
+
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < entry.length; f++) {
+            int end = code.length;
+            for (int g = 0; g < entry.length; g++) {
+                if (entry[g] > entry[f] && entry[g] < end) {
+                    end = entry[g];
+                }
+            }
+            sb.append(names[f]).append(" (frame ").append(frameSize[f]).append("):\n");
+            for (int pc = entry[f]; pc < end;) {
+                int op = code[pc];
+                int width = Op.WIDTH[op] + (op == Op.CALL ? code[pc + 4] : 0);
+                sb.append(String.format("  %5d  %-6s", pc, Op.NAMES[op]));
+                for (int i = 1; i <= width; i++) {
+                    sb.append(' ').append(code[pc + i]);
+                }
+                sb.append('\n');
+                pc += 1 + width;
+            }
+        }
+        return sb.toString();
+    }
+}
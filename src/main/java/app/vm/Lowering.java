@@ -0,0 +1,741 @@
+package app.vm;
+
+import app.ast.*;
+import app.runtime.Console;
+
+import java.util.*;
+
+/**
+ * Lowers a type-checked {@link Program} into register bytecode ({@link Chunk}).
+ *
+ * All names are resolved here, once: variables become frame slots (or a hop count plus slot for
+ * locals of enclosing routines), calls become routine indexes, and array indexing becomes a flat
+ * row-major offset computation over primitive storage.
+ */
+public final class Lowering {
+
+    private record Local(int depth, int slot, TypeRef type, boolean param) {
+    }
+
+    private record Routine(int index, int depth, Decl decl, Scope parent) {
+    }
+
+    private static final class Scope {
+
+        final Scope parent;
+        final int depth;
+        final Map<String, Local> vars = new HashMap<>();
+        final Map<String, Routine> routines = new HashMap<>();
+
+        Scope(Scope parent, int depth) {
+            this.parent = parent;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Loop {
+
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+    }
+
+    private int[] code = new int[1024];
+    private int pc;
+
+    private final List<Long> reals = new ArrayList<>();
+    private final Map<Long, Integer> realIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+
+    private final List<Integer> entry = new ArrayList<>();
+    private final List<Integer> frameSize = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final Deque<Routine> pending = new ArrayDeque<>();
+
+    private Scope scope;
+    private int nextSlot;
+    private int maxSlot;
+    private final Deque<Loop> loops = new ArrayDeque<>();
+
+    public Chunk lower(Program p) {
+        scope = new Scope(null, 0);
+        nextSlot = 1;
+        maxSlot = 1;
+        entry.add(0);
+        frameSize.add(0);
+        names.add(p.name());
+
+        declareVars(p.decls());
+        declareRoutines(p.decls());
+        allocArrays(p.decls());
+        block(p.body());
+        emit(Op.HALT);
+        frameSize.set(0, maxSlot);
+
+        while (!pending.isEmpty()) {
+            routine(pending.poll());
+        }
+
+        return new Chunk(Arrays.copyOf(code, pc),
+                reals.stream().mapToLong(Long::longValue).toArray(),
+                strings.toArray(String[]::new),
+                entry.stream().mapToInt(Integer::intValue).toArray(),
+                frameSize.stream().mapToInt(Integer::intValue).toArray(),
+                names.toArray(String[]::new));
+    }
+
+    private void routine(Routine rt) {
+        List<Param> params;
+        List<Decl> locals;
+        List<Decl> nested;
+        List<Stmt> body;
+        Type ret = null;
+        if (rt.decl() instanceof ProcDecl p) {
+            params = p.params();
+            locals = p.locals();
+            nested = p.nested();
+            body = p.body();
+        } else {
+            FuncDecl f = (FuncDecl) rt.decl();
+            params = f.params();
+            locals = f.locals();
+            nested = f.nested();
+            body = f.body();
+            ret = f.retType();
+        }
+
+        scope = new Scope(rt.parent(), rt.depth());
+        nextSlot = 1;
+        maxSlot = 1;
+        for (Param pa : params) {
+            scope.vars.put(pa.name(), new Local(rt.depth(), nextSlot++, pa.type(), true));
+        }
+        declareVars(locals);
+        declareRoutines(nested);
+        maxSlot = nextSlot;
+
+        entry.set(rt.index(), pc);
+        allocArrays(locals);
+        block(body);
+        if (ret == null) {
+            emit(Op.RETV);
+        } else {
+            int t = temp();
+            if (ret == Type.STRING) {
+                emit(Op.LDS, t, string(null));
+            } else {
+                emit(Op.LDI, t, 0);
+            }
+            emit(Op.RET, t);
+        }
+        frameSize.set(rt.index(), maxSlot);
+    }
+
+    private void declareVars(List<Decl> decls) {
+        for (Decl d : decls) {
+            if (d instanceof VarDecl v) {
+                scope.vars.put(v.name(), new Local(scope.depth, nextSlot++, v.type(), false));
+            }
+        }
+        maxSlot = Math.max(maxSlot, nextSlot);
+    }
+
+    private void declareRoutines(List<Decl> decls) {
+        for (Decl d : decls) {
+            String name;
+            if (d instanceof ProcDecl p) {
+                name = p.name();
+            } else if (d instanceof FuncDecl f) {
+                name = f.name();
+            } else {
+                continue;
+            }
+            Routine rt = new Routine(entry.size(), scope.depth + 1, d, scope);
+            entry.add(-1);
+            frameSize.add(0);
+            names.add(name);
+            scope.routines.put(name, rt);
+            pending.add(rt);
+        }
+    }
+
+    private void allocArrays(List<Decl> decls) {
+        for (Decl d : decls) {
+            if (d instanceof VarDecl v && v.type() instanceof ArrayType) {
+                Local l = scope.vars.get(v.name());
+                int size = 1;
+                for (int dim : dims(v.type())) {
+                    size *= dim;
+                }
+                int op = switch (elementOf(v.type())) {
+                    case INTEGER, BOOLEAN ->
+                        Op.NEWI;
+                    case REAL ->
+                        Op.NEWR;
+                    case STRING ->
+                        Op.NEWS;
+                };
+                emit(op, l.slot(), size);
+            }
+        }
+    }
+
+    /* ---------- statements ---------- */
+
+    private void block(List<Stmt> stmts) {
+        for (Stmt s : stmts) {
+            int mark = nextSlot;
+            stmt(s);
+            nextSlot = mark;
+        }
+    }
+
+    private void stmt(Stmt s) {
+        if (s instanceof Assign a) {
+            Local l = resolve(a.name());
+            if (l.depth() == scope.depth) {
+                expr(a.value(), l.slot());
+            } else {
+                store(l, expr(a.value(), -1));
+            }
+        } else if (s instanceof AssignIndex ai) {
+            int v = expr(ai.value(), -1);
+            int[] ref = element(ai.target());
+            emit(storeOp(typeOf(ai.target())), ref[0], ref[1], v);
+        } else if (s instanceof CallStmt c) {
+            switch (c.name()) {
+                case "write" ->
+                    c.args().forEach(this::write);
+                case "writeln" -> {
+                    c.args().forEach(this::write);
+                    emit(Op.WRLN);
+                }
+                case "read" -> {
+                    if (!c.args().isEmpty()) {
+                        read(c.args().get(0));
+                    }
+                }
+                default ->
+                    call(c.name(), c.args(), -1);
+            }
+        } else if (s instanceof If iff) {
+            List<Integer> ends = new ArrayList<>();
+            int next = branchIfFalse(iff.cond());
+            block(iff.thenPart());
+            for (ElseIf e : iff.elseIfs()) {
+                ends.add(jump(Op.JMP));
+                patch(next, pc);
+                next = branchIfFalse(e.cond());
+                block(e.body());
+            }
+            if (!iff.elsePart().isEmpty()) {
+                ends.add(jump(Op.JMP));
+                patch(next, pc);
+                block(iff.elsePart());
+            } else {
+                patch(next, pc);
+            }
+            ends.forEach(j -> patch(j, pc));
+        } else if (s instanceof While w) {
+            Loop loop = new Loop();
+            int top = pc;
+            int exit = branchIfFalse(w.cond());
+            loops.push(loop);
+            block(w.body());
+            loops.pop();
+            emit(Op.JMP, top);
+            patch(exit, pc);
+            loop.continues.forEach(j -> patch(j, top));
+            loop.breaks.forEach(j -> patch(j, pc));
+        } else if (s instanceof Repeat r) {
+            Loop loop = new Loop();
+            int top = pc;
+            loops.push(loop);
+            block(r.body());
+            loops.pop();
+            int cond = pc;
+            int c = expr(r.cond(), -1);
+            emit(Op.JZ, c, top);
+            loop.continues.forEach(j -> patch(j, cond));
+            loop.breaks.forEach(j -> patch(j, pc));
+        } else if (s instanceof For f) {
+            forLoop(f);
+        } else if (s instanceof Return r) {
+            emit(Op.RET, expr(r.value(), -1));
+        } else if (s instanceof ReturnVoid) {
+            emit(scope.depth == 0 ? Op.HALT : Op.RETV);
+        } else if (s instanceof Break) {
+            loops.peek().breaks.add(jump(Op.JMP));
+        } else if (s instanceof Continue) {
+            loops.peek().continues.add(jump(Op.JMP));
+        } else {
+            throw new IllegalStateException("unknown statement " + s.getClass().getSimpleName());
+        }
+    }
+
+    private void forLoop(For f) {
+        Local l = resolve(f.var());
+        boolean direct = l.depth() == scope.depth;
+        if (direct) {
+            expr(f.from(), l.slot());
+        } else {
+            store(l, expr(f.from(), -1));
+        }
+
+        // the limit is evaluated once, after the start value; a literal is reloaded instead
+        int outer = nextSlot;
+        int limit = -1;
+        if (!(f.to() instanceof IntLit)) {
+            limit = temp();
+            expr(f.to(), limit);
+        }
+
+        Loop loop = new Loop();
+        int top = pc;
+        int mark = nextSlot;
+        int i = direct ? l.slot() : load(l, -1);
+        int hi = limit >= 0 ? limit : expr(f.to(), -1);
+        int exit = pc;
+        emit(Op.JGTI, i, hi, -1);
+        nextSlot = mark;
+
+        loops.push(loop);
+        block(f.body());
+        loops.pop();
+
+        int step = pc;
+        if (direct) {
+            emit(Op.ADDIK, l.slot(), l.slot(), 1);
+        } else {
+            int t = load(l, -1);
+            emit(Op.ADDIK, t, t, 1);
+            store(l, t);
+            nextSlot = mark;
+        }
+        emit(Op.JMP, top);
+        patch(exit + 3, pc);
+        loop.continues.forEach(j -> patch(j, step));
+        loop.breaks.forEach(j -> patch(j, pc));
+        nextSlot = outer;
+    }
+
+    private void write(Expr x) {
+        TypeRef t = typeOf(x);
+        if (!(t instanceof Type bt)) {
+            return; // arrays are not printable; the C backend emits nothing either
+        }
+        int r = expr(x, -1);
+        emit(switch (bt) {
+            case INTEGER ->
+                Op.WRI;
+            case REAL ->
+                Op.WRR;
+            case BOOLEAN ->
+                Op.WRB;
+            case STRING ->
+                Op.WRS;
+        }, r);
+    }
+
+    private void read(Expr target) {
+        TypeRef t = typeOf(target);
+        if (!(t instanceof Type bt) || bt == Type.STRING) {
+            return;
+        }
+        int op = switch (bt) {
+            case REAL ->
+                Op.RDR;
+            case BOOLEAN ->
+                Op.RDB;
+            default ->
+                Op.RDI;
+        };
+        if (target instanceof Var v) {
+            Local l = resolve(v.name());
+            if (l.depth() == scope.depth) {
+                emit(op, l.slot());
+            } else {
+                int r = load(l, -1);
+                emit(op, r);
+                store(l, r);
+            }
+        } else if (target instanceof ArrayAccess aa) {
+            int[] ref = element(aa);
+            int r = temp();
+            emit(loadOp(bt), r, ref[0], ref[1]);
+            emit(op, r);
+            emit(storeOp(bt), ref[0], ref[1], r);
+        }
+    }
+
+    private int branchIfFalse(Expr cond) {
+        int c = expr(cond, -1);
+        emit(Op.JZ, c, -1);
+        return pc - 1;
+    }
+
+    /* ---------- expressions ---------- */
+
+    /** Evaluates {@code e} into {@code dst} (or a fresh temporary when dst < 0); returns the register. */
+    private int expr(Expr e, int dst) {
+        if (e instanceof Var v) {
+            Local l = resolve(v.name());
+            if (l.depth() == scope.depth) {
+                return move(l.slot(), dst);
+            }
+            return load(l, dst);
+        }
+        if (e instanceof Paren p) {
+            return expr(p.inner(), dst);
+        }
+        if (e instanceof Binary b && (b.op() == BinOp.AND || b.op() == BinOp.OR)) {
+            // the right operand may read dst, so build the value in a temporary
+            int t = temp();
+            expr(b.left(), t);
+            emit(b.op() == BinOp.AND ? Op.JZ : Op.JNZ, t, -1);
+            int skip = pc - 1;
+            expr(b.right(), t);
+            patch(skip, pc);
+            return move(t, dst);
+        }
+
+        int d = dst >= 0 ? dst : temp();
+        if (e instanceof IntLit i) {
+            emit(Op.LDI, d, i.value());
+        } else if (e instanceof BoolLit bl) {
+            emit(Op.LDI, d, bl.value() ? 1 : 0);
+        } else if (e instanceof RealLit r) {
+            emit(Op.LDK, d, real(r.value()));
+        } else if (e instanceof StringLit s) {
+            emit(Op.LDS, d, string(Console.cString(s.value())));
+        } else if (e instanceof Unary u) {
+            int a = expr(u.value(), -1);
+            switch (u.op()) {
+                case POS ->
+                    emit(Op.MOV, d, a);
+                case NEG ->
+                    emit(typeOf(u.value()) == Type.REAL ? Op.NEGR : Op.NEGI, d, a);
+                case NOT ->
+                    emit(Op.NOT, d, a);
+            }
+        } else if (e instanceof Binary b) {
+            binary(b, d);
+        } else if (e instanceof CallExpr c) {
+            call(c.name(), c.args(), d);
+        } else if (e instanceof ArrayAccess aa) {
+            int[] ref = element(aa);
+            TypeRef t = typeOf(aa);
+            if (t instanceof Type bt) {
+                emit(loadOp(bt), d, ref[0], ref[1]);
+            } else {
+                emit(Op.SLICE, d, ref[0], ref[1]);
+            }
+        } else {
+            throw new IllegalStateException("unknown expression " + e.getClass().getSimpleName());
+        }
+        return d;
+    }
+
+    private void binary(Binary b, int d) {
+        TypeRef lt = typeOf(b.left());
+        int a = expr(b.left(), -1);
+        if (lt == Type.INTEGER && b.right() instanceof IntLit k) {
+            switch (b.op()) {
+                case ADD -> {
+                    emit(Op.ADDIK, d, a, k.value());
+                    return;
+                }
+                case SUB -> {
+                    emit(Op.ADDIK, d, a, -k.value());
+                    return;
+                }
+                case MUL -> {
+                    emit(Op.MULIK, d, a, k.value());
+                    return;
+                }
+                default -> {
+                }
+            }
+        }
+        int c = expr(b.right(), -1);
+        if (lt == Type.STRING) {
+            emit(Op.CMPS, d, a, c, relOp(b.op(), Op.EQI));
+            return;
+        }
+        if (lt == Type.REAL) {
+            emit(switch (b.op()) {
+                case ADD -> Op.ADDR;
+                case SUB -> Op.SUBR;
+                case MUL -> Op.MULR;
+                case DIV -> Op.DIVR;
+                default -> relOp(b.op(), Op.EQR);
+            }, d, a, c);
+            return;
+        }
+        emit(switch (b.op()) {
+            case ADD -> Op.ADDI;
+            case SUB -> Op.SUBI;
+            case MUL -> Op.MULI;
+            case DIV -> Op.DIVI;
+            case MOD -> Op.MODI;
+            default -> relOp(b.op(), Op.EQI);
+        }, d, a, c);
+    }
+
+    private static int relOp(BinOp op, int eq) {
+        return eq + switch (op) {
+            case EQ -> 0;
+            case NE -> 1;
+            case LT -> 2;
+            case LE -> 3;
+            case GT -> 4;
+            case GE -> 5;
+            default -> throw new IllegalStateException("not a comparison: " + op);
+        };
+    }
+
+    private void call(String name, List<Expr> args, int dst) {
+        Routine rt = resolveRoutine(name);
+        int[] regs = new int[args.size()];
+        for (int i = 0; i < regs.length; i++) {
+            regs[i] = expr(args.get(i), -1);
+        }
+        int hops = scope.depth - (rt.depth() - 1);
+        emit(Op.CALL, rt.index(), dst, hops, regs.length);
+        for (int r : regs) {
+            emit1(r);
+        }
+    }
+
+    /** Returns {array register, flat index register} for an element or sub-array access. */
+    private int[] element(ArrayAccess aa) {
+        List<Expr> indices = new ArrayList<>();
+        Expr cur = aa;
+        while (cur instanceof ArrayAccess a) {
+            indices.addAll(0, a.indices());
+            cur = a.base();
+        }
+        Var base = (Var) cur;
+        Local l = resolve(base.name());
+        int arr = expr(base, -1);
+
+        List<Integer> dims = dims(l.type());
+        int[] stride = new int[dims.size()];
+        int st = 1;
+        for (int k = dims.size() - 1; k >= 0; k--) {
+            stride[k] = st;
+            st *= dims.get(k);
+        }
+
+        int acc = -1;
+        int constant = 0;
+        for (int k = 0; k < indices.size(); k++) {
+            Expr ix = indices.get(k);
+            if (ix instanceof IntLit lit) {
+                constant += lit.value() * stride[k];
+                continue;
+            }
+            int r = expr(ix, -1);
+            if (stride[k] != 1) {
+                int t = temp();
+                emit(Op.MULIK, t, r, stride[k]);
+                r = t;
+            }
+            if (acc < 0) {
+                acc = r;
+            } else {
+                int t = temp();
+                emit(Op.ADDI, t, acc, r);
+                acc = t;
+            }
+        }
+        if (acc < 0) {
+            acc = temp();
+            emit(Op.LDI, acc, constant);
+        } else if (constant != 0) {
+            int t = temp();
+            emit(Op.ADDIK, t, acc, constant);
+            acc = t;
+        }
+        if (l.param()) {
+            // array parameters may be views into a larger array
+            int t = temp();
+            emit(Op.ADDI, t, acc, arr);
+            acc = t;
+        }
+        return new int[]{arr, acc};
+    }
+
+    /* ---------- variables ---------- */
+
+    private Local resolve(String name) {
+        for (Scope s = scope; s != null; s = s.parent) {
+            Local l = s.vars.get(name);
+            if (l != null) {
+                return l;
+            }
+        }
+        throw new IllegalStateException("unbound variable " + name);
+    }
+
+    private Routine resolveRoutine(String name) {
+        for (Scope s = scope; s != null; s = s.parent) {
+            Routine r = s.routines.get(name);
+            if (r != null) {
+                return r;
+            }
+        }
+        throw new IllegalStateException("unknown routine " + name);
+    }
+
+    private int load(Local l, int dst) {
+        int d = dst >= 0 ? dst : temp();
+        if (l.depth() == 0) {
+            emit(Op.LDG, d, l.slot());
+        } else {
+            emit(Op.LDU, d, scope.depth - l.depth(), l.slot());
+        }
+        return d;
+    }
+
+    private void store(Local l, int r) {
+        if (l.depth() == scope.depth) {
+            move(r, l.slot());
+        } else if (l.depth() == 0) {
+            emit(Op.STG, l.slot(), r);
+        } else {
+            emit(Op.STU, scope.depth - l.depth(), l.slot(), r);
+        }
+    }
+
+    private int move(int src, int dst) {
+        if (dst < 0 || dst == src) {
+            return src;
+        }
+        emit(Op.MOV, dst, src);
+        return dst;
+    }
+
+    private int temp() {
+        int t = nextSlot++;
+        maxSlot = Math.max(maxSlot, nextSlot);
+        return t;
+    }
+
+    /* ---------- types ---------- */
+
+    private TypeRef typeOf(Expr e) {
+        if (e instanceof IntLit) {
+            return Type.INTEGER;
+        }
+        if (e instanceof RealLit) {
+            return Type.REAL;
+        }
+        if (e instanceof BoolLit) {
+            return Type.BOOLEAN;
+        }
+        if (e instanceof StringLit) {
+            return Type.STRING;
+        }
+        if (e instanceof Var v) {
+            return resolve(v.name()).type();
+        }
+        if (e instanceof Paren p) {
+            return typeOf(p.inner());
+        }
+        if (e instanceof Unary u) {
+            return u.op() == UnOp.NOT ? Type.BOOLEAN : typeOf(u.value());
+        }
+        if (e instanceof Binary b) {
+            return switch (b.op()) {
+                case EQ, NE, LT, LE, GT, GE, AND, OR ->
+                    Type.BOOLEAN;
+                default ->
+                    typeOf(b.left());
+            };
+        }
+        if (e instanceof CallExpr c) {
+            return ((FuncDecl) resolveRoutine(c.name()).decl()).retType();
+        }
+        if (e instanceof ArrayAccess aa) {
+            int used = 0;
+            Expr cur = aa;
+            while (cur instanceof ArrayAccess a) {
+                used += a.indices().size();
+                cur = a.base();
+            }
+            TypeRef t = typeOf(cur);
+            List<Integer> dims = dims(t);
+            Type elem = elementOf(t);
+            return used >= dims.size() ? elem : new ArrayType(elem, dims.subList(used, dims.size()));
+        }
+        throw new IllegalStateException("unknown expression " + e.getClass().getSimpleName());
+    }
+
+    private static List<Integer> dims(TypeRef t) {
+        List<Integer> all = new ArrayList<>();
+        while (t instanceof ArrayType a) {
+            all.addAll(a.dimensions());
+            t = a.elementType();
+        }
+        return all;
+    }
+
+    private static Type elementOf(TypeRef t) {
+        while (t instanceof ArrayType a) {
+            t = a.elementType();
+        }
+        return (Type) t;
+    }
+
+    private static int loadOp(TypeRef t) {
+        return t == Type.REAL ? Op.ALDR : t == Type.STRING ? Op.ALDS : Op.ALDI;
+    }
+
+    private static int storeOp(TypeRef t) {
+        return t == Type.REAL ? Op.ASTR : t == Type.STRING ? Op.ASTS : Op.ASTI;
+    }
+
+    /* ---------- code buffer ---------- */
+
+    private int real(double v) {
+        long bits = Double.doubleToRawLongBits(v);
+        return realIndex.computeIfAbsent(bits, b -> {
+            reals.add(b);
+            return reals.size() - 1;
+        });
+    }
+
+    private int string(String s) {
+        Integer k = stringIndex.get(s);
+        if (k == null) {
+            k = strings.size();
+            strings.add(s);
+            stringIndex.put(s, k);
+        }
+        return k;
+    }
+
+    private void emit(int... words) {
+        for (int w : words) {
+            emit1(w);
+        }
+    }
+
+    private void emit1(int w) {
+        if (pc == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[pc++] = w;
+    }
+
+    /** Emits a jump with an unresolved target and returns the position of the target operand. */
+    private int jump(int op) {
+        emit(op, -1);
+        return pc - 1;
+    }
+
+    private void patch(int at, int target) {
+        code[at] = target;
+    }
+}
@@ -0,0 +1,153 @@
+package app.vm;
+
+/**
+ * Opcodes of the register VM. Operands follow the opcode in the code array; {@code d}, {@code a},
+ * {@code b} are frame-relative registers, {@code k} an index into a constant pool, {@code imm} an
+ * inline int and {@code L} an absolute code address.
+ */
+final class Op {
+
+    private Op() {
+    }
+
+    static final int HALT = 0;       //
+    static final int MOV = 1;        // d a
+    static final int LDI = 2;        // d imm
+    static final int LDK = 3;        // d k        (long bits of a real constant)
+    static final int LDS = 4;        // d k        (string constant)
+    static final int LDG = 5;        // d slot     (global)
+    static final int STG = 6;        // slot a
+    static final int LDU = 7;        // d hops slot
+    static final int STU = 8;        // hops slot a
+
+    static final int ADDI = 10;      // d a b
+    static final int SUBI = 11;
+    static final int MULI = 12;
+    static final int DIVI = 13;
+    static final int MODI = 14;
+    static final int NEGI = 15;      // d a
+    static final int ADDIK = 16;     // d a imm
+    static final int MULIK = 17;     // d a imm
+
+    static final int ADDR = 20;      // d a b
+    static final int SUBR = 21;
+    static final int MULR = 22;
+    static final int DIVR = 23;
+    static final int NEGR = 24;      // d a
+
+    static final int EQI = 30;       // d a b      (also booleans)
+    static final int NEI = 31;
+    static final int LTI = 32;
+    static final int LEI = 33;
+    static final int GTI = 34;
+    static final int GEI = 35;
+    static final int EQR = 36;
+    static final int NER = 37;
+    static final int LTR = 38;
+    static final int LER = 39;
+    static final int GTR = 40;
+    static final int GER = 41;
+    static final int CMPS = 42;      // d a b rel  (rel = EQI..GEI)
+    static final int NOT = 43;       // d a
+
+    static final int JMP = 50;       // L
+    static final int JZ = 51;        // a L
+    static final int JNZ = 52;       // a L
+    static final int JGTI = 53;      // a b L      (jump if a > b)
+
+    static final int NEWI = 60;      // d size     (int[]; also booleans)
+    static final int NEWR = 61;      // d size     (double[])
+    static final int NEWS = 62;      // d size     (String[])
+    static final int ALDI = 63;      // d arr idx
+    static final int ALDR = 64;
+    static final int ALDS = 65;
+    static final int ASTI = 66;      // arr idx a
+    static final int ASTR = 67;
+    static final int ASTS = 68;
+    static final int SLICE = 69;     // d arr idx  (sub-array view: same storage, new offset)
+
+    static final int CALL = 70;      // fn d hops argc a1..an   (d = -1: discard)
+    static final int RET = 71;       // a
+    static final int RETV = 72;      //
+
+    static final int WRI = 80;       // a
+    static final int WRR = 81;
+    static final int WRB = 82;
+    static final int WRS = 83;
+    static final int WRLN = 84;      //
+    static final int RDI = 85;       // d          (unchanged when nothing could be read)
+    static final int RDR = 86;
+    static final int RDB = 87;
+
+    static final String[] NAMES = new String[90];
+    static final int[] WIDTH = new int[90];
+
+    private static void def(int op, String name, int operands) {
+        NAMES[op] = name;
+        WIDTH[op] = operands;
+    }
+
+    static {
+        def(HALT, "halt", 0);
+        def(MOV, "mov", 2);
+        def(LDI, "ldi", 2);
+        def(LDK, "ldk", 2);
+        def(LDS, "lds", 2);
+        def(LDG, "ldg", 2);
+        def(STG, "stg", 2);
+        def(LDU, "ldu", 3);
+        def(STU, "stu", 3);
+        def(ADDI, "addi", 3);
+        def(SUBI, "subi", 3);
+        def(MULI, "muli", 3);
+        def(DIVI, "divi", 3);
+        def(MODI, "modi", 3);
+        def(NEGI, "negi", 2);
+        def(ADDIK, "addik", 3);
+        def(MULIK, "mulik", 3);
+        def(ADDR, "addr", 3);
+        def(SUBR, "subr", 3);
+        def(MULR, "mulr", 3);
+        def(DIVR, "divr", 3);
+        def(NEGR, "negr", 2);
+        def(EQI, "eqi", 3);
+        def(NEI, "nei", 3);
+        def(LTI, "lti", 3);
+        def(LEI, "lei", 3);
+        def(GTI, "gti", 3);
+        def(GEI, "gei", 3);
+        def(EQR, "eqr", 3);
+        def(NER, "ner", 3);
+        def(LTR, "ltr", 3);
+        def(LER, "ler", 3);
+        def(GTR, "gtr", 3);
+        def(GER, "ger", 3);
+        def(CMPS, "cmps", 4);
+        def(NOT, "not", 2);
+        def(JMP, "jmp", 1);
+        def(JZ, "jz", 2);
+        def(JNZ, "jnz", 2);
+        def(JGTI, "jgti", 3);
+        def(NEWI, "newi", 2);
+        def(NEWR, "newr", 2);
+        def(NEWS, "news", 2);
+        def(ALDI, "aldi", 3);
+        def(ALDR, "aldr", 3);
+        def(ALDS, "alds", 3);
+        def(ASTI, "asti", 3);
+        def(ASTR, "astr", 3);
+        def(ASTS, "asts", 3);
+        def(SLICE, "slice", 3);
+        def(CALL, "call", 4); // + argc argument registers
+        def(RET, "ret", 1);
+        def(RETV, "retv", 0);
+        def(WRI, "wri", 1);
+        def(WRR, "wrr", 1);
+        def(WRB, "wrb", 1);
+        def(WRS, "wrs", 1);
+        def(WRLN, "wrln", 0);
+        def(RDI, "rdi", 1);
+        def(RDR, "rdr", 1);
+        def(RDB, "rdb", 1);
+    }
+}
@@ -0,0 +1,406 @@
+package app.vm;
+
+import app.runtime.Console;
+import app.runtime.RuntimeFault;
+
+import java.util.Arrays;
+
+/**
+ * Dispatch-loop interpreter for {@link Chunk} bytecode.
+ *
+ * Frames live in two parallel stacks ({@code long[]} for scalars, {@code Object[]} for array
+ * storage and strings) addressed relative to the frame base; there is no per-step allocation or
+ * name lookup. Integers and booleans are kept sign-extended in the long half, reals as raw bits.
+ */
+public final class Vm {
+
+    private static final int MAX_SLOTS = 1 << 24;
+
+    private final Console io;
+
+    public Vm(Console io) {
+        this.io = io;
+    }
+
+    public void run(Chunk chunk) {
+        try {
+            exec(chunk);
+        } catch (ArithmeticException ex) {
+            throw new RuntimeFault("integer division by zero");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new RuntimeFault("array index out of range: " + ex.getMessage());
+        } finally {
+            io.flush();
+        }
+    }
+
+    private void exec(Chunk chunk) {
+        final int[] code = chunk.code();
+        final long[] K = chunk.reals();
+        final String[] S = chunk.strings();
+        final int[] entry = chunk.entry();
+        final int[] size = chunk.frameSize();
+
+        long[] s = new long[Math.max(1024, size[0] * 2)];
+        Object[] r = new Object[s.length];
+        int[] ctl = new int[256];
+        int csp = 0;
+
+        int bp = 0;
+        int top = size[0];
+        int pc = entry[0];
+
+        for (;;) {
+            switch (code[pc]) {
+                case Op.HALT -> {
+                    return;
+                }
+                case Op.MOV -> {
+                    int d = bp + code[pc + 1];
+                    int a = bp + code[pc + 2];
+                    s[d] = s[a];
+                    r[d] = r[a];
+                    pc += 3;
+                }
+                case Op.LDI -> {
+                    s[bp + code[pc + 1]] = code[pc + 2];
+                    pc += 3;
+                }
+                case Op.LDK -> {
+                    s[bp + code[pc + 1]] = K[code[pc + 2]];
+                    pc += 3;
+                }
+                case Op.LDS -> {
+                    r[bp + code[pc + 1]] = S[code[pc + 2]];
+                    pc += 3;
+                }
+                case Op.LDG -> {
+                    int d = bp + code[pc + 1];
+                    int g = code[pc + 2];
+                    s[d] = s[g];
+                    r[d] = r[g];
+                    pc += 3;
+                }
+                case Op.STG -> {
+                    int g = code[pc + 1];
+                    int a = bp + code[pc + 2];
+                    s[g] = s[a];
+                    r[g] = r[a];
+                    pc += 3;
+                }
+                case Op.LDU -> {
+                    int f = bp;
+                    for (int h = code[pc + 2]; h > 0; h--) {
+                        f = (int) s[f];
+                    }
+                    int d = bp + code[pc + 1];
+                    s[d] = s[f + code[pc + 3]];
+                    r[d] = r[f + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.STU -> {
+                    int f = bp;
+                    for (int h = code[pc + 1]; h > 0; h--) {
+                        f = (int) s[f];
+                    }
+                    int a = bp + code[pc + 3];
+                    s[f + code[pc + 2]] = s[a];
+                    r[f + code[pc + 2]] = r[a];
+                    pc += 4;
+                }
+
+                case Op.ADDI -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] + (int) s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.SUBI -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] - (int) s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.MULI -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] * (int) s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.DIVI -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] / (int) s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.MODI -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] % (int) s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.NEGI -> {
+                    s[bp + code[pc + 1]] = -(int) s[bp + code[pc + 2]];
+                    pc += 3;
+                }
+                case Op.ADDIK -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] + code[pc + 3];
+                    pc += 4;
+                }
+                case Op.MULIK -> {
+                    s[bp + code[pc + 1]] = (int) s[bp + code[pc + 2]] * code[pc + 3];
+                    pc += 4;
+                }
+
+                case Op.ADDR -> {
+                    s[bp + code[pc + 1]] = bits(real(s[bp + code[pc + 2]]) + real(s[bp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Op.SUBR -> {
+                    s[bp + code[pc + 1]] = bits(real(s[bp + code[pc + 2]]) - real(s[bp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Op.MULR -> {
+                    s[bp + code[pc + 1]] = bits(real(s[bp + code[pc + 2]]) * real(s[bp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Op.DIVR -> {
+                    s[bp + code[pc + 1]] = bits(real(s[bp + code[pc + 2]]) / real(s[bp + code[pc + 3]]));
+                    pc += 4;
+                }
+                case Op.NEGR -> {
+                    s[bp + code[pc + 1]] = bits(-real(s[bp + code[pc + 2]]));
+                    pc += 3;
+                }
+
+                case Op.EQI -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] == s[bp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.NEI -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] != s[bp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.LTI -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] < s[bp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.LEI -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] <= s[bp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.GTI -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] > s[bp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.GEI -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] >= s[bp + code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.EQR -> {
+                    s[bp + code[pc + 1]] = real(s[bp + code[pc + 2]]) == real(s[bp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.NER -> {
+                    s[bp + code[pc + 1]] = real(s[bp + code[pc + 2]]) != real(s[bp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.LTR -> {
+                    s[bp + code[pc + 1]] = real(s[bp + code[pc + 2]]) < real(s[bp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.LER -> {
+                    s[bp + code[pc + 1]] = real(s[bp + code[pc + 2]]) <= real(s[bp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.GTR -> {
+                    s[bp + code[pc + 1]] = real(s[bp + code[pc + 2]]) > real(s[bp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.GER -> {
+                    s[bp + code[pc + 1]] = real(s[bp + code[pc + 2]]) >= real(s[bp + code[pc + 3]]) ? 1 : 0;
+                    pc += 4;
+                }
+                case Op.CMPS -> {
+                    int c = compare((String) r[bp + code[pc + 2]], (String) r[bp + code[pc + 3]]);
+                    boolean v = switch (code[pc + 4]) {
+                        case Op.EQI -> c == 0;
+                        case Op.NEI -> c != 0;
+                        case Op.LTI -> c < 0;
+                        case Op.LEI -> c <= 0;
+                        case Op.GTI -> c > 0;
+                        default -> c >= 0;
+                    };
+                    s[bp + code[pc + 1]] = v ? 1 : 0;
+                    pc += 5;
+                }
+                case Op.NOT -> {
+                    s[bp + code[pc + 1]] = s[bp + code[pc + 2]] == 0 ? 1 : 0;
+                    pc += 3;
+                }
+
+                case Op.JMP ->
+                    pc = code[pc + 1];
+                case Op.JZ ->
+                    pc = s[bp + code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                case Op.JNZ ->
+                    pc = s[bp + code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+                case Op.JGTI ->
+                    pc = s[bp + code[pc + 1]] > s[bp + code[pc + 2]] ? code[pc + 3] : pc + 4;
+
+                case Op.NEWI -> {
+                    int d = bp + code[pc + 1];
+                    r[d] = new int[code[pc + 2]];
+                    s[d] = 0;
+                    pc += 3;
+                }
+                case Op.NEWR -> {
+                    int d = bp + code[pc + 1];
+                    r[d] = new double[code[pc + 2]];
+                    s[d] = 0;
+                    pc += 3;
+                }
+                case Op.NEWS -> {
+                    int d = bp + code[pc + 1];
+                    r[d] = new String[code[pc + 2]];
+                    s[d] = 0;
+                    pc += 3;
+                }
+                case Op.ALDI -> {
+                    s[bp + code[pc + 1]] = ((int[]) r[bp + code[pc + 2]])[(int) s[bp + code[pc + 3]]];
+                    pc += 4;
+                }
+                case Op.ALDR -> {
+                    s[bp + code[pc + 1]] = bits(((double[]) r[bp + code[pc + 2]])[(int) s[bp + code[pc + 3]]]);
+                    pc += 4;
+                }
+                case Op.ALDS -> {
+                    r[bp + code[pc + 1]] = ((String[]) r[bp + code[pc + 2]])[(int) s[bp + code[pc + 3]]];
+                    pc += 4;
+                }
+                case Op.ASTI -> {
+                    ((int[]) r[bp + code[pc + 1]])[(int) s[bp + code[pc + 2]]] = (int) s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.ASTR -> {
+                    ((double[]) r[bp + code[pc + 1]])[(int) s[bp + code[pc + 2]]] = real(s[bp + code[pc + 3]]);
+                    pc += 4;
+                }
+                case Op.ASTS -> {
+                    ((String[]) r[bp + code[pc + 1]])[(int) s[bp + code[pc + 2]]] = (String) r[bp + code[pc + 3]];
+                    pc += 4;
+                }
+                case Op.SLICE -> {
+                    int d = bp + code[pc + 1];
+                    r[d] = r[bp + code[pc + 2]];
+                    s[d] = s[bp + code[pc + 3]];
+                    pc += 4;
+                }
+
+                case Op.CALL -> {
+                    int f = code[pc + 1];
+                    int argc = code[pc + 4];
+                    int link = bp;
+                    for (int h = code[pc + 3]; h > 0; h--) {
+                        link = (int) s[link];
+                    }
+                    int nbp = top;
+                    int ntop = nbp + size[f];
+                    if (ntop > s.length) {
+                        if (ntop > MAX_SLOTS) {
+                            throw new RuntimeFault("stack overflow");
+                        }
+                        int n = Math.max(s.length * 2, ntop);
+                        s = Arrays.copyOf(s, n);
+                        r = Arrays.copyOf(r, n);
+                    }
+                    s[nbp] = link;
+                    for (int k = 0; k < argc; k++) {
+                        int a = bp + code[pc + 5 + k];
+                        s[nbp + 1 + k] = s[a];
+                        r[nbp + 1 + k] = r[a];
+                    }
+                    Arrays.fill(s, nbp + 1 + argc, ntop, 0L);
+                    Arrays.fill(r, nbp + 1 + argc, ntop, null);
+                    if (csp + 4 > ctl.length) {
+                        ctl = Arrays.copyOf(ctl, ctl.length * 2);
+                    }
+                    ctl[csp++] = pc + 5 + argc;
+                    ctl[csp++] = bp;
+                    ctl[csp++] = top;
+                    ctl[csp++] = code[pc + 2];
+                    bp = nbp;
+                    top = ntop;
+                    pc = entry[f];
+                }
+                case Op.RET -> {
+                    long sv = s[bp + code[pc + 1]];
+                    Object rv = r[bp + code[pc + 1]];
+                    int dst = ctl[--csp];
+                    top = ctl[--csp];
+                    bp = ctl[--csp];
+                    pc = ctl[--csp];
+                    if (dst >= 0) {
+                        s[bp + dst] = sv;
+                        r[bp + dst] = rv;
+                    }
+                }
+                case Op.RETV -> {
+                    csp--;
+                    top = ctl[--csp];
+                    bp = ctl[--csp];
+                    pc = ctl[--csp];
+                }
+
+                case Op.WRI -> {
+                    io.writeInt((int) s[bp + code[pc + 1]]);
+                    pc += 2;
+                }
+                case Op.WRR -> {
+                    io.writeReal(real(s[bp + code[pc + 1]]));
+                    pc += 2;
+                }
+                case Op.WRB -> {
+                    io.writeBool(s[bp + code[pc + 1]] != 0);
+                    pc += 2;
+                }
+                case Op.WRS -> {
+                    io.writeString((String) r[bp + code[pc + 1]]);
+                    pc += 2;
+                }
+                case Op.WRLN -> {
+                    io.newline();
+                    pc += 1;
+                }
+                case Op.RDI -> {
+                    Integer v = io.readInt();
+                    if (v != null) {
+                        s[bp + code[pc + 1]] = v;
+                    }
+                    pc += 2;
+                }
+                case Op.RDR -> {
+                    Double v = io.readReal();
+                    if (v != null) {
+                        s[bp + code[pc + 1]] = bits(v);
+                    }
+                    pc += 2;
+                }
+                case Op.RDB -> {
+                    Boolean v = io.readBool();
+                    if (v != null) {
+                        s[bp + code[pc + 1]] = v ? 1 : 0;
+                    }
+                    pc += 2;
+                }
+                default ->
+                    throw new IllegalStateException("bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    private static double real(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static long bits(double v) {
+        return Double.doubleToRawLongBits(v);
+    }
+
+    private static int compare(String x, String y) {
+        if (x == null || y == null) {
+            return Boolean.compare(x != null, y != null);
+        }
+        return x.compareTo(y);
+    }
+}